@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Flow;
+import org.brutusin.wava.io.JobEvent;
+
+/**
+ * Publisher of the events of an asynchronous job to a single subscriber.
+ * Events are buffered until the subscriber requests them, so none is dropped
+ * and the thread publishing them is never blocked. Signals are delivered
+ * serially by the thread publishing or requesting at that moment.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class JobEventPublisher implements Flow.Publisher<JobEvent> {
+
+    private final ArrayDeque<JobEvent> events = new ArrayDeque<>();
+    // guarded by this
+    private Flow.Subscriber<? super JobEvent> subscriber;
+    private long requested;
+    private boolean completed;
+    private Throwable error;
+    private boolean cancelled;
+    private boolean emitting;
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super JobEvent> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException();
+        }
+        synchronized (this) {
+            if (this.subscriber != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+                return;
+            }
+            this.subscriber = subscriber;
+            this.emitting = true;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                JobEventPublisher.this.request(n);
+            }
+
+            @Override
+            public void cancel() {
+                JobEventPublisher.this.cancel();
+            }
+        });
+        synchronized (this) {
+            emitting = false;
+        }
+        emit();
+    }
+
+    public void submit(JobEvent event) {
+        synchronized (this) {
+            if (completed || cancelled) {
+                return;
+            }
+            events.add(event);
+        }
+        emit();
+    }
+
+    /**
+     * Completes the subscriber, normally if {@code th} is null, once all the
+     * buffered events have been delivered.
+     */
+    public void complete(Throwable th) {
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            error = th;
+        }
+        emit();
+    }
+
+    private void request(long n) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                // the error is signaled before the pending events
+                events.clear();
+                completed = true;
+                error = new IllegalArgumentException("Non-positive number of requested events: " + n);
+            } else {
+                requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+            }
+        }
+        emit();
+    }
+
+    private synchronized void cancel() {
+        cancelled = true;
+        events.clear();
+    }
+
+    private void emit() {
+        synchronized (this) {
+            if (emitting || subscriber == null) {
+                return;
+            }
+            emitting = true;
+        }
+        while (true) {
+            JobEvent event = null;
+            boolean done = false;
+            Throwable th = null;
+            synchronized (this) {
+                if (cancelled) {
+                    emitting = false;
+                    return;
+                }
+                if (!events.isEmpty() && requested > 0) {
+                    event = events.poll();
+                    if (requested != Long.MAX_VALUE) {
+                        requested--;
+                    }
+                } else if (events.isEmpty() && completed) {
+                    done = true;
+                    th = error;
+                    cancelled = true;
+                } else {
+                    emitting = false;
+                    return;
+                }
+            }
+            if (done) {
+                if (th == null) {
+                    subscriber.onComplete();
+                } else {
+                    subscriber.onError(th);
+                }
+            } else {
+                try {
+                    subscriber.onNext(event);
+                } catch (Throwable t) {
+                    cancel();
+                    subscriber.onError(t);
+                }
+            }
+        }
+    }
+}
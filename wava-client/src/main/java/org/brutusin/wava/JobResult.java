@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava;
+
+/**
+ * Outcome of a job submitted asynchronously.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class JobResult {
+
+    private Integer id;
+    private int retCode;
+    private Long maxRss;
+    private Long maxSwap;
+
+    /**
+     * @return id assigned by the core, or {@code null} if the job was
+     * rejected before being enqueued
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    void setId(Integer id) {
+        this.id = id;
+    }
+
+    public int getRetCode() {
+        return retCode;
+    }
+
+    void setRetCode(int retCode) {
+        this.retCode = retCode;
+    }
+
+    /**
+     * @return maximum RSS of the job process tree, or {@code null} if the job
+     * did not run
+     */
+    public Long getMaxRss() {
+        return maxRss;
+    }
+
+    void setMaxRss(Long maxRss) {
+        this.maxRss = maxRss;
+    }
+
+    public Long getMaxSwap() {
+        return maxSwap;
+    }
+
+    void setMaxSwap(Long maxSwap) {
+        this.maxSwap = maxSwap;
+    }
+}
@@ -5,13 +5,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import org.brutusin.commons.utils.Miscellaneous;
 import org.brutusin.commons.utils.ProcessException;
-import org.brutusin.commons.utils.ProcessUtils;
 
 /*
  * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
@@ -35,7 +39,6 @@ import org.brutusin.commons.utils.ProcessUtils;
 public class Utils {
 
     public final static DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    private final static File LOCK_FILE = new File(WavaTemp.getInstance().getTemp(), ".lock");
 
     public static List<String> parseEventLine(String line) {
         List<String> ret = new ArrayList<>();
@@ -57,7 +60,7 @@ public class Utils {
     }
 
     public static FileLock tryWavaLock() throws IOException {
-        return tryLock(LOCK_FILE);
+        return tryLock(LockFile.INSTANCE);
     }
 
     private static FileLock tryLock(File f) throws IOException {
@@ -66,25 +69,65 @@ public class Utils {
                 Miscellaneous.createFile(f.getAbsolutePath());
             }
             RandomAccessFile raf = new RandomAccessFile(f, "rws");
-            return raf.getChannel().tryLock();
+            FileLock lock = raf.getChannel().tryLock();
+            if (lock == null) {
+                raf.close();
+            }
+            return lock;
         }
     }
 
     public static boolean isCoreRunning() throws IOException {
-        synchronized (LOCK_FILE) {
+        synchronized (LockFile.INSTANCE) {
             FileLock lock = tryWavaLock();
             if (lock != null) {
                 lock.release();
+                lock.channel().close();
             }
             return lock == null;
         }
     }
 
+    /**
+     * Resolved on first use, so that the rest of the utilities do not require
+     * a wava installation.
+     */
+    private static final class LockFile {
+
+        private static final File INSTANCE = new File(WavaTemp.getInstance().getTemp(), ".lock");
+    }
+
     public static int getJVMPid() {
+        return (int) ProcessHandle.current().pid();
+    }
+
+    /**
+     * Content hash of an environment, independent of the order of its
+     * entries. Used to identify environments shared by several submissions.
+     * Null values are hashed differently from empty ones.
+     */
+    public static String getEnvironmentHash(Map<String, String> environment) {
         try {
-            String[] cmd = {"/bin/bash", "-c", "echo $PPID"};
-            return Integer.valueOf(ProcessUtils.executeProcess(cmd));
-        } catch (Exception ex) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> entry : new TreeMap<>(environment).entrySet()) {
+                md.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+                if (entry.getValue() == null) {
+                    md.update((byte) 0);
+                } else {
+                    md.update((byte) 1);
+                    md.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                    md.update((byte) 0);
+                }
+            }
+            byte[] digest = md.digest();
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
             throw new RuntimeException(ex);
         }
     }
@@ -19,13 +19,27 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
 import org.brutusin.wava.env.EnvEntry;
 import org.brutusin.wava.input.CancelInput;
 import org.brutusin.wava.input.ExtendedSubmitInput;
 import org.brutusin.wava.input.GroupInput;
 import org.brutusin.wava.input.Input;
+import org.brutusin.wava.input.PositionInput;
 import org.brutusin.wava.input.SubmitInput;
+import org.brutusin.wava.io.AsyncRequestExecutor;
+import org.brutusin.wava.io.BatchListener;
+import org.brutusin.wava.io.Event;
 import org.brutusin.wava.io.EventListener;
+import org.brutusin.wava.io.JobEvent;
 import org.brutusin.wava.io.LineListener;
 import org.brutusin.wava.io.OpName;
 import org.brutusin.wava.io.RequestExecutor;
@@ -55,6 +69,160 @@ public class WavaClient {
         }
     }
 
+    /**
+     * Submits a job without blocking the calling thread. Events, stdout and
+     * stderr are delivered in order by a bounded pool of callback threads, and
+     * the reading of a job is suspended while its stdout and stderr listeners
+     * lag behind, so a slow listener only delays its own job. Asynchronous
+     * jobs receive no stdin.
+     *
+     * @param eventSubscriber subscriber of the job events (may be null).
+     * Events are buffered until requested, none is dropped, and the subscriber
+     * is completed after the last one when the job finishes
+     * @return a future completed when the job finishes, or completed
+     * exceptionally with a {@link WavaNotRunningException} if the core process
+     * is not running
+     */
+    public CompletableFuture<JobResult> submitAsync(SubmitInput input, Flow.Subscriber<? super JobEvent> eventSubscriber, OutputStream stdoutStream, LineListener stderrListener) {
+        ExtendedSubmitInput esi = new ExtendedSubmitInput(input);
+        String parentId = System.getenv(EnvEntry.WAVA_JOB_ID.name());
+        if (parentId != null) {
+            esi.setParentId(Integer.valueOf(parentId));
+        }
+        final JobEventPublisher publisher;
+        if (eventSubscriber != null) {
+            publisher = new JobEventPublisher();
+            publisher.subscribe(eventSubscriber);
+        } else {
+            publisher = null;
+        }
+        final JobResult result = new JobResult();
+        EventListener eventListener = new EventListener() {
+            @Override
+            public void onEvent(Event evt, String value, long time) {
+                if (evt == Event.id) {
+                    result.setId(Integer.valueOf(value));
+                } else if (evt == Event.maxrss) {
+                    result.setMaxRss(Long.valueOf(value));
+                } else if (evt == Event.maxswap) {
+                    result.setMaxSwap(Long.valueOf(value));
+                }
+                if (publisher != null) {
+                    publisher.submit(new JobEvent(evt, value, time));
+                }
+            }
+        };
+        final CompletableFuture<JobResult> ret = new CompletableFuture<>();
+        AsyncRequestExecutor.getInstance().executeRequest(OpName.submit, esi, stdoutStream, stderrListener, eventListener).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer retCode, Throwable th) {
+                if (th == null) {
+                    if (retCode == null) {
+                        th = new RuntimeException("Connection closed by the core process");
+                    } else if (retCode == RetCode.CORE_NOT_RUNNING.getCode()) {
+                        th = new WavaNotRunningException();
+                    }
+                }
+                if (publisher != null) {
+                    publisher.complete(th);
+                }
+                if (th == null) {
+                    result.setRetCode(retCode);
+                    ret.complete(result);
+                } else {
+                    ret.completeExceptionally(th);
+                }
+            }
+        });
+        return ret;
+    }
+
+    public CompletableFuture<JobResult> submitAsync(SubmitInput input) {
+        return submitAsync(input, null, null, null);
+    }
+
+    /**
+     * Submits several jobs in a single request. Jobs are enqueued in one
+     * scheduling pass, and their events and output are received multiplexed
+     * over one connection. Batch jobs receive no stdin.
+     *
+     * @return the return codes of the jobs, in the same order as the inputs
+     */
+    public Integer[] submitAll(List<SubmitInput> inputs, final BatchListener listener) throws WavaNotRunningException {
+        List<ExtendedSubmitInput> items = new ArrayList<>(inputs.size());
+        String parentId = System.getenv(EnvEntry.WAVA_JOB_ID.name());
+        // Each distinct environment is sent once, later items refer to it by its hash
+        Map<Map<String, String>, String> hashes = new IdentityHashMap<>();
+        Set<String> sentEnvironments = new HashSet<>();
+        for (SubmitInput input : inputs) {
+            ExtendedSubmitInput esi = new ExtendedSubmitInput(input);
+            if (parentId != null) {
+                esi.setParentId(Integer.valueOf(parentId));
+            }
+            if (esi.getEnvironment() != null && esi.getEnvironmentHash() == null) {
+                String hash = hashes.get(esi.getEnvironment());
+                if (hash == null) {
+                    hash = Utils.getEnvironmentHash(esi.getEnvironment());
+                    hashes.put(esi.getEnvironment(), hash);
+                }
+                if (!sentEnvironments.add(hash)) {
+                    esi.setEnvironment(null);
+                    esi.setEnvironmentHash(hash);
+                }
+            }
+            items.add(esi);
+        }
+        final Integer[] retCodes = new Integer[items.size()];
+        final StringBuilder sb = new StringBuilder();
+        LineListener stderrListener = new LineListener() {
+            @Override
+            public void onNewLine(String line) {
+                if (sb.length() > 0) {
+                    sb.append("\n");
+                }
+                sb.append(line);
+            }
+        };
+        BatchListener batchListener = new BatchListener() {
+            @Override
+            public void onEvent(int index, Event evt, String value, long time) {
+                if (evt == Event.retcode) {
+                    retCodes[index] = Integer.valueOf(value);
+                }
+                if (listener != null) {
+                    listener.onEvent(index, evt, value, time);
+                }
+            }
+
+            @Override
+            public void onStdout(int index, byte[] b, int off, int len) {
+                if (listener != null) {
+                    listener.onStdout(index, b, off, len);
+                }
+            }
+
+            @Override
+            public void onStderrLine(int index, String line) {
+                if (listener != null) {
+                    listener.onStderrLine(index, line);
+                }
+            }
+        };
+        try {
+            Integer retCode = executor.executeBatchRequest(OpName.batch, new Input(), items, stderrListener, batchListener);
+            if (retCode == null) {
+                throw new RuntimeException("Connection closed by the core process");
+            } else if (retCode == RetCode.CORE_NOT_RUNNING.getCode()) {
+                throw new WavaNotRunningException();
+            } else if (retCode != 0) {
+                throw new RuntimeException(sb.toString());
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return retCodes;
+    }
+
     private static String executeCommand(RequestExecutor executor, OpName opName, Input input) throws WavaNotRunningException {
         ByteArrayOutputStream stdoutOs = new ByteArrayOutputStream();
         final StringBuilder sb = new StringBuilder();
@@ -89,6 +257,17 @@ public class WavaClient {
         return executeCommand(executor, OpName.cancel, input);
     }
 
+    /**
+     * Returns the current position of a job in the queue (starting at 1), or
+     * 0 if the job is not queued. Pull alternative to the {@code queued}
+     * events.
+     */
+    public int getQueuePosition(int jobId) throws WavaNotRunningException {
+        PositionInput input = new PositionInput();
+        input.setId(jobId);
+        return Integer.parseInt(executeCommand(executor, OpName.position, input).trim());
+    }
+
     public static boolean isSchedulerRunning() {
         try {
             return Utils.isCoreRunning();
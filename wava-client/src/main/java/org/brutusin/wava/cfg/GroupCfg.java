@@ -33,8 +33,20 @@ public interface GroupCfg {
 
         public int getPriority();
 
+        public int getWeight();
+
         public int getTimeToIdleSeconds();
-        
+
+        public int getWallTimeLimitSeconds();
+
+        public int getCpuTimeLimitSeconds();
+
+        public String getMaxRss();
+
+        public int getMaxJobs();
+
+        public String getMinRss();
+
         public File getStatsDirectory();
     }
 }
@@ -47,6 +47,40 @@ public interface SchedulerCfg {
 
     public int getStatsMillisecs();
 
+    public int getEventFlushMillisecs();
+
+    public int getQueuePositionMillisecs();
+
+    public float getQueuePositionChangeRatio();
+
+    public int getRequestThreads();
+
+    public int getMaxPendingRequests();
+
+    public int getRequestTimeoutMillisecs();
+
+    public int getMaxBatchItems();
+
+    public int getMaxBatchBytes();
+
+    public float getMaxUserRequestsPerSecond();
+
+    public int getFinishedJobsCacheSize();
+
+    public int getLimitGraceMillisecs();
+
+    public boolean isEdfScheduling();
+
+    public int getAgingSeconds();
+
+    public float getMaxLaunchesPerSecond();
+
+    public int getLaunchBurst();
+
+    public int getMaxConcurrentLaunches();
+
+    public float getLaunchLoadThreshold();
+
     public float getMaxBlockedRssStarvationRatio();
 
     public String getSchedulerCapacity();
@@ -49,7 +49,13 @@ public class GroupCfgImpl implements GroupCfg {
 
         private String name;
         private int priority;
+        private int weight = 1;
         private int timeToIdleSeconds;
+        private int wallTimeLimitSeconds;
+        private int cpuTimeLimitSeconds;
+        private String maxRss;
+        private int maxJobs;
+        private String minRss;
         private File statsDirectory;
 
         public GroupImpl() {
@@ -80,6 +86,15 @@ public class GroupCfgImpl implements GroupCfg {
             this.priority = priority;
         }
 
+        @Override
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
         @Override
         public int getTimeToIdleSeconds() {
             return timeToIdleSeconds;
@@ -89,6 +104,51 @@ public class GroupCfgImpl implements GroupCfg {
             this.timeToIdleSeconds = timeToIdleSeconds;
         }
 
+        @Override
+        public int getWallTimeLimitSeconds() {
+            return wallTimeLimitSeconds;
+        }
+
+        public void setWallTimeLimitSeconds(int wallTimeLimitSeconds) {
+            this.wallTimeLimitSeconds = wallTimeLimitSeconds;
+        }
+
+        @Override
+        public int getCpuTimeLimitSeconds() {
+            return cpuTimeLimitSeconds;
+        }
+
+        public void setCpuTimeLimitSeconds(int cpuTimeLimitSeconds) {
+            this.cpuTimeLimitSeconds = cpuTimeLimitSeconds;
+        }
+
+        @Override
+        public String getMaxRss() {
+            return maxRss;
+        }
+
+        public void setMaxRss(String maxRss) {
+            this.maxRss = maxRss;
+        }
+
+        @Override
+        public int getMaxJobs() {
+            return maxJobs;
+        }
+
+        public void setMaxJobs(int maxJobs) {
+            this.maxJobs = maxJobs;
+        }
+
+        @Override
+        public String getMinRss() {
+            return minRss;
+        }
+
+        public void setMinRss(String minRss) {
+            this.minRss = minRss;
+        }
+
         @Override
         public File getStatsDirectory() {
             return statsDirectory;
@@ -28,11 +28,28 @@ public class SchedulerCfgImpl implements SchedulerCfg {
     private String cgroupRootPath;
     private int cleaningMillisecs = 100;
     private int statsMillisecs = 1000;
+    private int eventFlushMillisecs = 50;
+    private int queuePositionMillisecs = 1000;
+    private float queuePositionChangeRatio = 0.1f;
+    private int requestThreads = 16;
+    private int maxPendingRequests = 1024;
+    private int requestTimeoutMillisecs = 10000;
+    private int maxBatchItems = 10000;
+    private int maxBatchBytes = 64 * 1024 * 1024;
+    private float maxUserRequestsPerSecond = 200;
+    private int finishedJobsCacheSize = 10000;
+    private int limitGraceMillisecs = 30000;
+    private boolean edfScheduling = false;
+    private int agingSeconds = 0;
+    private float maxLaunchesPerSecond = 0;
+    private int launchBurst = 10;
+    private int maxConcurrentLaunches = 0;
+    private float launchLoadThreshold = 0;
     private String schedulerCapacity = "$DEFAULT_CAPACITY";
     private String maxSwap = "$DEFAULT_SWAP";
     private String maxJobSize = "$DEFAULT_CAPACITY";
     private boolean outOfMemoryKillerEnabled = false;
-    private float maxBlockedRssStarvationRatio = 0.5f;
+    private float maxBlockedRssStarvationRatio = 1f;
     private String logFolder = "/tmp/wava";
     private String loggingLevel = "FINE";
     private String maxLogSize = "100MB";
@@ -130,6 +147,159 @@ public class SchedulerCfgImpl implements SchedulerCfg {
         this.statsMillisecs = statsMillisecs;
     }
 
+    @Override
+    public int getEventFlushMillisecs() {
+        return eventFlushMillisecs;
+    }
+
+    public void setEventFlushMillisecs(int eventFlushMillisecs) {
+        this.eventFlushMillisecs = eventFlushMillisecs;
+    }
+
+    @Override
+    public int getQueuePositionMillisecs() {
+        return queuePositionMillisecs;
+    }
+
+    public void setQueuePositionMillisecs(int queuePositionMillisecs) {
+        this.queuePositionMillisecs = queuePositionMillisecs;
+    }
+
+    @Override
+    public float getQueuePositionChangeRatio() {
+        return queuePositionChangeRatio;
+    }
+
+    public void setQueuePositionChangeRatio(float queuePositionChangeRatio) {
+        this.queuePositionChangeRatio = queuePositionChangeRatio;
+    }
+
+    @Override
+    public int getRequestThreads() {
+        return requestThreads;
+    }
+
+    public void setRequestThreads(int requestThreads) {
+        this.requestThreads = requestThreads;
+    }
+
+    @Override
+    public int getMaxPendingRequests() {
+        return maxPendingRequests;
+    }
+
+    public void setMaxPendingRequests(int maxPendingRequests) {
+        this.maxPendingRequests = maxPendingRequests;
+    }
+
+    @Override
+    public int getRequestTimeoutMillisecs() {
+        return requestTimeoutMillisecs;
+    }
+
+    public void setRequestTimeoutMillisecs(int requestTimeoutMillisecs) {
+        this.requestTimeoutMillisecs = requestTimeoutMillisecs;
+    }
+
+    @Override
+    public int getMaxBatchItems() {
+        return maxBatchItems;
+    }
+
+    public void setMaxBatchItems(int maxBatchItems) {
+        this.maxBatchItems = maxBatchItems;
+    }
+
+    @Override
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @Override
+    public float getMaxUserRequestsPerSecond() {
+        return maxUserRequestsPerSecond;
+    }
+
+    public void setMaxUserRequestsPerSecond(float maxUserRequestsPerSecond) {
+        this.maxUserRequestsPerSecond = maxUserRequestsPerSecond;
+    }
+
+    @Override
+    public int getFinishedJobsCacheSize() {
+        return finishedJobsCacheSize;
+    }
+
+    public void setFinishedJobsCacheSize(int finishedJobsCacheSize) {
+        this.finishedJobsCacheSize = finishedJobsCacheSize;
+    }
+
+    @Override
+    public int getLimitGraceMillisecs() {
+        return limitGraceMillisecs;
+    }
+
+    public void setLimitGraceMillisecs(int limitGraceMillisecs) {
+        this.limitGraceMillisecs = limitGraceMillisecs;
+    }
+
+    @Override
+    public boolean isEdfScheduling() {
+        return edfScheduling;
+    }
+
+    public void setEdfScheduling(boolean edfScheduling) {
+        this.edfScheduling = edfScheduling;
+    }
+
+    @Override
+    public int getAgingSeconds() {
+        return agingSeconds;
+    }
+
+    public void setAgingSeconds(int agingSeconds) {
+        this.agingSeconds = agingSeconds;
+    }
+
+    @Override
+    public float getMaxLaunchesPerSecond() {
+        return maxLaunchesPerSecond;
+    }
+
+    public void setMaxLaunchesPerSecond(float maxLaunchesPerSecond) {
+        this.maxLaunchesPerSecond = maxLaunchesPerSecond;
+    }
+
+    @Override
+    public int getLaunchBurst() {
+        return launchBurst;
+    }
+
+    public void setLaunchBurst(int launchBurst) {
+        this.launchBurst = launchBurst;
+    }
+
+    @Override
+    public int getMaxConcurrentLaunches() {
+        return maxConcurrentLaunches;
+    }
+
+    public void setMaxConcurrentLaunches(int maxConcurrentLaunches) {
+        this.maxConcurrentLaunches = maxConcurrentLaunches;
+    }
+
+    @Override
+    public float getLaunchLoadThreshold() {
+        return launchLoadThreshold;
+    }
+
+    public void setLaunchLoadThreshold(float launchLoadThreshold) {
+        this.launchLoadThreshold = launchLoadThreshold;
+    }
+
     @Override
     public String getLogFolder() {
         return logFolder;
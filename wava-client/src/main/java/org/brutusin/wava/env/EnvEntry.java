@@ -22,5 +22,6 @@ package org.brutusin.wava.env;
 public enum EnvEntry {
     WAVA_HOME,
     WAVA_JOB_ID,
+    WAVA_ARRAY_INDEX,
     STDIN_TTY
 }
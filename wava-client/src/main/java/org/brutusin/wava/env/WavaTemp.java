@@ -27,6 +27,7 @@ public final class WavaTemp {
     private static final WavaTemp INSTANCE = new WavaTemp();
 
     private final File temp;
+    private final File socketFile;
 
     public static WavaTemp getInstance() {
         return INSTANCE;
@@ -34,9 +35,17 @@ public final class WavaTemp {
 
     private WavaTemp() {
         this.temp = Config.getInstance().getTempFolder();
+        this.socketFile = new File(temp, "wava.sock");
     }
 
     public File getTemp() {
         return temp;
     }
+
+    /**
+     * @return Unix domain socket the core process listens to for requests
+     */
+    public File getSocketFile() {
+        return socketFile;
+    }
 }
@@ -29,10 +29,28 @@ public class ExtendedSubmitInput extends SubmitInput {
     public ExtendedSubmitInput(SubmitInput si) {
         setCommand(si.getCommand());
         setEnvironment(si.getEnvironment());
+        setEnvironmentHash(si.getEnvironmentHash());
         setGroupName(si.getGroupName());
         setIdempotent(si.isIdempotent());
+        setWallTimeLimitSeconds(si.getWallTimeLimitSeconds());
+        setCpuTimeLimitSeconds(si.getCpuTimeLimitSeconds());
+        setDeadline(si.getDeadline());
+        setEstimatedRuntimeSeconds(si.getEstimatedRuntimeSeconds());
+        setGang(si.getGang());
+        setGangSize(si.getGangSize());
         setMaxRSS(si.getMaxRSS());
+        setChildrenBudget(si.getChildrenBudget());
         setWorkingDirectory(si.getWorkingDirectory());
+        setStatsDirectory(si.getStatsDirectory());
+        setArraySize(si.getArraySize());
+        setAttachedStdio(si.isAttachedStdio());
+        setStdoutFile(si.getStdoutFile());
+        setStderrFile(si.getStderrFile());
+        setAppendOutput(si.isAppendOutput());
+        setNoQueuePositionEvents(si.isNoQueuePositionEvents());
+        setAfterOk(si.getAfterOk());
+        setAfterAny(si.getAfterAny());
+        setAfterNotOk(si.getAfterNotOk());
     }
 
     public Integer getParentId() {
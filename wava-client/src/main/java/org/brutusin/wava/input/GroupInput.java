@@ -6,7 +6,13 @@ public class GroupInput extends Input {
 
     private String groupName;
     private Integer priority;
+    private Integer weight;
     private Integer timetoIdleSeconds;
+    private Integer wallTimeLimitSeconds;
+    private Integer cpuTimeLimitSeconds;
+    private Long maxRss;
+    private Integer maxJobs;
+    private Long minRss;
     private boolean delete;
     private boolean list;
     private boolean noHeaders;
@@ -28,6 +34,14 @@ public class GroupInput extends Input {
         this.priority = priority;
     }
 
+    public Integer getWeight() {
+        return weight;
+    }
+
+    public void setWeight(Integer weight) {
+        this.weight = weight;
+    }
+
     public Integer getTimetoIdleSeconds() {
         return timetoIdleSeconds;
     }
@@ -36,6 +50,46 @@ public class GroupInput extends Input {
         this.timetoIdleSeconds = timetoIdleSeconds;
     }
 
+    public Integer getWallTimeLimitSeconds() {
+        return wallTimeLimitSeconds;
+    }
+
+    public void setWallTimeLimitSeconds(Integer wallTimeLimitSeconds) {
+        this.wallTimeLimitSeconds = wallTimeLimitSeconds;
+    }
+
+    public Integer getCpuTimeLimitSeconds() {
+        return cpuTimeLimitSeconds;
+    }
+
+    public void setCpuTimeLimitSeconds(Integer cpuTimeLimitSeconds) {
+        this.cpuTimeLimitSeconds = cpuTimeLimitSeconds;
+    }
+
+    public Long getMaxRss() {
+        return maxRss;
+    }
+
+    public void setMaxRss(Long maxRss) {
+        this.maxRss = maxRss;
+    }
+
+    public Integer getMaxJobs() {
+        return maxJobs;
+    }
+
+    public void setMaxJobs(Integer maxJobs) {
+        this.maxJobs = maxJobs;
+    }
+
+    public Long getMinRss() {
+        return minRss;
+    }
+
+    public void setMinRss(Long minRss) {
+        this.minRss = minRss;
+    }
+
     public boolean isDelete() {
         return delete;
     }
@@ -67,4 +121,4 @@ public class GroupInput extends Input {
     public void setStatsDirectory(File statsDirectory) {
         this.statsDirectory = statsDirectory;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -23,9 +23,17 @@ import org.brutusin.wava.Utils;
  */
 public class Input {
 
-    private final int clientPid = Utils.getJVMPid();
+    private int clientPid = Utils.getJVMPid();
 
+    /**
+     * Pid of the process the request is made on behalf of. By default the
+     * current JVM, the client agent sets the one of the launcher process.
+     */
     public int getClientPid() {
         return clientPid;
     }
+
+    public void setClientPid(int clientPid) {
+        this.clientPid = clientPid;
+    }
 }
@@ -0,0 +1,14 @@
+package org.brutusin.wava.input;
+
+public class PositionInput extends Input {
+
+    private int id;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+}
@@ -9,10 +9,27 @@ public class SubmitInput extends Input {
     private String groupName;
     private String[] command;
     private long maxRSS;    
+    private long childrenBudget;
     private Map<String,String> environment;    
+    private String environmentHash;
     private File workingDirectory;
     private File statsDirectory;
     private boolean idempotent;
+    private int wallTimeLimitSeconds;
+    private int cpuTimeLimitSeconds;
+    private long deadline;
+    private int estimatedRuntimeSeconds;
+    private String gang;
+    private int gangSize;
+    private int arraySize;
+    private boolean attachedStdio;
+    private File stdoutFile;
+    private File stderrFile;
+    private boolean appendOutput;
+    private boolean noQueuePositionEvents;
+    private int[] afterOk;
+    private int[] afterAny;
+    private int[] afterNotOk;
 
     public Map<String, String> getEnvironment() {
         return environment;
@@ -22,6 +39,18 @@ public class SubmitInput extends Input {
         this.environment = environment;
     }
 
+    /**
+     * Content hash of an environment already known by the core, sent instead
+     * of the environment itself.
+     */
+    public String getEnvironmentHash() {
+        return environmentHash;
+    }
+
+    public void setEnvironmentHash(String environmentHash) {
+        this.environmentHash = environmentHash;
+    }
+
     public File getWorkingDirectory() {
         return workingDirectory;
     }
@@ -62,6 +91,93 @@ public class SubmitInput extends Input {
         this.maxRSS = maxRSS;
     }
 
+    /**
+     * Memory reserved, in addition to {@link #getMaxRSS()}, for the jobs
+     * submitted by this job once it is running. Children fitting in the
+     * remaining budget are started without waiting for their turn in the
+     * queue.
+     */
+    public long getChildrenBudget() {
+        return childrenBudget;
+    }
+
+    public void setChildrenBudget(long childrenBudget) {
+        this.childrenBudget = childrenBudget;
+    }
+
+    /**
+     * Maximum elapsed time of the job once started. Values lower than 1 apply
+     * the limit of the job group, if any.
+     */
+    public int getWallTimeLimitSeconds() {
+        return wallTimeLimitSeconds;
+    }
+
+    public void setWallTimeLimitSeconds(int wallTimeLimitSeconds) {
+        this.wallTimeLimitSeconds = wallTimeLimitSeconds;
+    }
+
+    /**
+     * Maximum CPU time (user plus system) consumed by the job process tree.
+     * Values lower than 1 apply the limit of the job group, if any.
+     */
+    public int getCpuTimeLimitSeconds() {
+        return cpuTimeLimitSeconds;
+    }
+
+    public void setCpuTimeLimitSeconds(int cpuTimeLimitSeconds) {
+        this.cpuTimeLimitSeconds = cpuTimeLimitSeconds;
+    }
+
+    /**
+     * Time (epoch millis) the job is expected to finish by. Values lower than
+     * 1 mean no deadline.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Declared running time of the job, used for deadline feasibility. If
+     * lower than 1 the running time of previous executions of the same
+     * command is used.
+     */
+    public int getEstimatedRuntimeSeconds() {
+        return estimatedRuntimeSeconds;
+    }
+
+    public void setEstimatedRuntimeSeconds(int estimatedRuntimeSeconds) {
+        this.estimatedRuntimeSeconds = estimatedRuntimeSeconds;
+    }
+
+    /**
+     * Name of the gang the job belongs to. Gang members are started together,
+     * once all of them have been submitted and fit, and are killed together
+     * if any of them fails. Names are scoped to the submitting user.
+     */
+    public String getGang() {
+        return gang;
+    }
+
+    public void setGang(String gang) {
+        this.gang = gang;
+    }
+
+    /**
+     * Number of members of the gang.
+     */
+    public int getGangSize() {
+        return gangSize;
+    }
+
+    public void setGangSize(int gangSize) {
+        this.gangSize = gangSize;
+    }
+
     public boolean isIdempotent() {
         return idempotent;
     }
@@ -69,4 +185,112 @@ public class SubmitInput extends Input {
     public void setIdempotent(boolean idempotent) {
         this.idempotent = idempotent;
     }
+
+    /**
+     * Number of tasks of the job array. Values lower than 1 denote a single
+     * job. Tasks receive their index in variable {@code WAVA_ARRAY_INDEX}.
+     */
+    public int getArraySize() {
+        return arraySize;
+    }
+
+    public void setArraySize(int arraySize) {
+        this.arraySize = arraySize;
+    }
+
+    /**
+     * Whether the job opens the standard streams of the client process itself
+     * (through {@code /proc/<clientPid>/fd}) instead of having them forwarded
+     * by the core. Set by the client when none of them is a socket.
+     */
+    public boolean isAttachedStdio() {
+        return attachedStdio;
+    }
+
+    public void setAttachedStdio(boolean attachedStdio) {
+        this.attachedStdio = attachedStdio;
+    }
+
+    /**
+     * File the job stdout is written to, opened by the job itself with the
+     * permissions of the submitting user. In job arrays, {@code %a} is
+     * replaced by the task index. If null, stdout is sent to the client.
+     */
+    public File getStdoutFile() {
+        return stdoutFile;
+    }
+
+    public void setStdoutFile(File stdoutFile) {
+        this.stdoutFile = stdoutFile;
+    }
+
+    /**
+     * File the job stderr is written to. Same as {@link #getStdoutFile()}.
+     */
+    public File getStderrFile() {
+        return stderrFile;
+    }
+
+    public void setStderrFile(File stderrFile) {
+        this.stderrFile = stderrFile;
+    }
+
+    /**
+     * Whether output files are appended instead of truncated.
+     */
+    public boolean isAppendOutput() {
+        return appendOutput;
+    }
+
+    public void setAppendOutput(boolean appendOutput) {
+        this.appendOutput = appendOutput;
+    }
+
+    /**
+     * Whether the {@code queued} position events are not sent for this job.
+     * The position can still be requested on demand.
+     */
+    public boolean isNoQueuePositionEvents() {
+        return noQueuePositionEvents;
+    }
+
+    public void setNoQueuePositionEvents(boolean noQueuePositionEvents) {
+        this.noQueuePositionEvents = noQueuePositionEvents;
+    }
+
+    /**
+     * Ids of the jobs that have to finish successfully before this job can be
+     * queued.
+     */
+    public int[] getAfterOk() {
+        return afterOk;
+    }
+
+    public void setAfterOk(int[] afterOk) {
+        this.afterOk = afterOk;
+    }
+
+    /**
+     * Ids of the jobs that have to finish, no matter their return code,
+     * before this job can be queued.
+     */
+    public int[] getAfterAny() {
+        return afterAny;
+    }
+
+    public void setAfterAny(int[] afterAny) {
+        this.afterAny = afterAny;
+    }
+
+    /**
+     * Ids of the jobs that have to fail (non-zero return code) before this
+     * job can be queued.
+     */
+    public int[] getAfterNotOk() {
+        return afterNotOk;
+    }
+
+    public void setAfterNotOk(int[] afterNotOk) {
+        this.afterNotOk = afterNotOk;
+    }
 }
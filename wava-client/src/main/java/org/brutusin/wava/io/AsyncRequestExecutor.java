@@ -0,0 +1,397 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.brutusin.commons.Bean;
+import org.brutusin.json.spi.JsonCodec;
+import org.brutusin.wava.env.WavaTemp;
+import org.brutusin.wava.input.Input;
+
+/**
+ * Executes requests without blocking the calling thread. The responses of all
+ * the requests are read by a single shared IO thread, and their events, stdout
+ * and stderr are delivered to the listeners by a bounded pool of callback
+ * threads, in order for each request. Reading of a request is suspended while
+ * its listeners lag behind, so a slow listener only delays its own request,
+ * and also while the queue of the pool is full. No stdin is sent.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class AsyncRequestExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncRequestExecutor.class.getName());
+    private static final int MAX_PENDING_FRAMES = 16;
+    private static final int CALLBACK_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int CALLBACK_QUEUE_SIZE = 256;
+    private static volatile AsyncRequestExecutor instance;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Connection> registrations = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(FrameWriter.HEADER_SIZE + FrameWriter.MAX_PAYLOAD);
+    // connections with callbacks waiting for room in the callback queue
+    private final ConcurrentLinkedDeque<Connection> starved = new ConcurrentLinkedDeque<>();
+    private final ThreadPoolExecutor callbackExecutor = new ThreadPoolExecutor(CALLBACK_THREADS, CALLBACK_THREADS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(CALLBACK_QUEUE_SIZE), new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "wava-client-callback-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private AsyncRequestExecutor() throws IOException {
+        this.selector = Selector.open();
+        Thread thread = new Thread("wava-client-io") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        selector.select();
+                        Connection c;
+                        while ((c = registrations.poll()) != null) {
+                            try {
+                                c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+                            } catch (IOException ex) {
+                                fail(c, ex);
+                            }
+                        }
+                        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                        while (it.hasNext()) {
+                            SelectionKey key = it.next();
+                            it.remove();
+                            if (key.isValid()) {
+                                c = (Connection) key.attachment();
+                                try {
+                                    read(c);
+                                } catch (Throwable th) {
+                                    fail(c, th);
+                                }
+                            }
+                        }
+                    } catch (Throwable th) {
+                        LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static AsyncRequestExecutor getInstance() {
+        if (instance == null) {
+            synchronized (AsyncRequestExecutor.class) {
+                if (instance == null) {
+                    try {
+                        instance = new AsyncRequestExecutor();
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Sends the request and returns.
+     *
+     * @return a future completed with the return code of the request when the
+     * core closes the connection and all the output has been delivered to the
+     * listeners, or {@link RetCode#CORE_NOT_RUNNING}
+     */
+    public CompletableFuture<Integer> executeRequest(OpName opName, Input input, OutputStream stdoutStream, LineListener stderrListener, EventListener eventListener) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(WavaTemp.getInstance().getSocketFile().toPath()));
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, ex.getMessage(), ex);
+            future.complete(RetCode.CORE_NOT_RUNNING.getCode());
+            return future;
+        }
+        try {
+            FrameWriter writer = new FrameWriter(channel);
+            byte[] request = BinaryProtocol.encodeRequest(opName, BinaryProtocol.FLAG_BINARY_EVENTS, JsonCodec.getInstance().transform(input));
+            writer.write(FrameType.binaryRequest, 0, request, 0, request.length);
+            writer.writeEnd(FrameType.stdin, 0);
+            channel.configureBlocking(false);
+            registrations.add(new Connection(channel, future, stdoutStream, stderrListener, eventListener));
+            selector.wakeup();
+        } catch (Throwable th) {
+            close(channel);
+            future.completeExceptionally(th);
+        }
+        return future;
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, ex.getMessage());
+        }
+    }
+
+    /**
+     * Closes the connection and completes its future exceptionally from a
+     * callback thread, once the frames already received have been delivered.
+     */
+    private void fail(final Connection c, final Throwable th) {
+        close(c.channel);
+        enqueue(c, new Runnable() {
+            @Override
+            public void run() {
+                c.future.completeExceptionally(th);
+            }
+        });
+    }
+
+    private void read(final Connection c) {
+        buffer.clear();
+        int n;
+        try {
+            n = c.channel.read(buffer);
+        } catch (IOException ex) {
+            fail(c, ex);
+            return;
+        }
+        if (n < 0) {
+            close(c.channel);
+            final boolean truncated = c.payload != null || c.header.position() > 0;
+            enqueue(c, new Runnable() {
+                @Override
+                public void run() {
+                    if (truncated) {
+                        c.future.completeExceptionally(new IOException("Truncated frame"));
+                        return;
+                    }
+                    try {
+                        c.eventsDecoder.finish();
+                        c.stderrBuffer.finish();
+                        c.future.complete(c.retCode.getValue());
+                    } catch (Throwable th) {
+                        c.future.completeExceptionally(th);
+                    }
+                }
+            });
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            if (c.payload == null) {
+                while (c.header.hasRemaining() && buffer.hasRemaining()) {
+                    c.header.put(buffer.get());
+                }
+                if (c.header.hasRemaining()) {
+                    return;
+                }
+                c.header.flip();
+                c.type = FrameType.valueOf(c.header.get());
+                c.header.getInt(); // stream id, always 0
+                int length = c.header.getInt();
+                c.header.clear();
+                if (length < 0 || length > FrameWriter.MAX_PAYLOAD) {
+                    fail(c, new IOException("Invalid frame length " + length));
+                    return;
+                }
+                c.payload = ByteBuffer.allocate(length);
+            }
+            int len = Math.min(c.payload.remaining(), buffer.remaining());
+            buffer.get(c.payload.array(), c.payload.position(), len);
+            c.payload.position(c.payload.position() + len);
+            if (!c.payload.hasRemaining()) {
+                if (c.payload.capacity() > 0) {
+                    final FrameType type = c.type;
+                    final byte[] payload = c.payload.array();
+                    enqueue(c, new Runnable() {
+                        @Override
+                        public void run() {
+                            dispatch(c, type, payload);
+                        }
+                    });
+                }
+                c.payload = null;
+            }
+        }
+    }
+
+    private static void dispatch(Connection c, FrameType type, byte[] payload) {
+        if (c.future.isDone()) {
+            return;
+        }
+        if (type == FrameType.binaryEvents) {
+            try {
+                c.eventsDecoder.feed(payload, payload.length);
+            } catch (Throwable th) {
+                close(c.channel);
+                c.future.completeExceptionally(th);
+            }
+            return;
+        }
+        try {
+            if (type == FrameType.stdout) {
+                if (c.stdoutStream != null) {
+                    c.stdoutStream.write(payload, 0, payload.length);
+                    c.stdoutStream.flush();
+                }
+            } else if (type == FrameType.stderr) {
+                c.stderrBuffer.feed(payload, payload.length);
+            }
+        } catch (Throwable th) {
+            LOGGER.log(Level.SEVERE, th.getMessage(), th);
+        }
+    }
+
+    /**
+     * Queues a callback of the connection, suspending its reading while too
+     * many of them are pending. Called by the IO thread.
+     */
+    private void enqueue(final Connection c, Runnable task) {
+        c.tasks.add(task);
+        synchronized (c) {
+            c.pending++;
+            if (c.pending >= MAX_PENDING_FRAMES && !c.suspended && c.key != null && c.key.isValid()) {
+                c.suspended = true;
+                c.key.interestOps(0);
+            }
+            if (c.draining) {
+                return;
+            }
+            c.draining = true;
+        }
+        try {
+            schedule(c);
+        } catch (RejectedExecutionException ex) {
+            // the callback queue is full, stop reading until a slot is free
+            synchronized (c) {
+                if (!c.suspended && c.key != null && c.key.isValid()) {
+                    c.suspended = true;
+                    c.key.interestOps(0);
+                }
+            }
+            starved.add(c);
+            if (callbackExecutor.getQueue().remainingCapacity() > 0) {
+                scheduleStarved();
+            }
+        }
+    }
+
+    private void schedule(final Connection c) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain(c);
+                scheduleStarved();
+            }
+        });
+    }
+
+    /**
+     * Schedules the drains rejected while the callback queue was full. If it
+     * is full again, one of the queued drains retries when it finishes.
+     */
+    private void scheduleStarved() {
+        Connection c;
+        while ((c = starved.poll()) != null) {
+            try {
+                schedule(c);
+            } catch (RejectedExecutionException ex) {
+                starved.addFirst(c);
+                if (callbackExecutor.getQueue().remainingCapacity() == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void drain(Connection c) {
+        while (true) {
+            Runnable task = c.tasks.poll();
+            if (task != null) {
+                try {
+                    task.run();
+                } catch (Throwable th) {
+                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                }
+            }
+            synchronized (c) {
+                if (task != null) {
+                    c.pending--;
+                    if (c.suspended && c.pending <= MAX_PENDING_FRAMES / 2) {
+                        c.suspended = false;
+                        if (c.key != null && c.key.isValid()) {
+                            c.key.interestOps(SelectionKey.OP_READ);
+                            selector.wakeup();
+                        }
+                    }
+                }
+                if (c.pending == 0) {
+                    c.draining = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Connection {
+
+        private final SocketChannel channel;
+        private final CompletableFuture<Integer> future;
+        private final OutputStream stdoutStream;
+        private final Bean<Integer> retCode = new Bean<>();
+        private final BinaryEventDecoder eventsDecoder;
+        private final RequestExecutor.LineBuffer stderrBuffer;
+        private final ByteBuffer header = ByteBuffer.allocate(FrameWriter.HEADER_SIZE);
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private FrameType type;
+        private ByteBuffer payload;
+        private SelectionKey key;
+        // guarded by this
+        private int pending;
+        private boolean suspended;
+        private boolean draining;
+
+        public Connection(SocketChannel channel, CompletableFuture<Integer> future, OutputStream stdoutStream, LineListener stderrListener, EventListener eventListener) {
+            this.channel = channel;
+            this.future = future;
+            this.stdoutStream = stdoutStream;
+            this.eventsDecoder = new BinaryEventDecoder(retCode, eventListener);
+            this.stderrBuffer = new RequestExecutor.LineBuffer(stderrListener);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+/**
+ * Receives the multiplexed events and output of the jobs of a batch
+ * submission. Jobs are identified by their index in the submitted list.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public interface BatchListener {
+
+    public void onEvent(int index, Event evt, String value, long time);
+
+    public void onStdout(int index, byte[] b, int off, int len);
+
+    public void onStderrLine(int index, String line);
+}
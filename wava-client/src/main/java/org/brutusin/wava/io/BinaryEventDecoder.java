@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.brutusin.commons.Bean;
+
+/**
+ * Decodes the event records of {@link FrameType#binaryEvents} frames (see
+ * {@link BinaryProtocol}). Records can span several frames. Small numeric
+ * values, like queue positions, are notified without allocating. Unknown
+ * event codes and value tags are rejected, as the rest of the stream can not be
+ * decoded.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class BinaryEventDecoder implements PayloadDecoder {
+
+    private static final String[] NUMBERS = new String[1024];
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = String.valueOf(i);
+        }
+    }
+
+    private final Bean<Integer> retCode;
+    private final EventListener eventListener;
+    private byte[] pending;
+    private int pendingLength;
+
+    BinaryEventDecoder(Bean<Integer> retCode, EventListener eventListener) {
+        this.retCode = retCode;
+        this.eventListener = eventListener;
+    }
+
+    @Override
+    public void feed(byte[] b, int len) throws MalformedPayloadException {
+        if (pendingLength == 0) {
+            int pos = decode(b, len);
+            keep(b, pos, len);
+        } else {
+            if (pendingLength + len > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length << 1, pendingLength + len));
+            }
+            System.arraycopy(b, 0, pending, pendingLength, len);
+            int end = pendingLength + len;
+            pendingLength = 0;
+            int pos = decode(pending, end);
+            keep(pending, pos, end);
+        }
+    }
+
+    @Override
+    public void finish() throws MalformedPayloadException {
+        if (pendingLength > 0) {
+            pendingLength = 0;
+            throw new MalformedPayloadException("Truncated event record");
+        }
+    }
+
+    private void keep(byte[] b, int from, int to) {
+        int remaining = to - from;
+        if (remaining == 0) {
+            pendingLength = 0;
+            return;
+        }
+        if (pending == null || remaining > pending.length) {
+            pending = new byte[Math.max(256, remaining)];
+        }
+        System.arraycopy(b, from, pending, 0, remaining);
+        pendingLength = remaining;
+    }
+
+    /**
+     * @return the position of the first record not fully contained
+     */
+    private int decode(byte[] b, int end) throws MalformedPayloadException {
+        int pos = 0;
+        while (end - pos >= 10) {
+            Event evt = Event.fromCode(b[pos] & 0xFF);
+            if (evt == null) {
+                throw new MalformedPayloadException("Unknown event code " + (b[pos] & 0xFF));
+            }
+            long time = readLong(b, pos + 1);
+            int tag = b[pos + 9];
+            String value;
+            int next;
+            if (tag == BinaryProtocol.VALUE_NUMBER) {
+                next = pos + 18;
+                if (next > end) {
+                    break;
+                }
+                long number = readLong(b, pos + 10);
+                if (evt == Event.retcode && retCode != null) {
+                    retCode.setValue((int) number);
+                }
+                value = number >= 0 && number < NUMBERS.length ? NUMBERS[(int) number] : String.valueOf(number);
+            } else if (tag == BinaryProtocol.VALUE_STRING) {
+                if (end - pos < 14) {
+                    break;
+                }
+                int length = readInt(b, pos + 10);
+                if (length < 0) {
+                    throw new MalformedPayloadException("Invalid event value length " + length);
+                }
+                if (length > end - pos - 14) {
+                    break;
+                }
+                next = pos + 14 + length;
+                value = new String(b, pos + 14, length, StandardCharsets.UTF_8);
+                if (evt == Event.retcode && retCode != null) {
+                    try {
+                        retCode.setValue(Integer.valueOf(value));
+                    } catch (NumberFormatException ex) {
+                        throw new MalformedPayloadException("Invalid return code " + value);
+                    }
+                }
+            } else if (tag == BinaryProtocol.VALUE_NONE) {
+                next = pos + 10;
+                value = null;
+            } else {
+                throw new MalformedPayloadException("Unknown event value tag " + tag);
+            }
+            if (eventListener != null) {
+                eventListener.onEvent(evt, value, time);
+            }
+            pos = next;
+        }
+        return pos;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] & 0xFF) << 24 | (b[pos + 1] & 0xFF) << 16 | (b[pos + 2] & 0xFF) << 8 | (b[pos + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] b, int pos) {
+        return (long) readInt(b, pos) << 32 | (readInt(b, pos + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of requests and events, negotiated per request.
+ * <p>
+ * A {@link FrameType#binaryRequest} frame carries the protocol version, the
+ * operation code and a flags byte, followed by the JSON input. If
+ * {@link #FLAG_BINARY_EVENTS} is set, the core sends the events in
+ * {@link FrameType#binaryEvents} frames, as a sequence of records made of the
+ * event code (1 byte), the time (8 bytes), the value tag (1 byte) and the
+ * value: 8 bytes for numbers, or a 4 bytes length followed by the UTF-8 bytes
+ * for strings. Multi-byte integers are big-endian. Codes are given by
+ * {@link OpName#getCode()} and {@link Event#getCode()}, and unknown codes are
+ * rejected.
+ * <p>
+ * Plain {@link FrameType#request} frames ({@code <operation>\n<json>}) are
+ * still accepted, and answered with text events.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class BinaryProtocol {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_BINARY_EVENTS = 1;
+    public static final int HEADER_LENGTH = 3;
+
+    public static final int VALUE_NONE = 0;
+    public static final int VALUE_NUMBER = 1;
+    public static final int VALUE_STRING = 2;
+
+    private BinaryProtocol() {
+    }
+
+    public static byte[] encodeRequest(OpName opName, int flags, String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        byte[] ret = new byte[HEADER_LENGTH + body.length];
+        ret[0] = (byte) VERSION;
+        ret[1] = (byte) opName.getCode();
+        ret[2] = (byte) flags;
+        System.arraycopy(body, 0, ret, HEADER_LENGTH, body.length);
+        return ret;
+    }
+}
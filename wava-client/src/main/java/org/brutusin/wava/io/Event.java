@@ -16,24 +16,64 @@
 package org.brutusin.wava.io;
 
 /**
+ * Events notified to the clients. Each one has a stable wire code used by the
+ * binary protocol, that must not change when events are added or reordered.
  *
  * @author Ignacio del Valle Alles idelvall@brutusin.org
  */
 public enum Event {
 
-    id,
-    queued,
-    priority,
-    running,
-    niceness,
-    retcode,
-    cancelled,
-    ping,
-    error,
-    exceed_tree,
-    shutdown,
-    maxrss,
-    maxswap,
-    starvation_relaunch,
-    starvation_stop;
+    id(0),
+    queued(1),
+    priority(2),
+    running(3),
+    niceness(4),
+    retcode(5),
+    cancelled(6),
+    ping(7),
+    error(8),
+    exceed_tree(9),
+    shutdown(10),
+    maxrss(11),
+    maxswap(12),
+    starvation_relaunch(13),
+    starvation_stop(14),
+    task_running(15),
+    task_retcode(16),
+    pending(17),
+    dependency_failed(18),
+    limit_exceeded(19),
+    deadline_infeasible(20),
+    gang_failed(21);
+
+    private static final Event[] CODES = new Event[256];
+
+    static {
+        for (Event event : values()) {
+            if (CODES[event.code] != null) {
+                throw new AssertionError("Duplicated event code " + event.code);
+            }
+            CODES[event.code] = event;
+        }
+    }
+
+    private final int code;
+
+    private Event(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the event with the given wire code, or null if unknown
+     */
+    public static Event fromCode(int code) {
+        if (code < 0 || code >= CODES.length) {
+            return null;
+        }
+        return CODES[code];
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream reading the payload of the frames of a given type. Frames of
+ * other types are discarded. End-of-stream is reached when an end frame is
+ * received or the peer closes the connection.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class FrameInputStream extends InputStream {
+
+    private final FrameReader reader;
+    private final FrameType type;
+    private int pos;
+    private volatile boolean eof;
+
+    public FrameInputStream(FrameReader reader, FrameType type) {
+        this.reader = reader;
+        this.type = type;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return reader.getPayload()[pos++] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, reader.getLength() - pos);
+        System.arraycopy(reader.getPayload(), pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        while (reader.getType() != type || pos >= reader.getLength()) {
+            if (reader.getType() == type && reader.isEnd() || !reader.next()) {
+                eof = true;
+                return false;
+            }
+            pos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        eof = true;
+    }
+}
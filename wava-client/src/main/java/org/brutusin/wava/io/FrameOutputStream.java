@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream writing its data as frames of a given type. Array writes are
+ * sent immediately, single byte writes are buffered until the next flush.
+ * Closing the stream sends an end-of-stream frame.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class FrameOutputStream extends OutputStream {
+
+    private final FrameWriter writer;
+    private final FrameType type;
+    private final int streamId;
+    private final byte[] buffer = new byte[1024];
+    private int count;
+    private boolean closed;
+
+    public FrameOutputStream(FrameWriter writer, FrameType type, int streamId) {
+        this.writer = writer;
+        this.type = type;
+        this.streamId = streamId;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        flushBuffer();
+        while (len > 0) {
+            int n = Math.min(len, FrameWriter.MAX_PAYLOAD);
+            writer.write(type, streamId, b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            flushBuffer();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flushBuffer();
+            writer.writeEnd(type, streamId);
+        } finally {
+            closed = true;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            writer.write(type, streamId, buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads frames written by a {@link FrameWriter}. Not thread-safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class FrameReader {
+
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(FrameWriter.HEADER_SIZE);
+    private ByteBuffer payload = ByteBuffer.allocate(FrameWriter.MAX_PAYLOAD);
+
+    private FrameType type;
+    private int streamId;
+    private int length;
+
+    public FrameReader(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Reads the next frame, blocking if needed.
+     *
+     * @return {@code false} if the peer has closed the connection
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        header.clear();
+        if (!fill(header)) {
+            return false;
+        }
+        header.flip();
+        this.type = FrameType.valueOf(header.get());
+        this.streamId = header.getInt();
+        this.length = header.getInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (length > payload.capacity()) {
+            payload = ByteBuffer.allocate(length);
+        }
+        payload.clear();
+        payload.limit(length);
+        if (!fill(payload)) {
+            throw new EOFException("Truncated frame");
+        }
+        return true;
+    }
+
+    private boolean fill(ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            if (channel.read(bb) < 0) {
+                if (bb.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated frame");
+            }
+        }
+        return true;
+    }
+
+    public FrameType getType() {
+        return type;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the payload array of the current frame, valid until the next
+     * call to {@link #next()}. Payload starts at index 0 and has
+     * {@link #getLength()} bytes.
+     */
+    public byte[] getPayload() {
+        return payload.array();
+    }
+
+    public boolean isEnd() {
+        return length == 0;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+/**
+ * Types of the frames multiplexed over a client-core socket connection.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public enum FrameType {
+
+    request,
+    events,
+    stdin,
+    stdout,
+    stderr,
+    binaryRequest,
+    binaryEvents;
+
+    private static final FrameType[] VALUES = values();
+
+    public static FrameType valueOf(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) {
+            throw new IllegalArgumentException("Invalid frame type " + ordinal);
+        }
+        return VALUES[ordinal];
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes frames to a channel. A frame is composed by a header
+ * ({@code type:byte, streamId:int, length:int}) followed by {@code length}
+ * bytes of payload. Zero-length frames signal the end of a stream.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class FrameWriter {
+
+    public static final int HEADER_SIZE = 9;
+    public static final int MAX_PAYLOAD = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + MAX_PAYLOAD);
+
+    public FrameWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public synchronized void write(FrameType type, int streamId, byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        writeFrame(type, streamId, b, off, len);
+    }
+
+    public synchronized void writeEnd(FrameType type, int streamId) throws IOException {
+        writeFrame(type, streamId, null, 0, 0);
+    }
+
+    private void writeFrame(FrameType type, int streamId, byte[] b, int off, int len) throws IOException {
+        buffer.clear();
+        buffer.put((byte) type.ordinal());
+        buffer.putInt(streamId);
+        buffer.putInt(len);
+        if (len <= MAX_PAYLOAD) {
+            if (len > 0) {
+                buffer.put(b, off, len);
+            }
+            buffer.flip();
+            writeFully(buffer);
+        } else { // big request frames
+            buffer.flip();
+            writeFully(buffer);
+            writeFully(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private void writeFully(ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            if (channel.write(bb) == 0 && channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+                awaitWritable((SelectableChannel) channel);
+            }
+        }
+    }
+
+    /**
+     * Waits until a non-blocking channel accepts more bytes. The selector is
+     * only created when the peer is not keeping up.
+     */
+    private static void awaitWritable(SelectableChannel channel) throws IOException {
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_WRITE);
+            while (selector.select(1000) == 0) {
+                if (!channel.isOpen()) {
+                    throw new ClosedChannelException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+/**
+ * Event received from the core process, as published to the subscribers of
+ * asynchronous submissions.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class JobEvent {
+
+    private final Event event;
+    private final String value;
+    private final long time;
+
+    public JobEvent(Event event, String value, long time) {
+        this.event = event;
+        this.value = value;
+        this.time = time;
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return time + ":" + event + (value != null ? (":" + value) : "");
+    }
+}
@@ -1,28 +1,31 @@
-/*
- * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.brutusin.wava.io;
-
-/**
- *
- * @author Ignacio del Valle Alles idelvall@brutusin.org
- */
-public enum NamedPipe {
-
-    events,
-    stdin,
-    stdout,
-    stderr
-}
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the payload of a stream can not be decoded. The rest of the
+ * stream is lost, unlike the errors of the listeners it is dispatched to.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class MalformedPayloadException extends IOException {
+
+    MalformedPayloadException(String message) {
+        super(message);
+    }
+}
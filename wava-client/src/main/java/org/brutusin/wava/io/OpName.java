@@ -16,13 +16,49 @@
 package org.brutusin.wava.io;
 
 /**
+ * Operations of the requests. Each one has a stable wire code used by the
+ * binary protocol.
  *
  * @author Ignacio del Valle Alles idelvall@brutusin.org
  */
 public enum OpName {
-    submit,
-    cancel,
-    jobs,
-    group,
-    exit
+    submit(0),
+    batch(1),
+    cancel(2),
+    jobs(3),
+    group(4),
+    status(5),
+    exit(6),
+    position(7);
+
+    private static final OpName[] CODES = new OpName[256];
+
+    static {
+        for (OpName opName : values()) {
+            if (CODES[opName.code] != null) {
+                throw new AssertionError("Duplicated operation code " + opName.code);
+            }
+            CODES[opName.code] = opName;
+        }
+    }
+
+    private final int code;
+
+    private OpName(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the operation with the given wire code, or null if unknown
+     */
+    public static OpName fromCode(int code) {
+        if (code < 0 || code >= CODES.length) {
+            return null;
+        }
+        return CODES[code];
+    }
 }
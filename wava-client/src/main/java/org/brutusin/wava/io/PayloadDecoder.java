@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+/**
+ * Decodes the payload of the consecutive frames of a stream.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+interface PayloadDecoder {
+
+    /**
+     * @throws MalformedPayloadException if the payload is malformed
+     */
+    void feed(byte[] b, int len) throws MalformedPayloadException;
+
+    /**
+     * Notifies the end of the stream.
+     *
+     * @throws MalformedPayloadException if the stream has been truncated
+     */
+    void finish() throws MalformedPayloadException;
+}
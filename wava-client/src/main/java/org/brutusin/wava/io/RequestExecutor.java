@@ -15,279 +15,335 @@
  */
 package org.brutusin.wava.io;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.brutusin.commons.Bean;
 import org.brutusin.commons.utils.Miscellaneous;
-import org.brutusin.commons.utils.ProcessUtils;
 import org.brutusin.json.spi.JsonCodec;
 import org.brutusin.wava.env.WavaTemp;
 import org.brutusin.wava.Utils;
 import org.brutusin.wava.input.Input;
+import org.brutusin.wava.input.SubmitInput;
 
 /**
+ * Executes requests against the core process, through its Unix domain
+ * socket. Events, stdout and stderr are received multiplexed as frames over
+ * the same connection, and stdin is sent back the same way.
  *
  * @author Ignacio del Valle Alles idelvall@brutusin.org
  */
 public class RequestExecutor {
 
     private static final Logger LOGGER = Logger.getLogger(RequestExecutor.class.getName());
-    private static final File COUNTER_FILE = new File(WavaTemp.getInstance().getTemp(), "state/.seq");
 
+    private volatile boolean binaryProtocol = true;
+
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    /**
+     * Sets whether requests and events use the binary protocol (see
+     * {@link BinaryProtocol}), or the text one of previous versions.
+     */
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    private void writeRequest(FrameWriter writer, OpName opName, String json) throws IOException {
+        byte[] request;
+        if (binaryProtocol) {
+            request = BinaryProtocol.encodeRequest(opName, BinaryProtocol.FLAG_BINARY_EVENTS, json);
+            writer.write(FrameType.binaryRequest, 0, request, 0, request.length);
+        } else {
+            request = (opName.name() + "\n" + json).getBytes(StandardCharsets.UTF_8);
+            writer.write(FrameType.request, 0, request, 0, request.length);
+        }
+    }
+
+    static PayloadDecoder createEventDecoder(Bean<Integer> retCode, EventListener eventListener, boolean binary) {
+        if (binary) {
+            return new BinaryEventDecoder(retCode, eventListener);
+        }
+        return new LineBuffer(createEventLineListener(retCode, eventListener));
+    }
 
     public Integer executeRequest(OpName opName, Input input, final InputStream stdinStream, final OutputStream stdoutStream, final LineListener stderrListener, final EventListener eventListener) throws IOException {
-        long id = Miscellaneous.getGlobalAutoIncremental(COUNTER_FILE);
+        if (opName == OpName.submit && input instanceof SubmitInput) {
+            SubmitInput si = (SubmitInput) input;
+            Map<String, String> environment = si.getEnvironment();
+            if (environment != null && !environment.isEmpty() && si.getEnvironmentHash() == null) {
+                // Optimistically send only the hash, the core keeps the environments of its recent jobs
+                si.setEnvironment(null);
+                si.setEnvironmentHash(Utils.getEnvironmentHash(environment));
+                Integer retCode;
+                try {
+                    retCode = doExecuteRequest(opName, si, stdinStream, stdoutStream, stderrListener, eventListener, true);
+                } finally {
+                    si.setEnvironment(environment);
+                    si.setEnvironmentHash(null);
+                }
+                if (retCode == null || retCode != RetCode.UNKNOWN_ENVIRONMENT.getCode()) {
+                    return retCode;
+                }
+            }
+        }
+        return doExecuteRequest(opName, input, stdinStream, stdoutStream, stderrListener, eventListener, false);
+    }
+
+    /**
+     * @param optimistic if true, the request can be rejected with
+     * {@link RetCode#UNKNOWN_ENVIRONMENT} in order to be resent. In that case
+     * the rejection is not notified and stdin is not forwarded until the core
+     * has accepted the request
+     */
+    private Integer doExecuteRequest(OpName opName, Input input, final InputStream stdinStream, final OutputStream stdoutStream, final LineListener stderrListener, final EventListener eventListener, boolean optimistic) throws IOException {
         String json = JsonCodec.getInstance().transform(input);
-        File streamRoot = new File(WavaTemp.getInstance().getTemp(), "streams/" + id);
-        Miscellaneous.createDirectory(streamRoot);
-        final File stdinNamedPipe = new File(streamRoot, NamedPipe.stdin.name());
-        final File eventsNamedPipe = new File(streamRoot, NamedPipe.events.name());
-        final File stdoutNamedPipe = new File(streamRoot, NamedPipe.stdout.name());
-        final File stderrNamedPipe = new File(streamRoot, NamedPipe.stderr.name());
+        final SocketChannel channel;
         try {
-            ProcessUtils.createPOSIXNamedPipes(stdinNamedPipe, eventsNamedPipe, stderrNamedPipe, stdoutNamedPipe);
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(WavaTemp.getInstance().getSocketFile().toPath()));
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, ex.getMessage(), ex);
+            return RetCode.CORE_NOT_RUNNING.getCode();
         }
-        final Bean<Integer> retCode = new Bean<>();
-        final Bean<FileOutputStream> stdinStreamBean = new Bean<>();
-        final Bean<FileInputStream> eventsStreamBean = new Bean<>();
-        final Bean<FileInputStream> stdoutStreamBean = new Bean<>();
-        final Bean<FileInputStream> stderrStreamBean = new Bean<>();
-
-        final Bean<Boolean> timeoutBean = new Bean<>();
+        try {
+            final FrameWriter writer = new FrameWriter(channel);
+            writeRequest(writer, opName, json);
 
-        Thread stdinThread = new Thread() {
-            @Override
-            public void run() {
-                FileOutputStream os = null;
-                try {
-                    os = new FileOutputStream(stdinNamedPipe);
-                    synchronized (timeoutBean) {
-                        if (timeoutBean.getValue() == null) {
-                            timeoutBean.setValue(false);
-                        } else if (timeoutBean.getValue() == true) {
-                            return;
+            final Thread stdinThread = new Thread() {
+                @Override
+                public void run() {
+                    FrameOutputStream os = new FrameOutputStream(writer, FrameType.stdin, 0);
+                    try {
+                        if (stdinStream != null) {
+                            Miscellaneous.pipeSynchronously(stdinStream, true, os);
                         }
-                    }
-                    stdinStreamBean.setValue(os);
-                    if (stdinStream != null) {
-                        Miscellaneous.pipeSynchronously(stdinStream, true, os);
-                    }
-                } catch (Throwable th) {
-                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
-                } finally {
-                    if (os != null) {
+                    } catch (Throwable th) {
+                        if (channel.isOpen()) {
+                            LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                        }
+                    } finally {
                         try {
                             os.close();
                         } catch (IOException ex) {
-                            LOGGER.log(Level.SEVERE, null, ex);
+                            // Peer closed
                         }
                     }
                 }
+            };
+            stdinThread.setDaemon(true);
+            if (!optimistic) {
+                stdinThread.start();
+                return readResponse(channel, stdoutStream, stderrListener, eventListener);
             }
-        };
-        stdinThread.setDaemon(true);
-        stdinThread.start();
+            final String rejection = String.valueOf(RetCode.UNKNOWN_ENVIRONMENT.getCode());
+            return readResponse(channel, stdoutStream, stderrListener, new EventListener() {
+                private boolean accepted;
 
-        Thread eventsThread = new Thread() {
-            @Override
-            public void run() {
-                FileInputStream is = null;
-                try {
-                    is = new FileInputStream(eventsNamedPipe);
-                    synchronized (timeoutBean) {
-                        if (timeoutBean.getValue() == null) {
-                            timeoutBean.setValue(false);
-                        } else if (timeoutBean.getValue() == true) {
+                @Override
+                public void onEvent(Event evt, String value, long time) {
+                    if (!accepted) {
+                        if (evt == Event.retcode && rejection.equals(value)) {
                             return;
                         }
+                        accepted = true;
+                        stdinThread.start();
                     }
-                    eventsStreamBean.setValue(is);
-                    BufferedReader br = new BufferedReader(new InputStreamReader(is));
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        List<String> tokens = Utils.parseEventLine(line);
-                        Event evt = Event.valueOf(tokens.get(1));
-                        String value;
-                        if (tokens.size() > 2) {
-                            value = tokens.get(2);
-                            if (evt == Event.retcode) {
-                                retCode.setValue(Integer.valueOf(value));
-                            }
-                        } else {
-                            value = null;
-                        }
-                        if (eventListener != null) {
-                            eventListener.onEvent(evt, value, Long.valueOf(tokens.get(0)));
-                        }
+                    if (eventListener != null) {
+                        eventListener.onEvent(evt, value, time);
                     }
-                } catch (Throwable th) {
-                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
-                } finally {
-                    if (is != null) {
-                        try {
-                            is.close();
-                        } catch (IOException ex) {
-                            LOGGER.log(Level.SEVERE, null, ex);
-                        }
+                }
+            });
+        } finally {
+            channel.close();
+        }
+    }
+
+    private Integer readResponse(SocketChannel channel, OutputStream stdoutStream, LineListener stderrListener, final EventListener eventListener) throws IOException {
+        final Bean<Integer> retCode = new Bean<>();
+        PayloadDecoder eventsDecoder = createEventDecoder(retCode, eventListener, binaryProtocol);
+        LineBuffer stderrBuffer = new LineBuffer(stderrListener);
+        FrameReader reader = new FrameReader(channel);
+        while (reader.next()) {
+            if (reader.isEnd()) {
+                continue;
+            }
+            try {
+                if (reader.getType() == FrameType.events || reader.getType() == FrameType.binaryEvents) {
+                    eventsDecoder.feed(reader.getPayload(), reader.getLength());
+                } else if (reader.getType() == FrameType.stdout) {
+                    if (stdoutStream != null) {
+                        stdoutStream.write(reader.getPayload(), 0, reader.getLength());
+                        stdoutStream.flush();
                     }
+                } else if (reader.getType() == FrameType.stderr) {
+                    stderrBuffer.feed(reader.getPayload(), reader.getLength());
                 }
+            } catch (MalformedPayloadException ex) {
+                throw ex;
+            } catch (Throwable th) {
+                LOGGER.log(Level.SEVERE, th.getMessage(), th);
             }
-        };
-        eventsThread.start();
-        Thread outThread = new Thread() {
+        }
+        eventsDecoder.finish();
+        stderrBuffer.finish();
+        return retCode.getValue();
+    }
+
+    private static LineListener createEventLineListener(final Bean<Integer> retCode, final EventListener eventListener) {
+        return new LineListener() {
             @Override
-            public void run() {
-                FileInputStream is = null;
-                try {
-                    is = new FileInputStream(stdoutNamedPipe);
-                    synchronized (timeoutBean) {
-                        if (timeoutBean.getValue() == null) {
-                            timeoutBean.setValue(false);
-                        } else if (timeoutBean.getValue() == true) {
-                            return;
-                        }
-                    }
-                    stdoutStreamBean.setValue(is);
-                    Miscellaneous.pipeSynchronously(is, true, stdoutStream);
-                } catch (Throwable th) {
-                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
-                } finally {
-                    if (is != null) {
-                        try {
-                            is.close();
-                        } catch (IOException ex) {
-                            LOGGER.log(Level.SEVERE, null, ex);
-                        }
+            public void onNewLine(String line) {
+                List<String> tokens = Utils.parseEventLine(line);
+                Event evt = Event.valueOf(tokens.get(1));
+                String value;
+                if (tokens.size() > 2) {
+                    value = tokens.get(2);
+                    if (evt == Event.retcode && retCode != null) {
+                        retCode.setValue(Integer.valueOf(value));
                     }
+                } else {
+                    value = null;
+                }
+                if (eventListener != null) {
+                    eventListener.onEvent(evt, value, Long.valueOf(tokens.get(0)));
                 }
             }
         };
-        outThread.start();
-        Thread errThread = new Thread() {
-            @Override
-            public void run() {
-                FileInputStream is = null;
-                try {
-                    is = new FileInputStream(stderrNamedPipe);
-                    synchronized (timeoutBean) {
-                        if (timeoutBean.getValue() == null) {
-                            timeoutBean.setValue(false);
-                        } else if (timeoutBean.getValue() == true) {
-                            return;
-                        }
-                    }
-                    stderrStreamBean.setValue(is);
-                    BufferedReader br = new BufferedReader(new InputStreamReader(is));
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        if (stderrListener != null) {
-                            stderrListener.onNewLine(line);
+    }
+
+    /**
+     * Submits several inputs in a single request. The request header is sent
+     * in stream 0 and each item in its own stream (index + 1), the responses
+     * are received multiplexed the same way. Returns when the core closes the
+     * connection, that is, when all the items have finished.
+     *
+     * @return the return code of the request itself (stream 0)
+     */
+    public Integer executeBatchRequest(OpName opName, Input input, List<? extends Input> items, final LineListener stderrListener, final BatchListener listener) throws IOException {
+        final SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(WavaTemp.getInstance().getSocketFile().toPath()));
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, ex.getMessage(), ex);
+            return RetCode.CORE_NOT_RUNNING.getCode();
+        }
+        try {
+            FrameWriter writer = new FrameWriter(channel);
+            writeRequest(writer, opName, JsonCodec.getInstance().transform(input));
+            for (int i = 0; i < items.size(); i++) {
+                byte[] item = JsonCodec.getInstance().transform(items.get(i)).getBytes(StandardCharsets.UTF_8);
+                writer.write(FrameType.request, i + 1, item, 0, item.length);
+            }
+            writer.writeEnd(FrameType.request, 0);
+
+            Bean<Integer> retCode = new Bean<>();
+            boolean binary = binaryProtocol;
+            PayloadDecoder[] eventsDecoders = new PayloadDecoder[items.size() + 1];
+            LineBuffer[] stderrBuffers = new LineBuffer[items.size() + 1];
+            eventsDecoders[0] = createEventDecoder(retCode, null, binary);
+            stderrBuffers[0] = new LineBuffer(stderrListener);
+            for (int i = 1; i < eventsDecoders.length; i++) {
+                final int index = i - 1;
+                eventsDecoders[i] = createEventDecoder(null, new EventListener() {
+                    @Override
+                    public void onEvent(Event evt, String value, long time) {
+                        if (listener != null) {
+                            listener.onEvent(index, evt, value, time);
                         }
                     }
-                } catch (Throwable th) {
-                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
-                } finally {
-                    if (is != null) {
-                        try {
-                            is.close();
-                        } catch (IOException ex) {
-                            LOGGER.log(Level.SEVERE, null, ex);
+                }, binary);
+                stderrBuffers[i] = new LineBuffer(new LineListener() {
+                    @Override
+                    public void onNewLine(String line) {
+                        if (listener != null) {
+                            listener.onStderrLine(index, line);
                         }
                     }
-                }
+                });
             }
-        };
-        errThread.start();
-
-        Thread timeoutThread = new Thread() {
-            @Override
-            public void run() {
+            FrameReader reader = new FrameReader(channel);
+            while (reader.next()) {
+                int streamId = reader.getStreamId();
+                if (reader.isEnd() || streamId < 0 || streamId >= eventsDecoders.length) {
+                    continue;
+                }
                 try {
-                    Thread.sleep(10 * 1000); // If after this time the pipes have not been open for reading (nobody is using the other side) discard all
-                    synchronized (timeoutBean) {
-                        if (timeoutBean.getValue() == null) {
-                            timeoutBean.setValue(true);
-                            try {
-                                new FileOutputStream(eventsNamedPipe).close();
-                            } catch (Exception ex) {
-                            }
-                            try {
-                                new FileOutputStream(stdoutNamedPipe).close();
-                            } catch (Exception ex) {
-                            }
-                            try {
-                                new FileOutputStream(stderrNamedPipe).close();
-                            } catch (Exception ex) {
-                            }
-                            try {
-                                new FileInputStream(stdinNamedPipe).close();
-                            } catch (Exception ex) {
-                            }
+                    if (reader.getType() == FrameType.events || reader.getType() == FrameType.binaryEvents) {
+                        eventsDecoders[streamId].feed(reader.getPayload(), reader.getLength());
+                    } else if (reader.getType() == FrameType.stdout) {
+                        if (streamId > 0 && listener != null) {
+                            listener.onStdout(streamId - 1, reader.getPayload(), 0, reader.getLength());
                         }
+                    } else if (reader.getType() == FrameType.stderr) {
+                        stderrBuffers[streamId].feed(reader.getPayload(), reader.getLength());
                     }
-                } catch (InterruptedException ex) {
-                    LOGGER.log(Level.SEVERE, null, ex);
+                } catch (MalformedPayloadException ex) {
+                    throw ex;
+                } catch (Throwable th) {
+                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
                 }
             }
-        };
-        timeoutThread.setDaemon(true);
-        timeoutThread.start();
+            for (int i = 0; i < eventsDecoders.length; i++) {
+                eventsDecoders[i].finish();
+                stderrBuffers[i].finish();
+            }
+            return retCode.getValue();
+        } finally {
+            channel.close();
+        }
+    }
 
-        File tempFile = new File(WavaTemp.getInstance().getTemp(), "temp/" + id + "-" + opName);
-        File requestFile = new File(WavaTemp.getInstance().getTemp(), "request/" + id + "-" + opName);
+    /**
+     * Splits the payload of consecutive frames into lines.
+     */
+    static class LineBuffer implements PayloadDecoder {
 
-        Files.write(tempFile.toPath(), json.getBytes());
-        Files.move(tempFile.toPath(), requestFile.toPath());
+        private final LineListener listener;
+        private byte[] buffer;
+        private int count;
 
-        try {
-            errThread.join();
-            eventsThread.join();
-            outThread.join();
-        } catch (InterruptedException i) {
-        } finally {
-            if (stdinStreamBean.getValue() != null) {
-                try {
-                    stdinStreamBean.getValue().close();
-                } catch (IOException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                }
-            }
-            if (eventsStreamBean.getValue() != null) {
-                try {
-                    eventsStreamBean.getValue().close();
-                } catch (IOException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+        public LineBuffer(LineListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void feed(byte[] b, int len) {
+            for (int i = 0; i < len; i++) {
+                if (b[i] == '\n') {
+                    finish();
+                } else {
+                    if (buffer == null) {
+                        buffer = new byte[256];
+                    } else if (count == buffer.length) {
+                        byte[] newBuffer = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, newBuffer, 0, count);
+                        buffer = newBuffer;
+                    }
+                    buffer[count++] = b[i];
                 }
             }
-            if (stdoutStreamBean.getValue() != null) {
-                try {
-                    stdoutStreamBean.getValue().close();
-                } catch (IOException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                }
+        }
+
+        @Override
+        public void finish() {
+            if (count == 0) {
+                return;
             }
-            if (stderrStreamBean.getValue() != null) {
-                try {
-                    stderrStreamBean.getValue().close();
-                } catch (IOException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                }
+            String line = new String(buffer, 0, count, StandardCharsets.UTF_8);
+            count = 0;
+            if (listener != null) {
+                listener.onNewLine(line);
             }
         }
-        return retCode.getValue();
     }
-
 }
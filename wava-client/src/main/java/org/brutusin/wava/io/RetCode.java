@@ -25,7 +25,8 @@ public enum RetCode {
     CORE_NOT_RUNNING(201602),
     NOT_WAVA_HOME(201603),
     NOT_ROOT_USER(201604),
-    CANCELLED(201605);
+    CANCELLED(201605),
+    UNKNOWN_ENVIRONMENT(201606);
 
     private final int code;
 
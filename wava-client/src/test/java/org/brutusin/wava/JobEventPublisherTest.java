@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+import org.brutusin.wava.io.Event;
+import org.brutusin.wava.io.JobEvent;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class JobEventPublisherTest {
+
+    public JobEventPublisherTest() {
+    }
+
+    @Test
+    public void deliversOnlyRequestedEvents() {
+        JobEventPublisher publisher = new JobEventPublisher();
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        for (int i = 0; i < 100; i++) {
+            publisher.submit(new JobEvent(Event.queued, String.valueOf(i), i));
+        }
+        publisher.submit(new JobEvent(Event.retcode, "0", 100));
+        publisher.complete(null);
+        assertTrue(recorder.signals.isEmpty());
+        recorder.subscription.request(2);
+        assertEquals(Arrays.asList("queued:0", "queued:1"), recorder.signals);
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(102, recorder.signals.size());
+        assertEquals("retcode:0", recorder.signals.get(100));
+        assertEquals("complete", recorder.signals.get(101));
+    }
+
+    @Test
+    public void completesAfterBufferedEvents() {
+        JobEventPublisher publisher = new JobEventPublisher();
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        publisher.submit(new JobEvent(Event.running, "1", 0));
+        publisher.complete(new RuntimeException("closed"));
+        recorder.subscription.request(1);
+        assertEquals(Arrays.asList("running:1", "error:closed"), recorder.signals);
+    }
+
+    @Test
+    public void supportsReentrantRequests() {
+        JobEventPublisher publisher = new JobEventPublisher();
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                super.onSubscribe(subscription);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(JobEvent item) {
+                super.onNext(item);
+                subscription.request(1);
+            }
+        };
+        publisher.subscribe(recorder);
+        publisher.submit(new JobEvent(Event.id, "7", 0));
+        publisher.submit(new JobEvent(Event.retcode, "0", 1));
+        publisher.complete(null);
+        assertEquals(Arrays.asList("id:7", "retcode:0", "complete"), recorder.signals);
+    }
+
+    @Test
+    public void stopsAfterCancel() {
+        JobEventPublisher publisher = new JobEventPublisher();
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        publisher.submit(new JobEvent(Event.id, "7", 0));
+        recorder.subscription.cancel();
+        publisher.submit(new JobEvent(Event.retcode, "0", 1));
+        publisher.complete(null);
+        assertEquals(Arrays.asList("id:7"), recorder.signals);
+    }
+
+    private static class Recorder implements Flow.Subscriber<JobEvent> {
+
+        protected final List<String> signals = new ArrayList<>();
+        protected Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(JobEvent item) {
+            signals.add(item.getEvent() + ":" + item.getValue());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add("error:" + throwable.getMessage());
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add("complete");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.brutusin.commons.Bean;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class BinaryEventDecoderTest {
+
+    private static final List<String> EXPECTED = Arrays.asList("id:12:1000", "queued:3:1001", "ping:null:1002", "error:\"\u00f1and\u00fa \uD83D\uDE00\":1003", "retcode:0:1004");
+
+    public BinaryEventDecoderTest() {
+    }
+
+    @Test
+    public void decodesRecordsSplitAcrossFrames() throws Exception {
+        byte[] stream = createStream();
+        for (int split = 0; split <= stream.length; split++) {
+            List<String> events = new ArrayList<>();
+            Bean<Integer> retCode = new Bean<>();
+            BinaryEventDecoder decoder = new BinaryEventDecoder(retCode, collect(events));
+            decoder.feed(Arrays.copyOfRange(stream, 0, split), split);
+            decoder.feed(Arrays.copyOfRange(stream, split, stream.length), stream.length - split);
+            decoder.finish();
+            assertEquals("Split at " + split, EXPECTED, events);
+            assertEquals(Integer.valueOf(0), retCode.getValue());
+        }
+    }
+
+    @Test
+    public void decodesByteByByte() throws Exception {
+        byte[] stream = createStream();
+        List<String> events = new ArrayList<>();
+        BinaryEventDecoder decoder = new BinaryEventDecoder(null, collect(events));
+        for (byte b : stream) {
+            // frame buffers are reused
+            decoder.feed(new byte[]{b, 0, 0}, 1);
+        }
+        decoder.finish();
+        assertEquals(EXPECTED, events);
+    }
+
+    @Test(expected = MalformedPayloadException.class)
+    public void rejectsUnknownEventCodes() throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(10);
+        bb.put((byte) 255).putLong(1000).put((byte) BinaryProtocol.VALUE_NONE);
+        new BinaryEventDecoder(null, null).feed(bb.array(), bb.position());
+    }
+
+    @Test(expected = MalformedPayloadException.class)
+    public void rejectsUnknownValueTags() throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(10);
+        bb.put((byte) Event.ping.getCode()).putLong(1000).put((byte) 7);
+        new BinaryEventDecoder(null, null).feed(bb.array(), bb.position());
+    }
+
+    @Test(expected = MalformedPayloadException.class)
+    public void rejectsInvalidReturnCodes() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] string = "abc".getBytes(StandardCharsets.UTF_8);
+        writeRecord(os, Event.retcode, 1000, BinaryProtocol.VALUE_STRING, ByteBuffer.allocate(4 + string.length).putInt(string.length).put(string).array());
+        new BinaryEventDecoder(new Bean<Integer>(), null).feed(os.toByteArray(), os.size());
+    }
+
+    @Test(expected = MalformedPayloadException.class)
+    public void rejectsTruncatedRecords() throws Exception {
+        byte[] stream = createStream();
+        BinaryEventDecoder decoder = new BinaryEventDecoder(null, null);
+        decoder.feed(stream, stream.length - 1);
+        decoder.finish();
+    }
+
+    @Test
+    public void wireCodesAreStable() {
+        assertEquals(0, Event.id.getCode());
+        assertEquals(5, Event.retcode.getCode());
+        assertEquals(21, Event.gang_failed.getCode());
+        for (Event event : Event.values()) {
+            assertSame(event, Event.fromCode(event.getCode()));
+        }
+        assertNull(Event.fromCode(255));
+        assertNull(Event.fromCode(-1));
+        assertEquals(0, OpName.submit.getCode());
+        assertEquals(7, OpName.position.getCode());
+        for (OpName opName : OpName.values()) {
+            assertSame(opName, OpName.fromCode(opName.getCode()));
+        }
+        assertNull(OpName.fromCode(255));
+    }
+
+    private static byte[] createStream() {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeNumber(os, Event.id, 1000, 12);
+        writeNumber(os, Event.queued, 1001, 3);
+        writeRecord(os, Event.ping, 1002, BinaryProtocol.VALUE_NONE, new byte[0]);
+        byte[] string = "\"\u00f1and\u00fa \uD83D\uDE00\"".getBytes(StandardCharsets.UTF_8);
+        writeRecord(os, Event.error, 1003, BinaryProtocol.VALUE_STRING, ByteBuffer.allocate(4 + string.length).putInt(string.length).put(string).array());
+        writeNumber(os, Event.retcode, 1004, 0);
+        return os.toByteArray();
+    }
+
+    private static void writeNumber(ByteArrayOutputStream os, Event event, long time, long value) {
+        writeRecord(os, event, time, BinaryProtocol.VALUE_NUMBER, ByteBuffer.allocate(8).putLong(value).array());
+    }
+
+    private static void writeRecord(ByteArrayOutputStream os, Event event, long time, int tag, byte[] value) {
+        ByteBuffer bb = ByteBuffer.allocate(10 + value.length);
+        bb.put((byte) event.getCode()).putLong(time).put((byte) tag).put(value);
+        os.write(bb.array(), 0, bb.capacity());
+    }
+
+    private static EventListener collect(final List<String> events) {
+        return new EventListener() {
+            @Override
+            public void onEvent(Event evt, String value, long time) {
+                events.add(evt + ":" + value + ":" + time);
+            }
+        };
+    }
+}
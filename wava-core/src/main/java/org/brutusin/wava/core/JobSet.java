@@ -15,8 +15,12 @@
  */
 package org.brutusin.wava.core;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.TreeSet;
 
 /**
@@ -27,12 +31,44 @@ public class JobSet {
 
     public enum State {
 
-        queued, running
+        pending, queued, running
     };
 
+    private final boolean edf;
+    private final long agingMillis;
     private final HashMap<Integer, Key> keyMap = new HashMap<>();
-    private final TreeSet<Key> queueTree = new TreeSet<>();
-    private final TreeSet<Key> runningTree = new TreeSet<>();
+    private final HashMap<Integer, Group> groupMap = new HashMap<>();
+    private final GroupedSet queueTree = new GroupedSet();
+    private final GroupedSet runningTree = new GroupedSet();
+    /**
+     * Jobs waiting for their dependencies. Not eligible for dequeuing.
+     */
+    private final GroupedSet pendingTree = new GroupedSet();
+
+    /**
+     * @param edf if {@code true} jobs are ordered by earliest deadline first,
+     * and then by priority. Jobs without deadline go after the ones having it
+     * @param agingSeconds every time this period elapses, the priority of the
+     * queued jobs is increased by one unit. {@code 0} disables aging
+     */
+    public JobSet(boolean edf, int agingSeconds) {
+        this.edf = edf;
+        this.agingMillis = agingSeconds * 1000L;
+    }
+
+    /**
+     * Aging epoch of the current instant. Keys store the epoch they were
+     * enqueued at, and are ordered by {@code majorPriority + epoch}. Since the
+     * priority boost of all queued jobs grows at the same rate, this ordering
+     * is the same as the one given by their effective priorities, so the queue
+     * never needs to be re-sorted as time passes.
+     */
+    long getCurrentEpoch() {
+        if (agingMillis <= 0) {
+            return 0;
+        }
+        return System.currentTimeMillis() / agingMillis;
+    }
 
     /**
      * synchronization on JobSet instance needed for iteration
@@ -40,7 +76,7 @@ public class JobSet {
      * @return
      */
     public QueueIterator getQueue() {
-        final Iterator<Key> it = queueTree.iterator();
+        final GroupedSet.GroupedIterator it = queueTree.iterator();
         return new QueueIterator() {
             private Key last;
 
@@ -61,6 +97,11 @@ public class JobSet {
                 runningTree.add(last);
             }
 
+            @Override
+            public void skipGroup() {
+                it.skipGroup();
+            }
+
             @Override
             public void remove() {
                 it.remove();
@@ -98,6 +139,44 @@ public class JobSet {
         };
     }
 
+    /**
+     * synchronization on JobSet instance needed for iteration
+     *
+     * @return
+     */
+    public Iterator<Integer> getPending() {
+        final Iterator<Key> it = pendingTree.iterator();
+        return new Iterator<Integer>() {
+            private Key last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                this.last = it.next();
+                return last.getId();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                keyMap.remove(last.getId());
+            }
+        };
+    }
+
+    private Group getGroup(int groupId) {
+        Group group = groupMap.get(groupId);
+        if (group == null) {
+            group = new Group(groupId);
+            groupMap.put(groupId, group);
+        }
+        return group;
+    }
+
     private Key getKey(int id) {
         Key key = keyMap.get(id);
         if (key == null) {
@@ -106,23 +185,63 @@ public class JobSet {
         return key;
     }
 
-    public synchronized void queue(int id, int majorPriority, int minorPriority) {
+    public synchronized void queue(int id, int groupId, long deadline) {
         if (keyMap.containsKey(id)) {
             throw new IllegalArgumentException("Id " + id + " already is in job set");
         }
-        Key key = new Key(id, majorPriority, minorPriority);
+        Key key = new Key(id, getGroup(groupId), deadline);
+        key.setEpoch(getCurrentEpoch());
         keyMap.put(id, key);
         queueTree.add(key);
     }
 
+    /**
+     * Adds a job in pending state, waiting for its dependencies.
+     */
+    public synchronized void pend(int id, int groupId, long deadline) {
+        if (keyMap.containsKey(id)) {
+            throw new IllegalArgumentException("Id " + id + " already is in job set");
+        }
+        Key key = new Key(id, getGroup(groupId), deadline);
+        key.setEpoch(getCurrentEpoch());
+        keyMap.put(id, key);
+        pendingTree.add(key);
+    }
+
+    /**
+     * Moves a pending job to the queue.
+     */
+    public synchronized void release(int id) {
+        Key key = getKey(id);
+        if (pendingTree.remove(key)) {
+            key.setEpoch(getCurrentEpoch());
+            queueTree.add(key);
+        } else {
+            throw new IllegalArgumentException("Id " + id + " is not pending");
+        }
+    }
+
+    /**
+     * Adds a job directly in running state. Used for tasks materialized from
+     * a queued job array.
+     */
+    public synchronized void start(int id, int groupId, long deadline) {
+        if (keyMap.containsKey(id)) {
+            throw new IllegalArgumentException("Id " + id + " already is in job set");
+        }
+        Key key = new Key(id, getGroup(groupId), deadline);
+        // not ahead of the running jobs of the same priority
+        key.setEpoch(getCurrentEpoch());
+        keyMap.put(id, key);
+        runningTree.add(key);
+    }
+
     public synchronized void remove(int id) {
         Key key = this.keyMap.remove(id);
         if (key == null) {
             return;
         }
-        if (!queueTree.remove(key)) {
-            runningTree.remove(key);
-        }
+        key.set.remove(key);
     }
 
     public synchronized void run(int id) {
@@ -134,22 +253,44 @@ public class JobSet {
         }
     }
 
-    public synchronized void setPriority(int id, int majorPriority, int minorPriority) {
-        Key key = getKey(id);
-        if (key.getMajorPriority() == majorPriority && key.getMinorPriority() == minorPriority) {
+    /**
+     * Sets the priority and the rank shared by the jobs of the group. Keys
+     * refer to their group instead of storing them, and the keys of a group
+     * keep their relative order, so only the group head has to be re-sorted.
+     */
+    public synchronized void setGroupOrder(int groupId, int majorPriority, int rank) {
+        Group group = getGroup(groupId);
+        if (group.majorPriority == majorPriority && group.rank == rank) {
             return;
         }
-        TreeSet<Key> tree;
-        if (queueTree.remove(key)) {
-            tree = queueTree;
-        } else if (runningTree.remove(key)) {
-            tree = runningTree;
-        } else {
-            throw new AssertionError();
+        queueTree.removeHead(group);
+        runningTree.removeHead(group);
+        pendingTree.removeHead(group);
+        group.majorPriority = majorPriority;
+        group.rank = rank;
+        queueTree.addHead(group);
+        runningTree.addHead(group);
+        pendingTree.addHead(group);
+    }
+
+    /**
+     * Forgets the order of a deleted group. Its jobs, if any, keep it.
+     */
+    public synchronized void removeGroup(int groupId) {
+        groupMap.remove(groupId);
+    }
+
+    /**
+     * Returns the priority of the job, taking into account the aging boost
+     * accumulated while queued (lower value means higher priority).
+     */
+    public synchronized int getEffectivePriority(int id) {
+        Key key = getKey(id);
+        if (key.set != queueTree) {
+            return key.getMajorPriority();
         }
-        key.setMajorPriority(majorPriority);
-        key.setMinorPriority(minorPriority);
-        tree.add(key);
+        long boost = getCurrentEpoch() - key.getEpoch();
+        return (int) Math.max(Integer.MIN_VALUE, key.getMajorPriority() - boost);
     }
 
     public synchronized int countQueued() {
@@ -160,58 +301,253 @@ public class JobSet {
         return runningTree.size();
     }
 
+    public synchronized int countPending() {
+        return pendingTree.size();
+    }
+
     public synchronized State getState(int id) {
         Key key = this.keyMap.get(id);
         if (key == null) {
             return null;
         }
-        if (queueTree.contains(key)) {
+        if (key.set == queueTree) {
             return State.queued;
-        } else if (runningTree.contains(key)) {
+        } else if (key.set == runningTree) {
             return State.running;
+        } else if (key.set == pendingTree) {
+            return State.pending;
         } else {
             throw new AssertionError();
         }
 
     }
 
+    /**
+     * Keys indexed by group. The keys of each group are kept in their own
+     * tree, and the first key of every group in a tree of heads, so that
+     * iterating merges the groups in key order and the remaining keys of a
+     * group can be skipped in O(log G), G being the number of groups.
+     */
+    private final class GroupedSet {
+
+        private final HashMap<Group, TreeSet<Key>> groups = new HashMap<>();
+        private final TreeSet<Key> heads = new TreeSet<>();
+        private int size;
+
+        public int size() {
+            return size;
+        }
+
+        public void add(Key key) {
+            TreeSet<Key> tree = groups.get(key.group);
+            if (tree == null) {
+                tree = new TreeSet<>();
+                groups.put(key.group, tree);
+            } else if (key.compareTo(tree.first()) < 0) {
+                heads.remove(tree.first());
+            }
+            tree.add(key);
+            heads.add(tree.first());
+            key.set = this;
+            size++;
+        }
+
+        public boolean remove(Key key) {
+            if (key.set != this) {
+                return false;
+            }
+            TreeSet<Key> tree = groups.get(key.group);
+            boolean head = beforeRemove(tree, key);
+            tree.remove(key);
+            afterRemove(tree, key, head);
+            return true;
+        }
+
+        private boolean beforeRemove(TreeSet<Key> tree, Key key) {
+            if (tree.first() == key) {
+                heads.remove(key);
+                return true;
+            }
+            return false;
+        }
+
+        private void afterRemove(TreeSet<Key> tree, Key key, boolean head) {
+            if (tree.isEmpty()) {
+                groups.remove(key.group);
+            } else if (head) {
+                heads.add(tree.first());
+            }
+            key.set = null;
+            size--;
+        }
+
+        public void removeHead(Group group) {
+            TreeSet<Key> tree = groups.get(group);
+            if (tree != null) {
+                heads.remove(tree.first());
+            }
+        }
+
+        public void addHead(Group group) {
+            TreeSet<Key> tree = groups.get(group);
+            if (tree != null) {
+                heads.add(tree.first());
+            }
+        }
+
+        public GroupedIterator iterator() {
+            return new GroupedIterator();
+        }
+
+        /**
+         * Merges the groups keeping a heap with the next key of each one.
+         */
+        private final class GroupedIterator implements Iterator<Key> {
+
+            private final PriorityQueue<Cursor> cursors;
+            private Cursor lastCursor;
+            private Key last;
+            // the last cursor has to be advanced and put back in the heap
+            private boolean advance;
+
+            public GroupedIterator() {
+                List<Cursor> list = new ArrayList<>(groups.size());
+                for (TreeSet<Key> tree : groups.values()) {
+                    list.add(new Cursor(tree));
+                }
+                this.cursors = new PriorityQueue<>(list);
+            }
+
+            private void advance() {
+                if (advance) {
+                    advance = false;
+                    if (lastCursor.it.hasNext()) {
+                        lastCursor.head = lastCursor.it.next();
+                        cursors.add(lastCursor);
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                advance();
+                return !cursors.isEmpty();
+            }
+
+            @Override
+            public Key next() {
+                advance();
+                lastCursor = cursors.poll();
+                if (lastCursor == null) {
+                    throw new NoSuchElementException();
+                }
+                last = lastCursor.head;
+                advance = true;
+                return last;
+            }
+
+            /**
+             * Jumps over the remaining keys of the group of the last returned
+             * one.
+             */
+            public void skipGroup() {
+                advance = false;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                boolean head = beforeRemove(lastCursor.tree, last);
+                lastCursor.it.remove();
+                afterRemove(lastCursor.tree, last, head);
+                last = null;
+            }
+        }
+
+        private final class Cursor implements Comparable<Cursor> {
+
+            private final TreeSet<Key> tree;
+            private final Iterator<Key> it;
+            private Key head;
+
+            public Cursor(TreeSet<Key> tree) {
+                this.tree = tree;
+                this.it = tree.iterator();
+                this.head = it.next();
+            }
+
+            @Override
+            public int compareTo(Cursor o) {
+                return head.compareTo(o.head);
+            }
+        }
+    }
+
+    private static final class Group {
+
+        private final int groupId;
+        private int majorPriority;
+        private int rank = -1;
+
+        public Group(int groupId) {
+            this.groupId = groupId;
+        }
+    }
+
     public class Key implements Comparable<Key> {
 
         private final int id;
-        private int majorPriority;
-        private int minorPriority;
+        private final Group group;
+        private final long deadline;
+        private long epoch;
+        private GroupedSet set;
 
-        public Key(int id, int majorPriority, int minorPriority) {
-            this.majorPriority = majorPriority;
-            this.minorPriority = minorPriority;
+        private Key(int id, Group group, long deadline) {
             this.id = id;
+            this.group = group;
+            this.deadline = deadline;
         }
 
         public int getMajorPriority() {
-            return majorPriority;
+            return group.majorPriority;
         }
 
-        public void setMajorPriority(int majorPriority) {
-            this.majorPriority = majorPriority;
+        public int getRank() {
+            return group.rank;
         }
 
-        public int getMinorPriority() {
-            return minorPriority;
+        public int getId() {
+            return id;
         }
 
-        public void setMinorPriority(int minorPriority) {
-            this.minorPriority = minorPriority;
+        public int getGroupId() {
+            return group.groupId;
         }
 
-        public int getId() {
-            return id;
+        public long getDeadline() {
+            return deadline;
+        }
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public void setEpoch(long epoch) {
+            this.epoch = epoch;
         }
 
         @Override
         public int compareTo(Key o) {
-            int ret = Integer.compare(majorPriority, o.majorPriority);
+            if (edf) {
+                int ret = Long.compare(deadline, o.deadline);
+                if (ret != 0) {
+                    return ret;
+                }
+            }
+            int ret = Long.compare(group.majorPriority + epoch, o.group.majorPriority + o.epoch);
             if (ret == 0) {
-                ret = Integer.compare(minorPriority, o.minorPriority);
+                ret = Integer.compare(group.rank, o.group.rank);
                 if (ret == 0) {
                     ret = Integer.compare(id, o.id);
                 }
@@ -237,6 +573,12 @@ public class JobSet {
     public interface QueueIterator extends Iterator<Integer> {
 
         public void moveToRunning();
+
+        /**
+         * Jumps over the remaining queued jobs of the group of the last
+         * returned one.
+         */
+        public void skipGroup();
     }
 
     public interface RunningIterator extends Iterator<Integer> {
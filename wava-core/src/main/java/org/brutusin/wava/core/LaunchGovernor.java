@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket pacing job launches, so that a burst of dequeued jobs does not
+ * turn into a fork storm. The rate is optionally reduced while the host load
+ * is over a threshold and ramped up again once it goes down.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class LaunchGovernor {
+
+    private static final double MIN_RATE_FACTOR = 0.1;
+    private static final double RAMP_UP_STEP = 0.1;
+    private static final long MIN_RETRY_MILLIS = 50;
+
+    private final double maxRate;
+    private final int burst;
+    private final int maxInFlight;
+    private final double loadThreshold;
+
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private double rateFactor = 1;
+    private int inFlight;
+
+    /**
+     * @param maxRate maximum launches per second. Values lower than or equal
+     * to 0 disable the rate limit
+     * @param burst maximum number of launches allowed at once after an idle
+     * period
+     * @param maxInFlight maximum number of launches in progress. Values lower
+     * than 1 disable the limit
+     * @param loadThreshold load average per CPU over which the launch rate is
+     * reduced. Values lower than or equal to 0 disable the adaptation
+     */
+    public LaunchGovernor(double maxRate, int burst, int maxInFlight, double loadThreshold) {
+        this.maxRate = maxRate;
+        this.burst = Math.max(1, burst);
+        this.maxInFlight = maxInFlight;
+        this.loadThreshold = loadThreshold;
+        this.tokens = this.burst;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (maxRate > 0) {
+            tokens = Math.min(burst, tokens + maxRate * rateFactor * (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Takes the permits to launch the specified number of jobs together. A
+     * request bigger than the burst is granted once the bucket is full, and
+     * its excess delays the following launches.
+     *
+     * @return {@code false} if the launches have to wait
+     */
+    public synchronized boolean tryAcquire(int launches) {
+        refill();
+        if (maxInFlight > 0 && inFlight > 0 && inFlight + launches > maxInFlight) {
+            return false;
+        }
+        if (maxRate > 0) {
+            if (tokens < Math.min(launches, burst)) {
+                return false;
+            }
+            tokens -= launches;
+        }
+        inFlight += launches;
+        return true;
+    }
+
+    /**
+     * Called once a launch has finished, successfully or not.
+     */
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * @return estimated time until the specified launches can be granted
+     */
+    public synchronized long getRetryMillis(int launches) {
+        refill();
+        long ret = MIN_RETRY_MILLIS;
+        if (maxRate > 0) {
+            double missing = Math.min(launches, burst) - tokens;
+            if (missing > 0) {
+                ret = Math.max(ret, (long) Math.ceil(1000 * missing / (maxRate * rateFactor)));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Adapts the launch rate to the observed host load: halved while over the
+     * threshold, increased linearly otherwise.
+     *
+     * @param loadPerCpu load average divided by the number of CPUs. Negative
+     * if not available
+     */
+    public synchronized void updateLoad(double loadPerCpu) {
+        if (loadThreshold <= 0 || loadPerCpu < 0) {
+            return;
+        }
+        refill();
+        if (loadPerCpu > loadThreshold) {
+            rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor / 2);
+        } else {
+            rateFactor = Math.min(1, rateFactor + RAMP_UP_STEP);
+        }
+    }
+}
@@ -3,16 +3,32 @@ package org.brutusin.wava.core;
 import java.io.File;
 import org.brutusin.wava.io.Event;
 import org.brutusin.wava.core.io.PeerChannel;
+import org.brutusin.wava.core.io.PeerConnection;
 import org.brutusin.wava.cfg.Config;
 import org.brutusin.wava.utils.LinuxCommands;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
@@ -33,32 +49,75 @@ import org.brutusin.wava.env.EnvEntry;
 import org.brutusin.wava.input.CancelInput;
 import org.brutusin.wava.input.GroupInput;
 import org.brutusin.wava.input.ExtendedSubmitInput;
+import org.brutusin.wava.input.PositionInput;
+import org.brutusin.wava.input.Input;
 import org.brutusin.wava.input.ListJobsInput;
+import org.brutusin.wava.input.SubmitInput;
 import org.brutusin.wava.utils.ANSICode;
 import org.brutusin.wava.utils.NonRootUserException;
+import org.brutusin.wava.utils.TimerWheel;
 import org.brutusin.wava.io.RetCode;
 
 public class Scheduler {
 
     public final static String DEFAULT_GROUP_NAME = "default";
     public final static int EVICTION_ETERNAL = -1;
+    // cpu.shares is 1024 * weight, and at most 262144
+    public final static int MAX_WEIGHT = 256;
 
     private final static Logger LOGGER = Logger.getLogger(Scheduler.class.getName());
 
     private final Logger statsLogger;
 
-    // next four accessed under synchronized(jobSet)
-    private final JobSet jobSet = new JobSet();
+    // next nine accessed under synchronized(jobSet)
+    private final JobSet jobSet = new JobSet(Config.getInstance().getSchedulerCfg().isEdfScheduling(), Config.getInstance().getSchedulerCfg().getAgingSeconds());
     private final Map<Integer, JobInfo> jobMap = new HashMap<>();
+    // ids in jobMap per client connection, so that a client exit only visits its own jobs
+    private final Map<PeerConnection, Set<Integer>> peerJobs = new HashMap<>();
+    private final ConcurrentLinkedQueue<PeerConnection> closedPeers = new ConcurrentLinkedQueue<>();
     private final Map<Integer, ProcessInfo> processMap = new HashMap<>();
     private final Map<String, GroupInfo> groupMap = new HashMap<>();
+    private final Map<Integer, List<Dependent>> dependents = new HashMap<>();
+    private final Map<Integer, FinishedJob> finishedJobs = new LinkedHashMap<Integer, FinishedJob>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, FinishedJob> eldest) {
+            return size() > Config.getInstance().getSchedulerCfg().getFinishedJobsCacheSize();
+        }
+    };
+    private final Map<String, GangInfo> gangMap = new HashMap<>();
+    private final Map<Integer, GangInfo> gangMembers = new HashMap<>();
+    private TimerWheel.Timeout dequeueRetry;
+    // the usage of some group changed since the groups were last ranked
+    private boolean groupOrderDirty;
+    // moving average of the running time of successful jobs, by user and command
+    private final Map<String, Long> runtimeHistory = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > Config.getInstance().getSchedulerCfg().getFinishedJobsCacheSize();
+        }
+    };
+
+    private final LaunchGovernor launchGovernor = new LaunchGovernor(Config.getInstance().getSchedulerCfg().getMaxLaunchesPerSecond(), Config.getInstance().getSchedulerCfg().getLaunchBurst(), Config.getInstance().getSchedulerCfg().getMaxConcurrentLaunches(), Config.getInstance().getSchedulerCfg().getLaunchLoadThreshold());
+
+    private final AtomicBoolean peerCleaningScheduled = new AtomicBoolean();
+    private final AtomicBoolean queuePositionsScheduled = new AtomicBoolean();
+    // accessed under synchronized(jobSet)
+    private long lastQueuePositionsNanos = System.nanoTime();
 
     private final ThreadGroup coreGroup = new ThreadGroup(Scheduler.class.getName());
     private final ThreadGroup processGroup = new ThreadGroup(Scheduler.class.getName() + " processes");
+    // runs the work of the timer wheel tasks that involve external commands
+    private final ExecutorService timeoutExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(coreGroup, r, "timeout-handler");
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     private final AtomicInteger jobCounter = new AtomicInteger();
     private final AtomicInteger groupCounter = new AtomicInteger();
-    private final Thread cleaningThread;
     private final Thread statsThread;
 
     private final long totalManagedRss;
@@ -67,7 +126,8 @@ public class Scheduler {
     private final String runningUser;
 
     private volatile boolean closed;
-    private volatile String jobList;
+    // job list inputs of the last stats pass, rendered on demand
+    private volatile JobListSnapshot jobListSnapshot;
 
     private StatRecord previousStatRecord;
     private StatRecord currentStatRecord;
@@ -104,31 +164,26 @@ public class Scheduler {
         GroupCfg.Group[] predefinedGroups = Config.getInstance().getGroupCfg().getPredefinedGroups();
         if (predefinedGroups != null) {
             for (GroupCfg.Group group : predefinedGroups) {
-                createGroup(group.getName(), this.runningUser, group.getPriority(), group.getTimeToIdleSeconds(), group.getStatsDirectory());
-            }
-        }
-
-        this.jobList = createJobList(false, getAvailableManagedMemory(0), 0, new GaugeStats());
-
-        this.cleaningThread = new Thread(this.coreGroup, "cleaningThread") {
-            @Override
-            public void run() {
-                while (true) {
-                    if (Thread.interrupted()) {
-                        break;
+                GroupInfo gi = createGroup(group.getName(), this.runningUser, group.getPriority(), group.getTimeToIdleSeconds(), group.getStatsDirectory());
+                if (gi != null) {
+                    if (!isValidWeight(group.getWeight())) {
+                        throw new IllegalArgumentException("Invalid weight " + group.getWeight() + " of group '" + group.getName() + "'. Must be between 1 and " + MAX_WEIGHT);
                     }
-                    try {
-                        Thread.sleep(Config.getInstance().getSchedulerCfg().getCleaningMillisecs());
-                        cleanStalePeers();
-                    } catch (Throwable th) {
-                        if (th instanceof InterruptedException) {
-                            break;
-                        }
-                        LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                    setWeight(gi, group.getWeight());
+                    gi.setWallTimeLimitSeconds(group.getWallTimeLimitSeconds());
+                    gi.setCpuTimeLimitSeconds(group.getCpuTimeLimitSeconds());
+                    gi.setMaxJobs(group.getMaxJobs());
+                    if (group.getMaxRss() != null) {
+                        gi.setMaxRss(Miscellaneous.parseHumanReadableByteCount(group.getMaxRss()));
+                    }
+                    if (group.getMinRss() != null) {
+                        gi.setMinRss(Miscellaneous.parseHumanReadableByteCount(group.getMinRss()));
                     }
                 }
             }
-        };
+        }
+
+        this.jobListSnapshot = new JobListSnapshot(getAvailableManagedMemory(0), 0, new GaugeStats());
 
         this.statsThread = new Thread(this.coreGroup, "statsThread") {
             @Override
@@ -140,6 +195,7 @@ public class Scheduler {
                     try {
                         Thread.sleep(Config.getInstance().getSchedulerCfg().getStatsMillisecs());
                         takeStats();
+                        launchGovernor.updateLoad(ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage() / Runtime.getRuntime().availableProcessors());
                     } catch (Throwable th) {
                         if (th instanceof InterruptedException) {
                             break;
@@ -202,23 +258,56 @@ public class Scheduler {
         if (closed) {
             throw new IllegalStateException("Instance is closed");
         }
-        this.cleaningThread.start();
         this.statsThread.start();
     }
 
+    /**
+     * Group names are paths in the group hierarchy, also used as paths of the
+     * group cgroups.
+     */
+    private static boolean isValidGroupName(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        String[] tokens = name.split("/", -1);
+        for (String token : tokens) {
+            if (token.isEmpty() || token.equals(".") || token.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the group and, if they do not exist, its ancestor groups, as
+     * dynamic groups.
+     */
     private GroupInfo createGroup(String name, String user, Integer priority, Integer timetoIdleSeconds, File statsDirectory) {
-        LinuxCommands.createGroupCgroups(name);
         synchronized (jobSet) {
             if (!groupMap.containsKey(name)) {
+                GroupInfo parent = null;
+                int index = name.lastIndexOf('/');
+                if (index > 0) {
+                    String parentName = name.substring(0, index);
+                    parent = groupMap.get(parentName);
+                    if (parent == null) {
+                        parent = createGroup(parentName, user, 0, Config.getInstance().getGroupCfg().getDynamicGroupIdleSeconds(), null);
+                    }
+                }
+                LinuxCommands.createGroupCgroups(name);
                 if (priority == null) {
                     priority = 0;
                 }
                 if (timetoIdleSeconds == null) {
                     timetoIdleSeconds = -1;
                 }
-                GroupInfo gi = new GroupInfo(name, user, timetoIdleSeconds, statsDirectory);
+                GroupInfo gi = new GroupInfo(name, parent, user, timetoIdleSeconds, statsDirectory);
                 gi.setPriority(priority);
+                if (parent != null) {
+                    parent.getChildren().add(gi);
+                }
                 groupMap.put(gi.getGroupName(), gi);
+                updateGroupOrder();
                 return gi;
             }
         }
@@ -228,15 +317,371 @@ public class Scheduler {
     private void deleteGroup(String name) {
         synchronized (jobSet) {
             GroupInfo gi = groupMap.get(name);
-            if (gi.getJobs().isEmpty()) {
+            if (gi.getJobs().isEmpty() && gi.getChildren().isEmpty()) {
                 LinuxCommands.removeGroupCgroups(name);
                 groupMap.remove(name);
+                jobSet.removeGroup(gi.getGroupId());
+                GroupInfo parent = gi.getParent();
+                if (parent != null) {
+                    parent.getChildren().remove(gi);
+                    if (parent.getJobs().isEmpty() && parent.getChildren().isEmpty()) {
+                        if (parent.getTimeToIdelSeconds() == 0) {
+                            deleteGroup(parent.getGroupName());
+                        } else if (parent.getTimeToIdelSeconds() > 0) {
+                            scheduleIdleExpiration(parent);
+                        }
+                    }
+                }
+                updateGroupOrder();
+            }
+        }
+    }
+
+    private static boolean isValidWeight(int weight) {
+        return weight >= 1 && weight <= MAX_WEIGHT;
+    }
+
+    private static void setWeight(GroupInfo gi, int weight) {
+        gi.setWeight(weight);
+        LinuxCommands.setGroupCpuShares(gi.getGroupName(), weight * 1024);
+    }
+
+    /**
+     * Derives the global order of the groups top-down from the hierarchy.
+     * Sibling groups are ordered by priority, then by the memory reserved by
+     * the running jobs of their subtree relative to their weight, and finally
+     * by age. Subgroups are placed right after their parent and inherit the
+     * priority of their top-level ancestor. Only the order of the groups whose
+     * position changed is updated in the job set, their job keys refer to it.
+     * Called under synchronized(jobSet) when the priority, weight, parent or
+     * usage of a group changes.
+     */
+    private void updateGroupOrder() {
+        groupOrderDirty = false;
+        List<GroupInfo> roots = new ArrayList<>();
+        for (GroupInfo gi : groupMap.values()) {
+            if (gi.getParent() == null) {
+                roots.add(gi);
+            }
+        }
+        rankGroups(roots, null, 0);
+    }
+
+    private int rankGroups(List<GroupInfo> siblings, Integer inheritedPriority, int rank) {
+        final Map<GroupInfo, Double> usage = new HashMap<>();
+        for (GroupInfo gi : siblings) {
+            usage.put(gi, (double) gi.getSubtreeRunningRss() / gi.getWeight());
+        }
+        Collections.sort(siblings, new Comparator<GroupInfo>() {
+            @Override
+            public int compare(GroupInfo g1, GroupInfo g2) {
+                int ret = Integer.compare(g1.getPriority(), g2.getPriority());
+                if (ret == 0) {
+                    ret = Double.compare(usage.get(g1), usage.get(g2));
+                    if (ret == 0) {
+                        ret = Integer.compare(g1.getGroupId(), g2.getGroupId());
+                    }
+                }
+                return ret;
+            }
+        });
+        for (GroupInfo gi : siblings) {
+            int priority = inheritedPriority != null ? inheritedPriority : gi.getPriority();
+            gi.setRankedUsage();
+            if (priority != gi.getOrderPriority() || rank != gi.getRank()) {
+                boolean priorityChanged = priority != gi.getOrderPriority();
+                gi.setOrder(priority, rank);
+                jobSet.setGroupOrder(gi.getGroupId(), priority, rank);
+                if (priorityChanged) {
+                    synchronized (gi.getJobs()) {
+                        for (Integer id : gi.getJobs()) {
+                            JobInfo ji = jobMap.get(id);
+                            if (ji.getArray() == null) {
+                                ji.getSubmitChannel().sendEvent(Event.priority, priority);
+                            }
+                        }
+                    }
+                }
+            }
+            rank = rankGroups(new ArrayList<>(gi.getChildren()), priority, rank + 1);
+        }
+        return rank;
+    }
+
+    /**
+     * Deletes the group once it has been idle for its time-to-idle. Called
+     * under synchronized(jobSet).
+     */
+    private void scheduleIdleExpiration(final GroupInfo gi) {
+        if (gi.getIdleTimeout() != null) {
+            gi.getIdleTimeout().cancel();
+        }
+        gi.setIdleTimeout(TimerWheel.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                timeoutExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            synchronized (jobSet) {
+                                if (!closed && gi.getJobs().isEmpty() && gi.getChildren().isEmpty() && groupMap.get(gi.getGroupName()) == gi) {
+                                    deleteGroup(gi.getGroupName());
+                                }
+                            }
+                        } catch (Throwable th) {
+                            LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                        }
+                    }
+                });
+            }
+        }, gi.getTimeToIdelSeconds(), TimeUnit.SECONDS));
+    }
+
+    private static int getWallTimeLimitSeconds(JobInfo ji) {
+        int limit = ji.getSubmitChannel().getInput().getWallTimeLimitSeconds();
+        if (limit > 0) {
+            return limit;
+        }
+        return ji.getGroupInfo().getWallTimeLimitSeconds();
+    }
+
+    private static int getCpuTimeLimitSeconds(JobInfo ji) {
+        int limit = ji.getSubmitChannel().getInput().getCpuTimeLimitSeconds();
+        if (limit > 0) {
+            return limit;
+        }
+        return ji.getGroupInfo().getCpuTimeLimitSeconds();
+    }
+
+    /**
+     * Schedules the enforcement of the wall time limit of the job, if any.
+     */
+    private void scheduleWallTimeLimit(final ProcessInfo pi) {
+        int limit = getWallTimeLimitSeconds(pi.getJobInfo());
+        if (limit <= 0) {
+            return;
+        }
+        pi.setLimitTimeout(TimerWheel.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                enforceLimit(pi, "walltime");
+            }
+        }, limit, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Sends a SIGTERM to the process tree of a job exceeding one of its
+     * limits, and kills it if still running once the grace period has
+     * elapsed.
+     */
+    private void enforceLimit(final ProcessInfo pi, final String limit) {
+        if (!pi.setLimitExceeded()) {
+            return;
+        }
+        timeoutExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!isRunning(pi)) {
+                        return;
+                    }
+                    LOGGER.log(Level.FINE, "Job {0} exceeded its {1} limit", new Object[]{pi.getJobInfo().getId(), limit});
+                    pi.getJobInfo().getSubmitChannel().sendEvent(Event.limit_exceeded, limit);
+                    LinuxCommands.terminateTree(pi.getPid());
+                    pi.setLimitTimeout(TimerWheel.getInstance().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            timeoutExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        if (isRunning(pi)) {
+                                            LinuxCommands.killTree(pi.getPid());
+                                        }
+                                    } catch (Throwable th) {
+                                        LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                                    }
+                                }
+                            });
+                        }
+                    }, Config.getInstance().getSchedulerCfg().getLimitGraceMillisecs(), TimeUnit.MILLISECONDS));
+                } catch (Throwable th) {
+                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                }
+            }
+        });
+    }
+
+    private boolean isRunning(ProcessInfo pi) {
+        synchronized (jobSet) {
+            return processMap.get(pi.getJobInfo().getId()) == pi;
+        }
+    }
+
+    private static long getDeadline(SubmitInput input) {
+        return input.getDeadline() > 0 ? input.getDeadline() : Long.MAX_VALUE;
+    }
+
+    private static String getRuntimeHistoryKey(String user, SubmitInput input) {
+        return user + " " + Arrays.toString(input.getCommand());
+    }
+
+    /**
+     * Expected running time of the job: the declared estimate, or the average
+     * of the previous successful executions of the same command by the same
+     * user.
+     *
+     * @return -1 if unknown
+     */
+    private long getExpectedRuntimeMillis(String user, SubmitInput input) {
+        if (input.getEstimatedRuntimeSeconds() > 0) {
+            return 1000L * input.getEstimatedRuntimeSeconds();
+        }
+        synchronized (runtimeHistory) {
+            Long ret = runtimeHistory.get(getRuntimeHistoryKey(user, input));
+            return ret != null ? ret : -1;
+        }
+    }
+
+    private void recordRuntime(String user, SubmitInput input, long runtimeMillis) {
+        String key = getRuntimeHistoryKey(user, input);
+        synchronized (runtimeHistory) {
+            Long previous = runtimeHistory.get(key);
+            if (previous == null) {
+                runtimeHistory.put(key, runtimeMillis);
+            } else {
+                runtimeHistory.put(key, (previous + runtimeMillis) / 2);
+            }
+        }
+    }
+
+    /**
+     * Accounts a finished job with deadline in the SLA stats of its group.
+     * Cancelled jobs are not accounted.
+     */
+    private static void recordDeadline(JobInfo ji, int retCode) {
+        if (ji.getSubmitChannel().getInput().getDeadline() <= 0 || retCode == RetCode.CANCELLED.getCode()) {
+            return;
+        }
+        ji.getGroupInfo().recordDeadline(retCode == 0 && System.currentTimeMillis() <= ji.getSubmitChannel().getInput().getDeadline());
+    }
+
+    /**
+     * Schedules the check of the deadline of the job at the instant it stops
+     * being feasible, given its current expected running time. Called under
+     * synchronized(jobSet).
+     */
+    private void scheduleDeadlineCheck(final JobInfo ji) {
+        long deadline = ji.getSubmitChannel().getInput().getDeadline();
+        if (deadline <= 0 || ji.getArray() != null || ji.isDeadlineInfeasible()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expectedRuntime = Math.max(0, getExpectedRuntimeMillis(ji.getSubmitChannel().getUser(), ji.getSubmitChannel().getInput()));
+        ProcessInfo pi = processMap.get(ji.getId());
+        long checkTime;
+        if (pi == null) {
+            checkTime = deadline - expectedRuntime;
+        } else if (pi.getStartTime() + expectedRuntime > deadline) {
+            checkTime = now;
+        } else {
+            checkTime = deadline;
+        }
+        ji.setDeadlineTimeout(TimerWheel.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                timeoutExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            synchronized (jobSet) {
+                                if (!closed && jobMap.get(ji.getId()) == ji) {
+                                    checkDeadline(ji);
+                                }
+                            }
+                        } catch (Throwable th) {
+                            LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                        }
+                    }
+                });
+            }
+        }, Math.max(0, checkTime - now) + 1, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Notifies the job if its deadline is no longer feasible, given its
+     * expected running time, or checks it again later otherwise, since the
+     * expected running time may have changed. Every job is notified once.
+     * Called under synchronized(jobSet).
+     */
+    private void checkDeadline(JobInfo ji) {
+        long now = System.currentTimeMillis();
+        long expectedRuntime = Math.max(0, getExpectedRuntimeMillis(ji.getSubmitChannel().getUser(), ji.getSubmitChannel().getInput()));
+        ProcessInfo pi = processMap.get(ji.getId());
+        long expectedEnd;
+        if (pi != null) {
+            expectedEnd = Math.max(now, pi.getStartTime() + expectedRuntime);
+        } else {
+            expectedEnd = now + expectedRuntime;
+        }
+        if (expectedEnd > ji.getSubmitChannel().getInput().getDeadline()) {
+            ji.setDeadlineInfeasible(true);
+            ji.getSubmitChannel().sendEvent(Event.deadline_infeasible, expectedEnd);
+        } else {
+            scheduleDeadlineCheck(ji);
+        }
+    }
+
+    public void status(PeerChannel<Input> channel) throws IOException {
+        try {
+            StringBuilder sb = new StringBuilder();
+            sb.append(ANSICode.GREEN.getCode());
+            sb.append("Running");
+            sb.append(ANSICode.RESET.getCode());
+            sb.append("\n");
+            sb.append(ANSICode.CYAN.getCode());
+            sb.append("Queue order: ");
+            sb.append(Config.getInstance().getSchedulerCfg().isEdfScheduling() ? "earliest deadline first" : "priority");
+            sb.append(ANSICode.RESET.getCode());
+            sb.append("\n");
+            sb.append(ANSICode.BLACK.getCode());
+            sb.append(ANSICode.BG_GREEN.getCode());
+            sb.append(StringUtils.rightPad("GROUP", 8));
+            sb.append(" ");
+            sb.append(StringUtils.leftPad("DEADLINE_JOBS", 13));
+            sb.append(" ");
+            sb.append(StringUtils.leftPad("HITS", 8));
+            sb.append(" ");
+            sb.append(StringUtils.leftPad("HIT_RATE", 8));
+            sb.append(ANSICode.END_OF_LINE.getCode());
+            sb.append(ANSICode.RESET.getCode());
+            synchronized (jobSet) {
+                TreeSet<GroupInfo> groups = new TreeSet<>(groupMap.values());
+                for (GroupInfo gi : groups) {
+                    sb.append("\n");
+                    sb.append(StringUtils.rightPad(gi.getGroupName(), 8));
+                    sb.append(" ");
+                    sb.append(StringUtils.leftPad(String.valueOf(gi.getDeadlineJobs()), 13));
+                    sb.append(" ");
+                    sb.append(StringUtils.leftPad(String.valueOf(gi.getDeadlineHits()), 8));
+                    sb.append(" ");
+                    if (gi.getDeadlineJobs() > 0) {
+                        sb.append(StringUtils.leftPad(String.format("%.1f%%", 100.0 * gi.getDeadlineHits() / gi.getDeadlineJobs()), 8));
+                    } else {
+                        sb.append(StringUtils.leftPad("-", 8));
+                    }
+                }
             }
+            PeerChannel.println(channel.getStdoutOs(), sb.toString());
+            channel.sendEvent(Event.retcode, 0);
+        } finally {
+            channel.close();
         }
     }
 
     private void killForStarvationProtection(ProcessInfo pi) {
         try {
+            pi.getJobInfo().setPreempted(true);
             if (pi.getJobInfo().getSubmitChannel().getInput().isIdempotent()) {
                 LOGGER.log(Level.WARNING, "Starvation scenario found. Ralaunching idempotent job {0} ({1})", new Object[]{pi.getJobInfo().getId(), pi.getJobInfo().getSubmitChannel().getInput().getGroupName()});
                 pi.getJobInfo().getSubmitChannel().sendEvent(Event.starvation_relaunch, runningUser);
@@ -258,37 +703,75 @@ public class Scheduler {
             while (it.hasNext()) {
                 Integer id = it.next();
                 JobInfo ji = jobMap.get(id);
-                sum += ji.getSubmitChannel().getInput().getMaxRSS();
+                sum += getReservedRss(ji);
             }
             return sum;
         }
     }
 
+    /**
+     * Called by the peer monitor when a client closes its connection. The jobs
+     * of the connection are cleaned asynchronously, coalescing bursts of
+     * closings in a single pass.
+     */
+    public void onPeerClosed(PeerConnection connection) {
+        closedPeers.add(connection);
+        if (peerCleaningScheduled.compareAndSet(false, true)) {
+            timeoutExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    peerCleaningScheduled.set(false);
+                    try {
+                        cleanStalePeers();
+                    } catch (Throwable th) {
+                        LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                    }
+                }
+            });
+        }
+    }
+
     private void cleanStalePeers() throws IOException, InterruptedException {
         synchronized (jobSet) {
-            Iterator<Integer> it = jobSet.getQueue();
-            while (it.hasNext()) {
-                Integer id = it.next();
-                JobInfo ji = jobMap.get(id);
-                if (!ji.getSubmitChannel().isPeerAlive()) {
-                    it.remove();
-                    removeFromJobMap(ji);
-                    GroupInfo gi = ji.getGroupInfo();
-                    gi.getJobs().remove(id);
-                    try {
-                        ji.getSubmitChannel().close();
-                    } catch (IOException ex) {
-                        LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            List<Integer> deadIds = new ArrayList<>();
+            List<Integer> runningIds = new ArrayList<>();
+            PeerConnection connection;
+            while ((connection = closedPeers.poll()) != null) {
+                Set<Integer> ids = peerJobs.get(connection);
+                if (ids == null) {
+                    continue;
+                }
+                for (Integer id : ids) {
+                    JobSet.State state = jobSet.getState(id);
+                    if (state == JobSet.State.queued || state == JobSet.State.pending) {
+                        deadIds.add(id);
+                    } else if (state == JobSet.State.running) {
+                        runningIds.add(id);
                     }
-                    onStateChanged();
                 }
             }
-
-            it = jobSet.getRunning();
-            while (it.hasNext()) {
-                Integer id = it.next();
+            for (Integer id : deadIds) {
+                JobInfo ji = jobMap.get(id);
+                if (ji == null) { // already removed by a failed dependency
+                    continue;
+                }
+                removeFromJobMap(ji);
+                jobSet.remove(id);
+                GroupInfo gi = ji.getGroupInfo();
+                gi.getJobs().remove(id);
+                try {
+                    ji.getSubmitChannel().close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                }
+                onJobFinished(ji, RetCode.ERROR.getCode(), true);
+            }
+            if (!deadIds.isEmpty()) {
+                onStateChanged();
+            }
+            for (Integer id : runningIds) {
                 ProcessInfo pi = processMap.get(id);
-                if (pi != null && !pi.getJobInfo().getSubmitChannel().isPeerAlive()) {
+                if (pi != null) {
                     try {
                         LinuxCommands.killTree(pi.getPid());
                     } catch (RuntimeException ex) {
@@ -299,15 +782,63 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Sends the queue positions at most once per
+     * {@code queuePositionMillisecs}. The state changes within that interval
+     * are coalesced in a single deferred pass.
+     */
+    private void notifyQueuePositions() {
+        int interval = Config.getInstance().getSchedulerCfg().getQueuePositionMillisecs();
+        long elapsed;
+        synchronized (jobSet) {
+            elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastQueuePositionsNanos);
+        }
+        if (interval <= 0 || elapsed >= interval) {
+            sendQueuePositionEventsToParentJobs();
+        } else if (queuePositionsScheduled.compareAndSet(false, true)) {
+            TimerWheel.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeoutExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            queuePositionsScheduled.set(false);
+                            try {
+                                if (!closed) {
+                                    sendQueuePositionEventsToParentJobs();
+                                }
+                            } catch (Throwable th) {
+                                LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                            }
+                        }
+                    });
+                }
+            }, interval - elapsed, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Notifies the top-level queued jobs whose position has changed
+     * significantly ({@code queuePositionChangeRatio}) since their last
+     * notification. Jobs near the head of the queue are notified on every
+     * move.
+     */
     private void sendQueuePositionEventsToParentJobs() {
+        float ratio = Config.getInstance().getSchedulerCfg().getQueuePositionChangeRatio();
         synchronized (jobSet) {
+            lastQueuePositionsNanos = System.nanoTime();
             int position = 0;
             JobSet.QueueIterator it = jobSet.getQueue();
             while (it.hasNext()) {
                 position++;
                 Integer id = it.next();
                 JobInfo ji = jobMap.get(id);
-                if (ji.getSubmitChannel().getInput().getParentId() == null && position != ji.getPreviousQueuePosition()) {
+                ExtendedSubmitInput input = ji.getSubmitChannel().getInput();
+                if (input.getParentId() != null || input.isNoQueuePositionEvents()) {
+                    continue;
+                }
+                int previous = ji.getPreviousQueuePosition();
+                if (position != previous && (previous == 0 || Math.abs(position - previous) >= previous * ratio)) {
                     ji.getSubmitChannel().sendEvent(Event.queued, position);
                     ji.setPreviousQueuePosition(position);
                 }
@@ -315,6 +846,44 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Writes to stdout the current queue position of a job, or 0 if it is not
+     * queued.
+     */
+    public void position(PeerChannel<PositionInput> channel) throws IOException {
+        try {
+            if (closed) {
+                throw new IllegalStateException("Instance is closed");
+            }
+            int id = channel.getInput().getId();
+            synchronized (jobSet) {
+                JobSet.State state = jobSet.getState(id);
+                if (state == null) {
+                    channel.sendMessage(ANSICode.RED, "Job not found");
+                    channel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                    return;
+                }
+                int position = 0;
+                if (state == JobSet.State.queued) {
+                    JobSet.QueueIterator it = jobSet.getQueue();
+                    while (it.hasNext()) {
+                        position++;
+                        if (it.next() == id) {
+                            break;
+                        }
+                    }
+                    channel.sendEvent(Event.queued, position);
+                } else {
+                    channel.sendMessage(ANSICode.YELLOW, "Job " + id + " is " + state.name());
+                }
+                PeerChannel.println(channel.getStdoutOs(), String.valueOf(position));
+                channel.sendEvent(Event.retcode, 0);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
     private int getGroupsRunning() {
         int ret = 0;
         synchronized (jobSet) {
@@ -360,67 +929,580 @@ public class Scheduler {
         }
     }
 
-    private void checkStarvation() {
-
-        synchronized (jobSet) {
-            if (jobSet.countQueued() == 0) {
-                return;
+    /**
+     * Detects deadlocks in the job hierarchy and preempts a job to break them.
+     * <br>
+     * A running job is stuck when it waits for children that cannot progress
+     * by themselves: it has queued children and none running, or all its
+     * running children are stuck too. The memory held by stuck jobs is not
+     * released until their children run, so a deadlock exists when the head of
+     * the queue does not fit even once every other running job has finished.
+     * Memory held by stuck jobs over the {@code maxBlockedRssStarvationRatio}
+     * of the capacity is also considered starvation.
+     */
+    private void checkStarvation() {
+        synchronized (jobSet) {
+            if (jobSet.countQueued() == 0) {
+                return;
+            }
+            Set<Integer> waitingParents = new HashSet<>();
+            Iterator<Integer> it = jobSet.getQueue();
+            while (it.hasNext()) {
+                Integer parentId = jobMap.get(it.next()).getSubmitChannel().getInput().getParentId();
+                if (parentId != null) {
+                    waitingParents.add(parentId);
+                }
+            }
+            if (waitingParents.isEmpty()) {
+                return;
+            }
+            Map<Integer, List<JobInfo>> runningChildren = new HashMap<>();
+            it = jobSet.getRunning();
+            while (it.hasNext()) {
+                JobInfo ji = jobMap.get(it.next());
+                Integer parentId = ji.getSubmitChannel().getInput().getParentId();
+                if (parentId != null) {
+                    List<JobInfo> children = runningChildren.get(parentId);
+                    if (children == null) {
+                        children = new ArrayList<>();
+                        runningChildren.put(parentId, children);
+                    }
+                    children.add(ji);
+                }
+            }
+            Map<Integer, Boolean> stuckMap = new HashMap<>();
+            List<JobInfo> stuckJobs = new ArrayList<>();
+            long stuckRss = 0;
+            it = jobSet.getRunning();
+            while (it.hasNext()) {
+                JobInfo ji = jobMap.get(it.next());
+                if (isStuck(ji, waitingParents, runningChildren, stuckMap)) {
+                    stuckJobs.add(ji);
+                    stuckRss += getReservedRss(ji);
+                }
+            }
+            if (stuckJobs.isEmpty()) {
+                return;
+            }
+            // jobs held by their group quotas cannot be unblocked by preemption
+            updateGroupUsage();
+            JobInfo head = null;
+            JobSet.QueueIterator queuedIt = jobSet.getQueue();
+            while (queuedIt.hasNext()) {
+                JobInfo ji = jobMap.get(queuedIt.next());
+                GangInfo gang = gangMembers.get(ji.getId());
+                if (gang != null && !isGangReady(gang)) {
+                    continue;
+                }
+                if (!ji.getGroupInfo().isCapped(getClaimedRss(ji.getSubmitChannel().getInput()))) {
+                    head = ji;
+                    break;
+                }
+                queuedIt.skipGroup();
+            }
+            long needed = 0;
+            if (head != null) {
+                needed = getClaimedRss(head.getSubmitChannel().getInput()) - (totalManagedRss - stuckRss);
+            }
+            long starvationExcess = stuckRss - (long) (totalManagedRss * Config.getInstance().getSchedulerCfg().getMaxBlockedRssStarvationRatio());
+            if (starvationExcess > needed) {
+                needed = starvationExcess;
+            }
+            if (needed <= 0) {
+                return;
+            }
+            ProcessInfo victim = null;
+            long victimFreed = 0;
+            long victimLostWork = 0;
+            for (JobInfo ji : stuckJobs) {
+                ProcessInfo pi = processMap.get(ji.getId());
+                if (pi == null || gangMembers.containsKey(ji.getId())) { // gang members cannot be relaunched alone
+                    continue;
+                }
+                long freed = getSubtreeRss(ji, runningChildren);
+                long lostWork = getSubtreeCpuJiffies(ji, runningChildren);
+                if (victim == null || isBetterVictim(pi, freed, lostWork, victim, victimFreed, victimLostWork, needed)) {
+                    victim = pi;
+                    victimFreed = freed;
+                    victimLostWork = lostWork;
+                }
+            }
+            if (victim != null) {
+                LOGGER.log(Level.WARNING, "Deadlock found. {0} stuck jobs holding {1} bytes, {2} bytes needed", new Object[]{stuckJobs.size(), stuckRss, needed});
+                killForStarvationProtection(victim);
+            }
+        }
+    }
+
+    /**
+     * Whether the running job waits for children that cannot progress.
+     * Preempted jobs are not stuck, since their memory is about to be freed.
+     */
+    private boolean isStuck(JobInfo ji, Set<Integer> waitingParents, Map<Integer, List<JobInfo>> runningChildren, Map<Integer, Boolean> stuckMap) {
+        Boolean ret = stuckMap.get(ji.getId());
+        if (ret != null) {
+            return ret;
+        }
+        List<JobInfo> children = runningChildren.get(ji.getId());
+        if (ji.isPreempted()) {
+            ret = false;
+        } else if (children == null) {
+            ret = waitingParents.contains(ji.getId());
+        } else {
+            ret = true;
+            for (JobInfo child : children) {
+                if (!isStuck(child, waitingParents, runningChildren, stuckMap)) {
+                    ret = false;
+                    break;
+                }
+            }
+        }
+        stuckMap.put(ji.getId(), ret);
+        return ret;
+    }
+
+    /**
+     * Memory freed by killing a stuck job, including its running descendants
+     * that are killed after it.
+     */
+    private long getSubtreeRss(JobInfo ji, Map<Integer, List<JobInfo>> runningChildren) {
+        long ret = getReservedRss(ji);
+        List<JobInfo> children = runningChildren.get(ji.getId());
+        if (children != null) {
+            for (JobInfo child : children) {
+                ret += getSubtreeRss(child, runningChildren);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * CPU time consumed by a stuck job and its running descendants, that is
+     * lost if the job is killed.
+     */
+    private long getSubtreeCpuJiffies(JobInfo ji, Map<Integer, List<JobInfo>> runningChildren) {
+        long ret = 0;
+        ProcessInfo pi = processMap.get(ji.getId());
+        if (pi != null && pi.getCurrentStats() != null && pi.getCurrentStats().cpuStats != null) {
+            ret = pi.getCurrentStats().cpuStats.userJiffies + pi.getCurrentStats().cpuStats.systemJiffies;
+        }
+        List<JobInfo> children = runningChildren.get(ji.getId());
+        if (children != null) {
+            for (JobInfo child : children) {
+                ret += getSubtreeCpuJiffies(child, runningChildren);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Victims freeing the needed memory are preferred, then idempotent ones,
+     * then the ones losing less work per byte freed.
+     */
+    private static boolean isBetterVictim(ProcessInfo pi, long freed, long lostWork, ProcessInfo current, long currentFreed, long currentLostWork, long needed) {
+        boolean sufficient = freed >= needed;
+        boolean currentSufficient = currentFreed >= needed;
+        if (sufficient != currentSufficient) {
+            return sufficient;
+        }
+        boolean idempotent = pi.getJobInfo().getSubmitChannel().getInput().isIdempotent();
+        boolean currentIdempotent = current.getJobInfo().getSubmitChannel().getInput().isIdempotent();
+        if (idempotent != currentIdempotent) {
+            return idempotent;
+        }
+        return (double) lostWork * currentFreed < (double) currentLostWork * freed;
+    }
+
+    private void dequeueJobs() {
+        synchronized (jobSet) {
+            dequeueBudgetedJobs();
+        }
+        long availableMemory = getAvailableManagedMemory(getAllocatedManagedMemory());
+        synchronized (jobSet) {
+            long unmetGuarantees = updateGroupUsage();
+            if (groupOrderDirty) {
+                updateGroupOrder();
+            }
+            boolean blocked = false;
+            JobSet.QueueIterator queuedIt = jobSet.getQueue();
+            while (queuedIt.hasNext()) {
+                Integer id = queuedIt.next();
+                JobInfo ji = jobMap.get(id);
+                GroupInfo gi = ji.getGroupInfo();
+                long claimedRss = getClaimedRss(ji.getSubmitChannel().getInput());
+                if (gi.isCapped(claimedRss)) {
+                    queuedIt.skipGroup();
+                    continue;
+                }
+                GangInfo gang = gangMembers.get(id);
+                if (gang != null) {
+                    if (!isGangReady(gang)) {
+                        // waiting for its partners, does not block the queue
+                        continue;
+                    }
+                    long gangRss = 0;
+                    for (JobInfo member : gang.getMembers()) {
+                        gangRss += getClaimedRss(member.getSubmitChannel().getInput());
+                    }
+                    if (!fits(gi, gangRss, availableMemory, unmetGuarantees, blocked)) {
+                        if (unmetGuarantees == 0) {
+                            return;
+                        }
+                        blocked = true;
+                        continue;
+                    }
+                    if (!acquireLaunches(gang.getSize())) {
+                        return;
+                    }
+                    startGang(gang);
+                    for (JobInfo member : gang.getMembers()) {
+                        long memberRss = getClaimedRss(member.getSubmitChannel().getInput());
+                        availableMemory -= memberRss;
+                        unmetGuarantees -= member.getGroupInfo().addUsage(memberRss);
+                    }
+                    // the members have left the queue
+                    queuedIt = jobSet.getQueue();
+                    continue;
+                }
+                if (!fits(gi, claimedRss, availableMemory, unmetGuarantees, blocked)) {
+                    if (unmetGuarantees == 0) {
+                        return;
+                    }
+                    // keep looking for jobs of groups below their guarantee
+                    blocked = true;
+                    continue;
+                }
+                if (ji.getArrayInfo() != null) {
+                    while (ji.getArrayInfo().hasPendingTasks() && !gi.isCapped(claimedRss) && fits(gi, claimedRss, availableMemory, unmetGuarantees, blocked)) {
+                        if (!acquireLaunches(1)) {
+                            return;
+                        }
+                        startArrayTask(ji);
+                        availableMemory -= claimedRss;
+                        unmetGuarantees -= gi.addUsage(claimedRss);
+                    }
+                    if (ji.getArrayInfo().hasPendingTasks()) {
+                        if (gi.isCapped(claimedRss)) {
+                            queuedIt.skipGroup();
+                            continue;
+                        }
+                        if (unmetGuarantees == 0) {
+                            return;
+                        }
+                        blocked = true;
+                        continue;
+                    }
+                    // all tasks started, the array leaves the queue but remains in jobMap until they finish
+                    queuedIt.remove();
+                    ji.getGroupInfo().getJobs().remove(id);
+                    changeQueuedChildren(ji.getSubmitChannel().getInput().getParentId(), false);
+                    continue;
+                }
+                if (!acquireLaunches(1)) {
+                    return;
+                }
+                queuedIt.moveToRunning();
+                changeQueuedChildren(ji.getSubmitChannel().getInput().getParentId(), false);
+                changeRunningChildren(ji.getSubmitChannel().getInput().getParentId(), true);
+                execute(id, ji);
+                availableMemory -= claimedRss;
+                unmetGuarantees -= gi.addUsage(claimedRss);
+            }
+        }
+    }
+
+    /**
+     * Takes the launch permits for the jobs to be started. If launches are
+     * being paced, the pass has to stop here to keep the queue order, and a
+     * new one is scheduled. Called under synchronized(jobSet).
+     */
+    private boolean acquireLaunches(int launches) {
+        if (launchGovernor.tryAcquire(launches)) {
+            return true;
+        }
+        if (dequeueRetry == null) {
+            dequeueRetry = TimerWheel.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeoutExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                synchronized (jobSet) {
+                                    dequeueRetry = null;
+                                    if (!closed) {
+                                        onStateChanged();
+                                    }
+                                }
+                            } catch (Throwable th) {
+                                LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                            }
+                        }
+                    });
+                }
+            }, launchGovernor.getRetryMillis(launches), TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    /**
+     * A gang can start once all its members have been submitted and are
+     * queued, and starting them together caps none of their groups.
+     */
+    private boolean isGangReady(GangInfo gang) {
+        if (gang.isStarted() || gang.isFailed() || gang.getMembers().size() < gang.getSize()) {
+            return false;
+        }
+        // claimed memory and job count of the members, by group
+        Map<GroupInfo, long[]> claims = new HashMap<>();
+        for (JobInfo member : gang.getMembers()) {
+            if (jobSet.getState(member.getId()) != JobSet.State.queued) {
+                return false;
+            }
+            long[] claim = claims.get(member.getGroupInfo());
+            if (claim == null) {
+                claim = new long[2];
+                claims.put(member.getGroupInfo(), claim);
+            }
+            claim[0] += getClaimedRss(member.getSubmitChannel().getInput());
+            claim[1]++;
+        }
+        for (Map.Entry<GroupInfo, long[]> entry : claims.entrySet()) {
+            if (entry.getKey().isCapped(entry.getValue()[0], (int) entry.getValue()[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves all the members of the gang to running state and executes them.
+     * Called under synchronized(jobSet).
+     */
+    private void startGang(GangInfo gang) {
+        gang.setStarted(true);
+        LOGGER.fine("Starting gang " + gang.getKey() + " of " + gang.getSize() + " jobs");
+        for (JobInfo member : gang.getMembers()) {
+            jobSet.run(member.getId());
+            changeQueuedChildren(member.getSubmitChannel().getInput().getParentId(), false);
+            changeRunningChildren(member.getSubmitChannel().getInput().getParentId(), true);
+            execute(member.getId(), member);
+        }
+    }
+
+    /**
+     * Cancels the waiting members and kills the running ones of a gang, once
+     * one of them has failed. Called under synchronized(jobSet).
+     */
+    private void onGangMemberFinished(GangInfo gang, int id, int retCode) throws IOException {
+        Iterator<JobInfo> it = gang.getMembers().iterator();
+        while (it.hasNext()) {
+            if (it.next().getId() == id) {
+                it.remove();
+            }
+        }
+        if (gang.getMembers().isEmpty()) {
+            gangMap.remove(gang.getKey());
+        }
+        if (retCode == 0 || gang.isFailed()) {
+            return;
+        }
+        gang.setFailed(true);
+        LOGGER.fine("Member " + id + " of gang " + gang.getKey() + " failed");
+        for (JobInfo member : new ArrayList<>(gang.getMembers())) {
+            member.getSubmitChannel().sendEvent(Event.gang_failed, id);
+            JobSet.State state = jobSet.getState(member.getId());
+            if (state == JobSet.State.queued || state == JobSet.State.pending) {
+                member.getSubmitChannel().sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                member.getSubmitChannel().close();
+                removeFromJobMap(member);
+                jobSet.remove(member.getId());
+                member.getGroupInfo().getJobs().remove(member.getId());
+                onJobFinished(member, RetCode.ERROR.getCode(), true);
+            } else {
+                ProcessInfo pi = processMap.get(member.getId());
+                if (pi != null) { // otherwise killed once started
+                    LinuxCommands.killTree(pi.getPid());
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a job of the group can start. Memory still guaranteed to other
+     * groups with waiting jobs is not available to it. Once a job has been
+     * blocked, only the jobs fitting in the guarantee of their group can
+     * overtake it.
+     */
+    private static boolean fits(GroupInfo gi, long claimedRss, long availableMemory, long unmetGuarantees, boolean blocked) {
+        long shortfall = gi.getGuaranteeShortfall();
+        if (blocked) {
+            return claimedRss <= shortfall && claimedRss <= availableMemory;
+        }
+        return claimedRss <= availableMemory - unmetGuarantees + shortfall;
+    }
+
+    /**
+     * Recomputes the memory reserved and the number of jobs running in each
+     * group. Called under synchronized(jobSet).
+     *
+     * @return the total memory guaranteed to groups with waiting jobs that
+     * is not in use by them
+     */
+    private long updateGroupUsage() {
+        for (GroupInfo gi : groupMap.values()) {
+            gi.resetUsage();
+        }
+        JobSet.RunningIterator runningIterator = jobSet.getRunning();
+        while (runningIterator.hasNext()) {
+            JobInfo ji = jobMap.get(runningIterator.next());
+            if (ji != null) {
+                ji.getGroupInfo().addUsage(getReservedRss(ji));
+            }
+        }
+        long ret = 0;
+        for (GroupInfo gi : groupMap.values()) {
+            ret += gi.getGuaranteeShortfall();
+            if (gi.isUsageChanged()) {
+                groupOrderDirty = true;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Starts the queued jobs fitting in the remaining children budget of their
+     * running parent, regardless of their position in the queue, as long as
+     * their group quotas allow it. Called under synchronized(jobSet).
+     */
+    private void dequeueBudgetedJobs() {
+        updateGroupUsage();
+        JobSet.QueueIterator queuedIt = jobSet.getQueue();
+        while (queuedIt.hasNext()) {
+            Integer id = queuedIt.next();
+            JobInfo ji = jobMap.get(id);
+            Integer parentId = ji.getSubmitChannel().getInput().getParentId();
+            if (parentId == null || ji.getArrayInfo() != null || gangMembers.containsKey(id)) {
+                continue;
             }
-            boolean allJobsBlocked = true;
-            ProcessInfo candidateToKill = null;
-            long maxRSsSumOfBlockedJobs = 0;
-
-            Iterator<Integer> it = jobSet.getRunning();
-            while (it.hasNext()) {
-                Integer id = it.next();
-                JobInfo ji = jobMap.get(id);
-                if (ji.getQueuedChildCount() > 0 && ji.getRunningChildCount() == 0) {
-                    maxRSsSumOfBlockedJobs += ji.getSubmitChannel().getInput().getMaxRSS();
-                    ProcessInfo pi = processMap.get(id);
-                    if (pi != null) {
-                        if (pi.getJobInfo().isRelaunched()) {
-                            maxRSsSumOfBlockedJobs -= ji.getSubmitChannel().getInput().getMaxRSS();
-                            continue;
-                        }
-                        if (candidateToKill == null || !candidateToKill.getJobInfo().getSubmitChannel().getInput().isIdempotent() || ji.getSubmitChannel().getInput().isIdempotent()) {
-                            candidateToKill = pi;
-                        }
-                    } else {
-                        candidateToKill = null;
-                    }
-                } else {
-                    allJobsBlocked = false;
-                }
+            JobInfo parent = jobMap.get(parentId);
+            if (parent == null || jobSet.getState(parentId) != JobSet.State.running) {
+                continue;
             }
-            if (candidateToKill != null) {
-                if (maxRSsSumOfBlockedJobs > totalManagedRss * Config.getInstance().getSchedulerCfg().getMaxBlockedRssStarvationRatio()) {
-                    killForStarvationProtection(candidateToKill);
-                } else if (allJobsBlocked) {
-                    JobInfo firstQueued = jobMap.get(jobSet.getQueue().next());
-                    if (maxRSsSumOfBlockedJobs + firstQueued.getSubmitChannel().getInput().getMaxRSS() > this.totalManagedRss) {
-                        killForStarvationProtection(candidateToKill);
-                    }
-                }
+            long claimedRss = getClaimedRss(ji.getSubmitChannel().getInput());
+            if (parent.getBudgetUsed() + claimedRss > parent.getSubmitChannel().getInput().getChildrenBudget()) {
+                continue;
             }
+            GroupInfo gi = ji.getGroupInfo();
+            if (gi.isCapped(claimedRss)) {
+                queuedIt.skipGroup();
+                continue;
+            }
+            if (!acquireLaunches(1)) {
+                return;
+            }
+            parent.setBudgetUsed(parent.getBudgetUsed() + claimedRss);
+            ji.setBudgetOwner(parent);
+            gi.addUsage(getReservedRss(ji));
+            queuedIt.moveToRunning();
+            changeQueuedChildren(parentId, false);
+            changeRunningChildren(parentId, true);
+            execute(id, ji);
         }
     }
 
-    private void dequeueJobs() {
-        long availableMemory = getAvailableManagedMemory(getAllocatedManagedMemory());
-        synchronized (jobSet) {
-            JobSet.QueueIterator queuedIt = jobSet.getQueue();
-            while (queuedIt.hasNext()) {
-                Integer id = queuedIt.next();
-                JobInfo ji = jobMap.get(id);
-                if (ji.getSubmitChannel().getInput().getMaxRSS() > availableMemory) {
-                    return;
-                }
-                queuedIt.moveToRunning();
-                changeQueuedChildren(ji.getSubmitChannel().getInput().getParentId(), false);
-                changeRunningChildren(ji.getSubmitChannel().getInput().getParentId(), true);
-                execute(id, ji);
-                availableMemory -= ji.getSubmitChannel().getInput().getMaxRSS();
-            }
+    /**
+     * Memory claimed by a job: its own maximum RSS plus the budget for its
+     * children.
+     */
+    private static long getClaimedRss(SubmitInput input) {
+        return input.getMaxRSS() + input.getChildrenBudget();
+    }
+
+    /**
+     * Memory reserved from the scheduler capacity by a running job. Jobs
+     * drawing from the children budget of a running ancestor reserve nothing.
+     */
+    private long getReservedRss(JobInfo ji) {
+        JobInfo owner = ji.getBudgetOwner();
+        if (owner != null && jobMap.get(owner.getId()) == owner) {
+            return 0;
+        }
+        return getClaimedRss(ji.getSubmitChannel().getInput());
+    }
+
+    /**
+     * Materializes the next pending task of the job array and starts it.
+     */
+    private void startArrayTask(JobInfo array) {
+        int index = array.getArrayInfo().nextIndex();
+        GroupInfo gi = array.getGroupInfo();
+        JobInfo task = new JobInfo(jobCounter.incrementAndGet(), gi, array.getSubmitChannel(), array, index);
+        putInJobMap(task);
+        gi.getJobs().add(task.getId());
+        array.getArrayInfo().getRunningTasks().add(task.getId());
+        jobSet.start(task.getId(), gi.getGroupId(), getDeadline(array.getSubmitChannel().getInput()));
+        changeRunningChildren(array.getSubmitChannel().getInput().getParentId(), true);
+        execute(task.getId(), task);
+    }
+
+    /**
+     * Sends the return code of the job, or records it if the job is an array
+     * task.
+     */
+    private void sendRetCode(JobInfo ji, int retCode) {
+        ji.setRetCode(retCode);
+        if (ji.getArray() == null) {
+            ji.getSubmitChannel().sendEvent(Event.retcode, retCode);
+        } else {
+            ji.getSubmitChannel().sendEvent(Event.task_retcode, ji.getArrayIndex() + "," + retCode);
+        }
+    }
+
+    /**
+     * Called under synchronized(jobSet) once a task process has finished.
+     * The array is completed when there are no pending nor running tasks.
+     */
+    private void finishArrayTask(JobInfo task, GaugeStats maxGaugeStats) throws IOException {
+        JobInfo array = task.getArray();
+        ArrayInfo ai = array.getArrayInfo();
+        ai.getRunningTasks().remove(task.getId());
+        int taskRetCode = task.getRetCode() != null ? task.getRetCode() : RetCode.ERROR.getCode();
+        ai.taskFinished(taskRetCode, maxGaugeStats);
+        onJobFinished(task, taskRetCode, false);
+        if (ai.hasPendingTasks() || !ai.getRunningTasks().isEmpty() || jobMap.get(array.getId()) != array) {
+            return;
+        }
+        forgetJob(array);
+        if (ai.getMaxRss() > 0 || ai.getMaxSwap() > 0) {
+            array.getSubmitChannel().sendEvent(Event.maxrss, ai.getMaxRss());
+            array.getSubmitChannel().sendEvent(Event.maxswap, ai.getMaxSwap());
+        }
+        int retCode = ai.isCancelled() ? RetCode.CANCELLED.getCode() : ai.getRetCode();
+        recordDeadline(array, retCode);
+        array.getSubmitChannel().sendEvent(Event.retcode, retCode);
+        LOGGER.fine("Closing channel of job array " + array.getId());
+        array.getSubmitChannel().close();
+        onJobFinished(array, retCode, true);
+    }
+
+    /**
+     * Called under synchronized(jobSet) when a task has been killed for
+     * starvation prevention. Its index is enqueued again.
+     */
+    private void relaunchArrayTask(JobInfo task) {
+        JobInfo array = task.getArray();
+        ArrayInfo ai = array.getArrayInfo();
+        ai.getRunningTasks().remove(task.getId());
+        if (jobMap.get(array.getId()) != array || ai.isCancelled()) {
+            return;
+        }
+        ai.relaunch(task.getArrayIndex());
+        if (jobSet.getState(array.getId()) == null) {
+            GroupInfo gi = array.getGroupInfo();
+            gi.getJobs().add(array.getId());
+            jobSet.queue(array.getId(), gi.getGroupId(), getDeadline(array.getSubmitChannel().getInput()));
+            changeQueuedChildren(array.getSubmitChannel().getInput().getParentId(), true);
         }
     }
 
@@ -440,7 +1522,7 @@ public class Scheduler {
         distributeNiceness();
         checkStarvation();
         dequeueJobs();
-        sendQueuePositionEventsToParentJobs();
+        notifyQueuePositions();
         takeStats();
     }
 
@@ -449,7 +1531,7 @@ public class Scheduler {
             long allocatedManagedMemory = getAllocatedManagedMemory();
             long availableManagedMemory = getAvailableManagedMemory(allocatedManagedMemory);
             GaugeStats stats = getStats();
-            this.jobList = createJobList(false, availableManagedMemory, allocatedManagedMemory, stats);
+            this.jobListSnapshot = new JobListSnapshot(availableManagedMemory, allocatedManagedMemory, stats);
             if (statsLogger != null) {
                 currentStatRecord.running = jobSet.countRunning();
                 currentStatRecord.queded = jobSet.countQueued();
@@ -537,6 +1619,10 @@ public class Scheduler {
                     continue;
                 }
                 pi.setCurrentStats(new Statistics(memStats, cpuStats, ioStats));
+                int cpuTimeLimit = getCpuTimeLimitSeconds(pi.getJobInfo());
+                if (cpuTimeLimit > 0 && (cpuStats.userJiffies + cpuStats.systemJiffies) / LinuxCommands.getUserHz() >= cpuTimeLimit) {
+                    enforceLimit(pi, "cputime");
+                }
                 ret.cpuGaugeStats.systemCpuPercent += pi.getGaugeStats().cpuGaugeStats.systemCpuPercent;
                 ret.cpuGaugeStats.userCpuPercent += pi.getGaugeStats().cpuGaugeStats.userCpuPercent;
                 ret.memStats.rssBytes += pi.getGaugeStats().memStats.rssBytes;
@@ -586,17 +1672,61 @@ public class Scheduler {
     }
 
     public void submit(PeerChannel<ExtendedSubmitInput> submitChannel) throws IOException, InterruptedException {
+        synchronized (jobSet) {
+            if (enqueue(submitChannel, false) != null) {
+                onStateChanged();
+            }
+        }
+    }
 
-        if (closed) {
-            submitChannel.sendEvent(Event.retcode, RetCode.CANCELLED.getCode());
-            submitChannel.close();
-            return;
+    /**
+     * Enqueues all the jobs of a batch request in a single scheduling pass.
+     * The batch channel is notified once all of them have been processed.
+     */
+    public void submitAll(PeerChannel<Input> batchChannel, List<PeerChannel<ExtendedSubmitInput>> submitChannels) throws IOException, InterruptedException {
+        int processed = 0;
+        try {
+            synchronized (jobSet) {
+                boolean enqueued = false;
+                for (PeerChannel<ExtendedSubmitInput> submitChannel : submitChannels) {
+                    processed++;
+                    enqueued |= enqueue(submitChannel, false) != null;
+                }
+                LOGGER.fine("Received batch of " + submitChannels.size() + " jobs");
+                if (enqueued) {
+                    onStateChanged();
+                }
+            }
+            batchChannel.sendEvent(Event.retcode, 0);
+        } finally {
+            for (int i = processed; i < submitChannels.size(); i++) {
+                submitChannels.get(i).close();
+            }
+            batchChannel.close();
         }
+    }
+
+    /**
+     * Adds the job to the queue, or to the pending set if it has unfinished
+     * dependencies, without triggering the scheduling. Rejected jobs are
+     * notified and their channels closed.
+     *
+     * @param relaunched if the job is being relaunched, its dependencies
+     * being already satisfied
+     * @return the job created, or {@code null} if rejected
+     */
+    private JobInfo enqueue(PeerChannel<ExtendedSubmitInput> submitChannel, boolean relaunched) throws IOException, InterruptedException {
 
         if (submitChannel == null) {
             throw new IllegalArgumentException("Request info is required");
         }
 
+        if (closed) {
+            submitChannel.sendEvent(Event.retcode, RetCode.CANCELLED.getCode());
+            submitChannel.close();
+            return null;
+        }
+
         if (maxJobRss > 0 && submitChannel.getInput().getMaxRSS() > maxJobRss) {
             submitChannel.getInput().setMaxRSS(maxJobRss);
         }
@@ -604,7 +1734,7 @@ public class Scheduler {
             submitChannel.getInput().setMaxRSS(totalManagedRss);
         }
 
-        long treeRSS = submitChannel.getInput().getMaxRSS();
+        long treeRSS = getClaimedRss(submitChannel.getInput());
         Integer parentId = submitChannel.getInput().getParentId();
 
         while (parentId != null) {
@@ -612,7 +1742,11 @@ public class Scheduler {
             if (ji == null) {
                 break;
             }
-            treeRSS += ji.getSubmitChannel().getInput().getMaxRSS();
+            if (treeRSS <= ji.getSubmitChannel().getInput().getChildrenBudget()) {
+                treeRSS = getClaimedRss(ji.getSubmitChannel().getInput());
+            } else {
+                treeRSS += getClaimedRss(ji.getSubmitChannel().getInput());
+            }
             parentId = ji.getSubmitChannel().getInput().getParentId();
         }
 
@@ -620,27 +1754,187 @@ public class Scheduler {
             submitChannel.sendEvent(Event.exceed_tree, treeRSS);
             submitChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
             submitChannel.close();
-            return;
+            return null;
         }
 
         if (submitChannel.getInput().getGroupName() == null) {
             submitChannel.getInput().setGroupName(DEFAULT_GROUP_NAME);
         }
 
-        synchronized (jobSet) {
-            GroupInfo gi = groupMap.get(submitChannel.getInput().getGroupName());
-            if (gi == null) { // dynamic group
-                gi = createGroup(submitChannel.getInput().getGroupName(), submitChannel.getUser(), 0, Config.getInstance().getGroupCfg().getDynamicGroupIdleSeconds(), null);
+        if (!relaunched && submitChannel.getInput().getDeadline() > 0) {
+            long expectedRuntime = getExpectedRuntimeMillis(submitChannel.getUser(), submitChannel.getInput());
+            long expectedEnd = System.currentTimeMillis() + Math.max(0, expectedRuntime);
+            if (expectedEnd > submitChannel.getInput().getDeadline()) {
+                GroupInfo gi = groupMap.get(submitChannel.getInput().getGroupName());
+                if (gi != null) {
+                    gi.recordDeadline(false);
+                }
+                submitChannel.sendEvent(Event.deadline_infeasible, expectedEnd);
+                submitChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                submitChannel.close();
+                return null;
+            }
+        }
+
+        List<Integer> waitingIds = new ArrayList<>();
+        List<DependencyCondition> waitingConditions = new ArrayList<>();
+        if (!relaunched) {
+            for (DependencyCondition condition : DependencyCondition.values()) {
+                int[] ids = condition.getJobIds(submitChannel.getInput());
+                if (ids == null) {
+                    continue;
+                }
+                for (int depId : ids) {
+                    FinishedJob finished = finishedJobs.get(depId);
+                    JobInfo depJob = finished == null ? jobMap.get(depId) : null;
+                    String owner = finished != null ? finished.user : depJob != null ? depJob.getSubmitChannel().getUser() : null;
+                    if (owner == null || !submitChannel.getUser().equals("root") && !submitChannel.getUser().equals(owner)) {
+                        submitChannel.sendMessage(ANSICode.RED, "Dependency job " + depId + " not found");
+                        submitChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                        submitChannel.close();
+                        return null;
+                    }
+                    if (finished != null) {
+                        if (!condition.isSatisfiedBy(finished.retCode)) {
+                            submitChannel.sendEvent(Event.dependency_failed, depId);
+                            submitChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                            submitChannel.close();
+                            return null;
+                        }
+                    } else {
+                        waitingIds.add(depId);
+                        waitingConditions.add(condition);
+                    }
+                }
             }
-            JobInfo ji = new JobInfo(jobCounter.incrementAndGet(), gi, submitChannel);
+        }
+
+        String gangName = submitChannel.getInput().getGang();
+        GangInfo gang = null;
+        if (gangName != null) {
+            gang = gangMap.get(submitChannel.getUser() + ":" + gangName);
+            String error = null;
+            if (submitChannel.getInput().getArraySize() > 0) {
+                error = "Job arrays cannot be gang members";
+            } else if (submitChannel.getInput().getGangSize() < 1) {
+                error = "Invalid gang size";
+            } else if (gang != null && gang.getSize() != submitChannel.getInput().getGangSize()) {
+                error = "Gang '" + gangName + "' has size " + gang.getSize();
+            } else if (gang != null && (gang.isStarted() || gang.getMembers().size() >= gang.getSize())) {
+                error = "Gang '" + gangName + "' is already complete";
+            }
+            if (error != null) {
+                submitChannel.sendMessage(ANSICode.RED, error);
+                submitChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                submitChannel.close();
+                return null;
+            }
+        }
+
+        GroupInfo gi = groupMap.get(submitChannel.getInput().getGroupName());
+        if (gi == null) { // dynamic group
+            if (!isValidGroupName(submitChannel.getInput().getGroupName())) {
+                submitChannel.sendMessage(ANSICode.RED, "Invalid group name '" + submitChannel.getInput().getGroupName() + "'");
+                submitChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                submitChannel.close();
+                return null;
+            }
+            gi = createGroup(submitChannel.getInput().getGroupName(), submitChannel.getUser(), 0, Config.getInstance().getGroupCfg().getDynamicGroupIdleSeconds(), null);
+        }
+        JobInfo ji = new JobInfo(jobCounter.incrementAndGet(), gi, submitChannel);
+        if (ji.getArrayInfo() != null) {
+            LOGGER.fine("Received job array " + ji.getId() + " of " + ji.getArrayInfo().getSize() + " tasks: " + Arrays.toString(ji.getSubmitChannel().getInput().getCommand()));
+        } else {
             LOGGER.fine("Received job " + ji.getId() + ": " + Arrays.toString(ji.getSubmitChannel().getInput().getCommand()));
-            gi.getJobs().add(ji.getId());
-            changeQueuedChildren(ji.getSubmitChannel().getInput().getParentId(), true);
-            jobMap.put(ji.getId(), ji);
-            ji.getSubmitChannel().sendEvent(Event.id, ji.getId());
-            jobSet.queue(ji.getId(), gi.getPriority(), gi.getGroupId());
-            ji.getSubmitChannel().sendEvent(Event.priority, gi.getPriority());
-            onStateChanged();
+        }
+        gi.getJobs().add(ji.getId());
+        changeQueuedChildren(ji.getSubmitChannel().getInput().getParentId(), true);
+        putInJobMap(ji);
+        if (gangName != null) {
+            if (gang == null) {
+                gang = new GangInfo(submitChannel.getUser() + ":" + gangName, submitChannel.getInput().getGangSize());
+                gangMap.put(gang.getKey(), gang);
+            }
+            gang.getMembers().add(ji);
+            gangMembers.put(ji.getId(), gang);
+        }
+        ji.getSubmitChannel().sendEvent(Event.id, ji.getId());
+        scheduleDeadlineCheck(ji);
+        if (waitingIds.isEmpty()) {
+            jobSet.queue(ji.getId(), gi.getGroupId(), getDeadline(ji.getSubmitChannel().getInput()));
+        } else {
+            for (int i = 0; i < waitingIds.size(); i++) {
+                List<Dependent> list = dependents.get(waitingIds.get(i));
+                if (list == null) {
+                    list = new ArrayList<>();
+                    dependents.put(waitingIds.get(i), list);
+                }
+                list.add(new Dependent(ji.getId(), waitingConditions.get(i)));
+            }
+            ji.setPendingDependencies(waitingIds.size());
+            jobSet.pend(ji.getId(), gi.getGroupId(), getDeadline(ji.getSubmitChannel().getInput()));
+            ji.getSubmitChannel().sendEvent(Event.pending, waitingIds.size());
+        }
+        ji.getSubmitChannel().sendEvent(Event.priority, gi.getOrderPriority());
+        return ji;
+    }
+
+    /**
+     * Records the return code of a finished job and resolves the jobs
+     * depending on it. Pending jobs whose dependencies are all satisfied are
+     * moved to the queue, and the ones that cannot be satisfied anymore are
+     * removed, transitively. Called under synchronized(jobSet).
+     *
+     * @param remember whether to keep the return code for later submissions
+     * depending on this job
+     */
+    private void onJobFinished(JobInfo job, int retCode, boolean remember) throws IOException {
+        if (remember) {
+            finishedJobs.put(job.getId(), new FinishedJob(job.getSubmitChannel().getUser(), retCode));
+        }
+        // iterative, since dependency chains can be arbitrarily long
+        ArrayDeque<JobInfo> removed = new ArrayDeque<>();
+        resolveDependents(job.getId(), retCode, removed);
+        while (!removed.isEmpty()) {
+            JobInfo ji = removed.poll();
+            finishedJobs.put(ji.getId(), new FinishedJob(ji.getSubmitChannel().getUser(), RetCode.ERROR.getCode()));
+            resolveDependents(ji.getId(), RetCode.ERROR.getCode(), removed);
+        }
+    }
+
+    /**
+     * Resolves the jobs depending on a finished one, adding to
+     * {@code removed} the ones whose dependencies cannot be satisfied anymore.
+     */
+    private void resolveDependents(int id, int retCode, ArrayDeque<JobInfo> removed) throws IOException {
+        GangInfo gang = gangMembers.remove(id);
+        if (gang != null) {
+            onGangMemberFinished(gang, id, retCode);
+        }
+        List<Dependent> list = dependents.remove(id);
+        if (list == null) {
+            return;
+        }
+        for (Dependent dependent : list) {
+            JobInfo ji = jobMap.get(dependent.jobId);
+            if (ji == null || jobSet.getState(dependent.jobId) != JobSet.State.pending) {
+                continue;
+            }
+            if (dependent.condition.isSatisfiedBy(retCode)) {
+                ji.setPendingDependencies(ji.getPendingDependencies() - 1);
+                if (ji.getPendingDependencies() == 0) {
+                    jobSet.release(dependent.jobId);
+                }
+            } else {
+                LOGGER.fine("Removing job " + dependent.jobId + ". Dependency on job " + id + " cannot be satisfied");
+                ji.getSubmitChannel().sendEvent(Event.dependency_failed, id);
+                ji.getSubmitChannel().sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                ji.getSubmitChannel().close();
+                removeFromJobMap(ji);
+                jobSet.remove(dependent.jobId);
+                ji.getGroupInfo().getJobs().remove(dependent.jobId);
+                removed.add(ji);
+            }
         }
     }
 
@@ -655,7 +1949,7 @@ public class Scheduler {
                 sb.append(ANSICode.RESET.getCode());
                 sb.append(ANSICode.GREEN.getCode());
                 String[] mem = Miscellaneous.humanReadableByteCount(allocatedManagedMemory, Config.getInstance().getuICfg().issIMemoryUnits()).split(" ");
-                sb.append(StringUtils.leftPad(mem[0], 32));
+                sb.append(StringUtils.leftPad(mem[0], 37));
                 sb.append(" ");
                 sb.append(StringUtils.rightPad(mem[1], 3));
                 sb.append(" ");
@@ -698,6 +1992,8 @@ public class Scheduler {
                 sb.append(" ");
                 sb.append(StringUtils.rightPad("GROUP", 8));
                 sb.append(" ");
+                sb.append(StringUtils.leftPad("PRIO", 4));
+                sb.append(" ");
                 sb.append(StringUtils.rightPad("USER", 8));
                 sb.append(" ");
                 sb.append(StringUtils.leftPad("JOB_RSS", 10));
@@ -758,6 +2054,8 @@ public class Scheduler {
 
                         sb.append(StringUtils.rightPad(String.valueOf(gi.getGroupName()), 8));
                         sb.append(" ");
+                        sb.append(StringUtils.leftPad(String.valueOf(jobSet.getEffectivePriority(id)), 4));
+                        sb.append(" ");
 
                         sb.append(StringUtils.rightPad(ji.getSubmitChannel().getUser(), 8));
                         sb.append(" ");
@@ -824,7 +2122,7 @@ public class Scheduler {
 
                         sb.append(StringUtils.leftPad(String.format("%.1f", pi.getGaugeStats().cpuGaugeStats.getCpuPercent()), 6));
                         sb.append(" ");
-                        sb.append(Arrays.toString(ji.getSubmitChannel().getInput().getCommand()));
+                        sb.append(getCommandLabel(ji));
                         sb.append(" ");
                     } else { // process not stated yet
                         sb.append(StringUtils.leftPad(String.valueOf(id), 8));
@@ -839,6 +2137,8 @@ public class Scheduler {
                         sb.append(" ");
                         sb.append(StringUtils.rightPad(String.valueOf(gi.getGroupName()), 8));
                         sb.append(" ");
+                        sb.append(StringUtils.leftPad(String.valueOf(jobSet.getEffectivePriority(id)), 4));
+                        sb.append(" ");
                         sb.append(StringUtils.rightPad(ji.getSubmitChannel().getUser(), 8));
                         sb.append(" ");
                         String[] mem = Miscellaneous.humanReadableByteCount(ji.getSubmitChannel().getInput().getMaxRSS(), Config.getInstance().getuICfg().issIMemoryUnits()).split(" ");
@@ -862,57 +2162,18 @@ public class Scheduler {
                         sb.append(" ");
                         sb.append(StringUtils.leftPad("", 6));
                         sb.append(" ");
-                        sb.append(Arrays.toString(ji.getSubmitChannel().getInput().getCommand()));
+                        sb.append(getCommandLabel(ji));
                         sb.append(" ");
                     }
                     sb.append(ANSICode.WRAP.getCode());
                 }
                 JobSet.QueueIterator queueIterator = jobSet.getQueue();
                 while (queueIterator.hasNext()) {
-                    Integer id = queueIterator.next();
-                    JobInfo ji = jobMap.get(id);
-                    sb.append("\n");
-                    sb.append(ANSICode.NO_WRAP.getCode());
-                    sb.append(ANSICode.YELLOW.getCode());
-                    sb.append(StringUtils.leftPad(String.valueOf(id), 8));
-                    sb.append(" ");
-                    String pId;
-                    if (ji.getSubmitChannel().getInput().getParentId() != null) {
-                        pId = String.valueOf(ji.getSubmitChannel().getInput().getParentId());
-                    } else {
-                        pId = "";
-                    }
-                    sb.append(StringUtils.leftPad(pId, 8));
-                    sb.append(" ");
-                    sb.append(StringUtils.rightPad(String.valueOf(ji.getSubmitChannel().getInput().getGroupName()), 8));
-                    sb.append(" ");
-                    sb.append(StringUtils.rightPad(ji.getSubmitChannel().getUser(), 8));
-                    sb.append(" ");
-                    String[] mem = Miscellaneous.humanReadableByteCount(ji.getSubmitChannel().getInput().getMaxRSS(), Config.getInstance().getuICfg().issIMemoryUnits()).split(" ");
-                    sb.append(StringUtils.leftPad(mem[0], 6));
-                    sb.append(" ");
-                    sb.append(StringUtils.rightPad(mem[1], 3));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 4));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 10));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 10));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 12));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 10));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 10));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 12));
-                    sb.append(" ");
-                    sb.append(StringUtils.leftPad("", 6));
-                    sb.append(" ");
-                    sb.append(Arrays.toString(ji.getSubmitChannel().getInput().getCommand()));
-                    sb.append(" ");
-                    sb.append(ANSICode.RESET.getCode());
-                    sb.append(ANSICode.WRAP.getCode());
+                    appendWaitingJob(sb, jobMap.get(queueIterator.next()), ANSICode.YELLOW);
+                }
+                Iterator<Integer> pendingIterator = jobSet.getPending();
+                while (pendingIterator.hasNext()) {
+                    appendWaitingJob(sb, jobMap.get(pendingIterator.next()), ANSICode.BLUE);
                 }
             }
             if (!noHeaders) {
@@ -933,7 +2194,11 @@ public class Scheduler {
                 statSb.append(ANSICode.YELLOW);
                 statSb.append(jobSet.countQueued());
                 statSb.append(ANSICode.CYAN);
-                statSb.append(" queued");
+                statSb.append(" queued; ");
+                statSb.append(ANSICode.BLUE);
+                statSb.append(jobSet.countPending());
+                statSb.append(ANSICode.CYAN);
+                statSb.append(" pending");
                 statSb.append("\n");
                 statSb.append("  Available memory: ");
                 statSb.append(ANSICode.GREEN);
@@ -952,6 +2217,64 @@ public class Scheduler {
         return sb.toString();
     }
 
+    private void appendWaitingJob(StringBuilder sb, JobInfo ji, ANSICode color) {
+        sb.append("\n");
+        sb.append(ANSICode.NO_WRAP.getCode());
+        sb.append(color.getCode());
+        sb.append(StringUtils.leftPad(String.valueOf(ji.getId()), 8));
+        sb.append(" ");
+        String pId;
+        if (ji.getSubmitChannel().getInput().getParentId() != null) {
+            pId = String.valueOf(ji.getSubmitChannel().getInput().getParentId());
+        } else {
+            pId = "";
+        }
+        sb.append(StringUtils.leftPad(pId, 8));
+        sb.append(" ");
+        sb.append(StringUtils.rightPad(String.valueOf(ji.getSubmitChannel().getInput().getGroupName()), 8));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad(String.valueOf(jobSet.getEffectivePriority(ji.getId())), 4));
+        sb.append(" ");
+        sb.append(StringUtils.rightPad(ji.getSubmitChannel().getUser(), 8));
+        sb.append(" ");
+        String[] mem = Miscellaneous.humanReadableByteCount(ji.getSubmitChannel().getInput().getMaxRSS(), Config.getInstance().getuICfg().issIMemoryUnits()).split(" ");
+        sb.append(StringUtils.leftPad(mem[0], 6));
+        sb.append(" ");
+        sb.append(StringUtils.rightPad(mem[1], 3));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 4));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 10));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 10));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 12));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 10));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 10));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 12));
+        sb.append(" ");
+        sb.append(StringUtils.leftPad("", 6));
+        sb.append(" ");
+        sb.append(getCommandLabel(ji));
+        sb.append(" ");
+        sb.append(ANSICode.RESET.getCode());
+        sb.append(ANSICode.WRAP.getCode());
+    }
+
+    private static String getCommandLabel(JobInfo ji) {
+        String command = Arrays.toString(ji.getSubmitChannel().getInput().getCommand());
+        if (ji.getArray() != null) {
+            return "[" + ji.getArray().getId() + ":" + ji.getArrayIndex() + "] " + command;
+        } else if (ji.getArrayInfo() != null) {
+            return "[" + ji.getArrayInfo().countPendingTasks() + "/" + ji.getArrayInfo().getSize() + " tasks pending] " + command;
+        } else {
+            return command;
+        }
+    }
+
     public void listGroups(PeerChannel<GroupInput> channel) throws IOException, InterruptedException {
         try {
             if (!channel.getInput().isNoHeaders()) {
@@ -965,8 +2288,20 @@ public class Scheduler {
                 header.append(" ");
                 header.append(StringUtils.leftPad("PRIORITY", 8));
                 header.append(" ");
+                header.append(StringUtils.leftPad("WEIGHT", 6));
+                header.append(" ");
                 header.append(StringUtils.leftPad("IDLE_TIME", 9));
                 header.append(" ");
+                header.append(StringUtils.leftPad("WALLTIME", 9));
+                header.append(" ");
+                header.append(StringUtils.leftPad("CPUTIME", 9));
+                header.append(" ");
+                header.append(StringUtils.leftPad("MAX_RSS", 10));
+                header.append(" ");
+                header.append(StringUtils.leftPad("MIN_RSS", 10));
+                header.append(" ");
+                header.append(StringUtils.leftPad("MAX_JOBS", 8));
+                header.append(" ");
                 header.append(StringUtils.leftPad("JOBS", 5));
                 header.append(" STATS");
                 header.append(ANSICode.END_OF_LINE.getCode());
@@ -985,8 +2320,20 @@ public class Scheduler {
                     line.append(" ");
                     line.append(StringUtils.leftPad(String.valueOf(gi.getPriority()), 8));
                     line.append(" ");
+                    line.append(StringUtils.leftPad(String.valueOf(gi.getWeight()), 6));
+                    line.append(" ");
                     line.append(StringUtils.leftPad(String.valueOf(gi.getTimeToIdelSeconds()), 9));
                     line.append(" ");
+                    line.append(StringUtils.leftPad(String.valueOf(gi.getWallTimeLimitSeconds()), 9));
+                    line.append(" ");
+                    line.append(StringUtils.leftPad(String.valueOf(gi.getCpuTimeLimitSeconds()), 9));
+                    line.append(" ");
+                    line.append(StringUtils.leftPad(Miscellaneous.humanReadableByteCount(gi.getMaxRss(), Config.getInstance().getuICfg().issIMemoryUnits()), 10));
+                    line.append(" ");
+                    line.append(StringUtils.leftPad(Miscellaneous.humanReadableByteCount(gi.getMinRss(), Config.getInstance().getuICfg().issIMemoryUnits()), 10));
+                    line.append(" ");
+                    line.append(StringUtils.leftPad(String.valueOf(gi.getMaxJobs()), 8));
+                    line.append(" ");
                     line.append(StringUtils.leftPad(String.valueOf(gi.getJobs().size()), 5));
                     line.append(" ");
                     if (gi.getStatsLogger() != null) {
@@ -1004,16 +2351,23 @@ public class Scheduler {
 
     public void listJobs(PeerChannel<ListJobsInput> channel) throws IOException, InterruptedException {
         try {
-            if (channel.getInput().isNoHeaders()) {
-                long allocatedManagedMemory = getAllocatedManagedMemory();
-                long availableManagedMemory = getAvailableManagedMemory(allocatedManagedMemory);
-                PeerChannel.println(channel.getStdoutOs(), createJobList(true, availableManagedMemory, allocatedManagedMemory, getStats()));
-            } else if (!closed) {
-                PeerChannel.println(channel.getStdoutOs(), jobList);
+            boolean noHeaders = channel.getInput().isNoHeaders();
+            byte[] list;
+            if (!closed) {
+                list = getJobList(noHeaders);
             } else {
                 long allocatedManagedMemory = getAllocatedManagedMemory();
                 long availableManagedMemory = getAvailableManagedMemory(allocatedManagedMemory);
-                PeerChannel.println(channel.getStdoutOs(), createJobList(false, availableManagedMemory, allocatedManagedMemory, getStats()));
+                list = createJobList(noHeaders, availableManagedMemory, allocatedManagedMemory, getStats()).getBytes(StandardCharsets.UTF_8);
+            }
+            // sent in frames as it is written, without holding any lock
+            OutputStream os = channel.getStdoutOs();
+            try {
+                os.write(list);
+                os.write('\n');
+                os.flush();
+            } catch (IOException ex) {
+                // Peer closed
             }
         } finally {
             channel.sendEvent(Event.retcode, 0);
@@ -1021,6 +2375,22 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Returns the job list of the last stats pass. Each format is rendered
+     * once, the first time it is requested, and reused until the next pass
+     * publishes a new snapshot.
+     */
+    private byte[] getJobList(boolean noHeaders) {
+        JobListSnapshot snapshot = jobListSnapshot;
+        int format = noHeaders ? 1 : 0;
+        synchronized (snapshot) {
+            if (snapshot.rendered[format] == null) {
+                snapshot.rendered[format] = createJobList(noHeaders, snapshot.availableManagedMemory, snapshot.allocatedManagedMemory, snapshot.stats).getBytes(StandardCharsets.UTF_8);
+            }
+            return snapshot.rendered[format];
+        }
+    }
+
     private static Logger createStatsLogger(File folder) {
         try {
             Logger logger = Logger.getAnonymousLogger();
@@ -1076,10 +2446,13 @@ public class Scheduler {
             int id = cancelChannel.getInput().getId();
             synchronized (jobSet) {
                 JobSet.State state = jobSet.getState(id);
-                if (state == null) {
+                JobInfo array = jobMap.get(id);
+                if (array != null && array.getArrayInfo() != null) {
+                    cancelArray(array, cancelChannel);
+                } else if (state == null) {
                     cancelChannel.sendMessage(ANSICode.RED, "Job not found");
                     cancelChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
-                } else if (state == JobSet.State.queued) {
+                } else if (state == JobSet.State.queued || state == JobSet.State.pending) {
                     JobInfo ji = jobMap.get(id);
                     if (ji != null) {
                         if (!cancelChannel.getUser().equals("root") && !cancelChannel.getUser().equals(ji.getSubmitChannel().getUser())) {
@@ -1094,8 +2467,9 @@ public class Scheduler {
                         cancelChannel.sendEvent(Event.retcode, 0);
                         GroupInfo gi = groupMap.get(ji.getSubmitChannel().getInput().getGroupName());
                         gi.getJobs().remove(id);
-                        jobSet.remove(id);
                         removeFromJobMap(ji);
+                        jobSet.remove(id);
+                        onJobFinished(ji, RetCode.CANCELLED.getCode(), true);
                         LOGGER.fine("Cancelled job " + id + " by user '" + cancelChannel.getUser() + "'");
                     } else {
                         throw new AssertionError();
@@ -1122,26 +2496,105 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Cancels the pending tasks of the job array and kills the running ones.
+     * Called under synchronized(jobSet).
+     */
+    private void cancelArray(JobInfo array, PeerChannel<CancelInput> cancelChannel) throws IOException, InterruptedException {
+        if (!cancelChannel.getUser().equals("root") && !cancelChannel.getUser().equals(array.getSubmitChannel().getUser())) {
+            cancelChannel.sendMessage(ANSICode.RED, "User '" + cancelChannel.getUser() + "' is not allowed to cancel a job from user '" + array.getSubmitChannel().getUser() + "'");
+            cancelChannel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+            return;
+        }
+        ArrayInfo ai = array.getArrayInfo();
+        array.getSubmitChannel().sendEvent(Event.cancelled, cancelChannel.getUser());
+        ai.cancel();
+        JobSet.State state = jobSet.getState(array.getId());
+        if (state == JobSet.State.queued || state == JobSet.State.pending) {
+            jobSet.remove(array.getId());
+            array.getGroupInfo().getJobs().remove(array.getId());
+            changeQueuedChildren(array.getSubmitChannel().getInput().getParentId(), false);
+        }
+        if (ai.getRunningTasks().isEmpty()) {
+            forgetJob(array);
+            array.getSubmitChannel().sendEvent(Event.retcode, RetCode.CANCELLED.getCode());
+            array.getSubmitChannel().close();
+            onJobFinished(array, RetCode.CANCELLED.getCode(), true);
+        } else {
+            // the array completes when its last running task finishes
+            for (Integer taskId : ai.getRunningTasks()) {
+                ProcessInfo pi = processMap.get(taskId);
+                if (pi != null) {
+                    LinuxCommands.killTree(pi.getPid());
+                }
+            }
+        }
+        cancelChannel.sendMessage(ANSICode.GREEN, "Job array sucessfully cancelled");
+        cancelChannel.sendEvent(Event.retcode, 0);
+        LOGGER.fine("Cancelled job array " + array.getId() + " by user '" + cancelChannel.getUser() + "'");
+        onStateChanged();
+    }
+
     public void updateGroup(PeerChannel<GroupInput> channel) throws IOException {
         try {
             if (closed) {
                 throw new IllegalStateException("Instance is closed");
             }
+            if (channel.getInput().getWeight() != null && !isValidWeight(channel.getInput().getWeight())) {
+                channel.sendMessage(ANSICode.RED, "Invalid weight " + channel.getInput().getWeight() + ". Must be between 1 and " + MAX_WEIGHT);
+                channel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                return;
+            }
             synchronized (jobSet) {
                 GroupInfo gi = groupMap.get(channel.getInput().getGroupName());
                 if (gi == null) {
-                    createGroup(channel.getInput().getGroupName(), channel.getUser(), channel.getInput().getPriority(), channel.getInput().getTimetoIdleSeconds(), channel.getInput().getStatsDirectory());
+                    if (!isValidGroupName(channel.getInput().getGroupName())) {
+                        channel.sendMessage(ANSICode.RED, "Invalid group name '" + channel.getInput().getGroupName() + "'");
+                        channel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                        return;
+                    }
+                    if (!channel.getUser().equals("root") && (channel.getInput().getMaxRss() != null || channel.getInput().getMaxJobs() != null || channel.getInput().getMinRss() != null)) {
+                        channel.sendMessage(ANSICode.RED, "Groups with quotas can only be created by user 'root'");
+                        channel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                        return;
+                    }
+                    gi = createGroup(channel.getInput().getGroupName(), channel.getUser(), channel.getInput().getPriority(), channel.getInput().getTimetoIdleSeconds(), channel.getInput().getStatsDirectory());
+                    if (channel.getInput().getWeight() != null) {
+                        setWeight(gi, channel.getInput().getWeight());
+                    }
+                    if (channel.getInput().getWallTimeLimitSeconds() != null) {
+                        gi.setWallTimeLimitSeconds(channel.getInput().getWallTimeLimitSeconds());
+                    }
+                    if (channel.getInput().getCpuTimeLimitSeconds() != null) {
+                        gi.setCpuTimeLimitSeconds(channel.getInput().getCpuTimeLimitSeconds());
+                    }
+                    if (channel.getInput().getMaxRss() != null) {
+                        gi.setMaxRss(channel.getInput().getMaxRss());
+                    }
+                    if (channel.getInput().getMaxJobs() != null) {
+                        gi.setMaxJobs(channel.getInput().getMaxJobs());
+                    }
+                    if (channel.getInput().getMinRss() != null) {
+                        gi.setMinRss(channel.getInput().getMinRss());
+                    }
                     channel.sendMessage(ANSICode.GREEN, "Group '" + channel.getInput().getGroupName() + "' created successfully");
                     channel.sendEvent(Event.retcode, 0);
                     LOGGER.fine("Group '" + channel.getInput().getGroupName() + "' created  by user '" + channel.getUser() + "'");
                     return;
-                } else if (channel.getInput().isDelete()) {
-                    if (!channel.getUser().equals("root") && !channel.getUser().equals(gi.getUser())) {
-                        if (gi.getUser().equals("root")) {
-                            channel.sendMessage(ANSICode.RED, "Group '" + channel.getInput().getGroupName() + "' can only be updated by user 'root'");
-                        } else {
-                            channel.sendMessage(ANSICode.RED, "Group '" + channel.getInput().getGroupName() + "' can only be updated by users 'root' and '" + gi.getUser() + "'");
-                        }
+                }
+                boolean root = channel.getUser().equals("root");
+                if (!root && !channel.getUser().equals(gi.getUser())) {
+                    if (gi.getUser().equals("root")) {
+                        channel.sendMessage(ANSICode.RED, "Group '" + channel.getInput().getGroupName() + "' can only be updated by user 'root'");
+                    } else {
+                        channel.sendMessage(ANSICode.RED, "Group '" + channel.getInput().getGroupName() + "' can only be updated by users 'root' and '" + gi.getUser() + "'");
+                    }
+                    channel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                    return;
+                }
+                if (channel.getInput().isDelete()) {
+                    if (!gi.getChildren().isEmpty()) {
+                        channel.sendMessage(ANSICode.RED, "Group '" + channel.getInput().getGroupName() + "' cannot be deleted, since it contains " + gi.getChildren().size() + " subgroups");
                         channel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
                         return;
                     }
@@ -1157,25 +2610,62 @@ public class Scheduler {
                         return;
                     }
                 }
-                Integer newPriority = channel.getInput().getPriority();
-                if (newPriority != null && newPriority != gi.getPriority()) {
-                    synchronized (gi.getJobs()) {
-                        for (Integer id : gi.getJobs()) {
-                            jobSet.setPriority(id, newPriority, gi.getGroupId());
-                            JobInfo ji = jobMap.get(id);
-                            ji.getSubmitChannel().sendEvent(Event.priority, newPriority);
-                        }
+                Long newMaxRss = channel.getInput().getMaxRss();
+                Integer newMaxJobs = channel.getInput().getMaxJobs();
+                Long newMinRss = channel.getInput().getMinRss();
+                if (!root) {
+                    // owners can only make their group more limited
+                    if (newMinRss != null && newMinRss != gi.getMinRss() || newMaxRss != null && !isTighterQuota(newMaxRss, gi.getMaxRss()) || newMaxJobs != null && !isTighterQuota(newMaxJobs, gi.getMaxJobs())) {
+                        channel.sendMessage(ANSICode.RED, "Group guarantees and quota increases can only be set by user 'root'");
+                        channel.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                        return;
                     }
+                }
+                Integer newPriority = channel.getInput().getPriority();
+                if (newPriority != null && newPriority != gi.getPriority()) {
                     gi.setPriority(newPriority);
+                    updateGroupOrder();
                     channel.sendMessage(ANSICode.GREEN, "Group '" + channel.getInput().getGroupName() + "' priority updated successfully");
                     LOGGER.fine("Group '" + channel.getInput().getGroupName() + "' priority updated by user '" + channel.getUser() + "'");
                 }
+                Integer newWeight = channel.getInput().getWeight();
+                if (newWeight != null && newWeight != gi.getWeight()) {
+                    setWeight(gi, newWeight);
+                    updateGroupOrder();
+                    channel.sendMessage(ANSICode.GREEN, "Group '" + channel.getInput().getGroupName() + "' weight updated successfully");
+                    LOGGER.fine("Group '" + channel.getInput().getGroupName() + "' weight updated by user '" + channel.getUser() + "'");
+                }
                 Integer newTimetoIdleSeconds = channel.getInput().getTimetoIdleSeconds();
                 if (newTimetoIdleSeconds != null && newTimetoIdleSeconds != gi.getTimeToIdelSeconds()) {
                     gi.setTimeToIdelSeconds(newTimetoIdleSeconds);
                     channel.sendMessage(ANSICode.GREEN, "Group '" + channel.getInput().getGroupName() + "' time-to-idle updated successfully");
                     LOGGER.fine("Group '" + channel.getInput().getGroupName() + "' time-to-idle updated by user '" + channel.getUser() + "'");
                 }
+                Integer newWallTimeLimitSeconds = channel.getInput().getWallTimeLimitSeconds();
+                if (newWallTimeLimitSeconds != null && newWallTimeLimitSeconds != gi.getWallTimeLimitSeconds()) {
+                    gi.setWallTimeLimitSeconds(newWallTimeLimitSeconds);
+                    channel.sendMessage(ANSICode.GREEN, "Group '" + channel.getInput().getGroupName() + "' wall time limit updated successfully");
+                    LOGGER.fine("Group '" + channel.getInput().getGroupName() + "' wall time limit updated by user '" + channel.getUser() + "'");
+                }
+                Integer newCpuTimeLimitSeconds = channel.getInput().getCpuTimeLimitSeconds();
+                if (newCpuTimeLimitSeconds != null && newCpuTimeLimitSeconds != gi.getCpuTimeLimitSeconds()) {
+                    gi.setCpuTimeLimitSeconds(newCpuTimeLimitSeconds);
+                    channel.sendMessage(ANSICode.GREEN, "Group '" + channel.getInput().getGroupName() + "' CPU time limit updated successfully");
+                    LOGGER.fine("Group '" + channel.getInput().getGroupName() + "' CPU time limit updated by user '" + channel.getUser() + "'");
+                }
+                if (newMaxRss != null && newMaxRss != gi.getMaxRss() || newMaxJobs != null && newMaxJobs != gi.getMaxJobs() || newMinRss != null && newMinRss != gi.getMinRss()) {
+                    if (newMaxRss != null) {
+                        gi.setMaxRss(newMaxRss);
+                    }
+                    if (newMaxJobs != null) {
+                        gi.setMaxJobs(newMaxJobs);
+                    }
+                    if (newMinRss != null) {
+                        gi.setMinRss(newMinRss);
+                    }
+                    channel.sendMessage(ANSICode.GREEN, "Group '" + channel.getInput().getGroupName() + "' quotas updated successfully");
+                    LOGGER.fine("Group '" + channel.getInput().getGroupName() + "' quotas updated by user '" + channel.getUser() + "'");
+                }
 
                 channel.sendEvent(Event.retcode, 0);
             }
@@ -1184,13 +2674,56 @@ public class Scheduler {
         }
     }
 
-    private void removeFromJobMap(JobInfo jobInfo) {
+    /**
+     * Whether a new quota value keeps the group at least as limited as the
+     * current one ({@code 0} meaning no limit).
+     */
+    private static boolean isTighterQuota(long newValue, long current) {
+        return newValue > 0 && (current == 0 || newValue <= current);
+    }
+
+    /**
+     * Adds the job to the job map, indexing it by the connection of its
+     * client.
+     */
+    private void putInJobMap(JobInfo jobInfo) {
+        jobMap.put(jobInfo.getId(), jobInfo);
+        PeerConnection connection = jobInfo.getSubmitChannel().getConnection();
+        Set<Integer> ids = peerJobs.get(connection);
+        if (ids == null) {
+            ids = new HashSet<>();
+            peerJobs.put(connection, ids);
+        }
+        ids.add(jobInfo.getId());
+        if (!jobInfo.getSubmitChannel().isPeerAlive()) {
+            // the client left before the job was indexed
+            onPeerClosed(connection);
+        }
+    }
+
+    private void forgetJob(JobInfo jobInfo) {
         jobMap.remove(jobInfo.getId());
+        PeerConnection connection = jobInfo.getSubmitChannel().getConnection();
+        Set<Integer> ids = peerJobs.get(connection);
+        if (ids != null && ids.remove(jobInfo.getId()) && ids.isEmpty()) {
+            peerJobs.remove(connection);
+        }
+    }
+
+    private void removeFromJobMap(JobInfo jobInfo) {
+        forgetJob(jobInfo);
+        if (jobInfo.getDeadlineTimeout() != null) {
+            jobInfo.getDeadlineTimeout().cancel();
+        }
         JobSet.State state = jobSet.getState(jobInfo.getId());
-        if (state == JobSet.State.queued) {
+        if (state == JobSet.State.queued || state == JobSet.State.pending) {
             changeQueuedChildren(jobInfo.getSubmitChannel().getInput().getParentId(), false);
         } else {
             changeRunningChildren(jobInfo.getSubmitChannel().getInput().getParentId(), false);
+            JobInfo owner = jobInfo.getBudgetOwner();
+            if (owner != null) {
+                owner.setBudgetUsed(owner.getBudgetUsed() - getClaimedRss(jobInfo.getSubmitChannel().getInput()));
+            }
         }
     }
 
@@ -1216,6 +2749,18 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Path of an output file target, with {@code %a} replaced by the index of
+     * the task for job arrays.
+     */
+    private static String getOutputTarget(File file, JobInfo ji) {
+        String path = file.getPath();
+        if (ji.getArray() != null) {
+            path = path.replace("%a", String.valueOf(ji.getArrayIndex()));
+        }
+        return path;
+    }
+
     private void execute(final int id, final JobInfo ji) {
         if (ji == null) {
             throw new IllegalArgumentException("Id is required");
@@ -1225,7 +2770,36 @@ public class Scheduler {
             @Override
             public void run() {
                 String[] cmd = ji.getSubmitChannel().getInput().getCommand();
-                cmd = LinuxCommands.decorateRunAsCommand(cmd, ji.getSubmitChannel().getUser());
+                ExtendedSubmitInput input = ji.getSubmitChannel().getInput();
+                // Streams opened by the job shell. Null ones are forwarded through the peer channel
+                String fdPath = "/proc/" + input.getClientPid() + "/fd/";
+                String stdin = null;
+                String stdout = null;
+                String stderr = null;
+                if (input.isAttachedStdio()) {
+                    if (input.getEnvironment() != null && input.getEnvironment().containsKey(EnvEntry.STDIN_TTY.name())) {
+                        stdin = "/dev/null";
+                    } else {
+                        stdin = fdPath + 0;
+                    }
+                    stdout = fdPath + 1;
+                    stderr = fdPath + 2;
+                }
+                if (ji.getArray() != null) {
+                    // tasks share the array channel, none of them gets its stdin
+                    stdin = "/dev/null";
+                }
+                boolean appendStdout = true;
+                boolean appendStderr = true;
+                if (input.getStdoutFile() != null) {
+                    stdout = getOutputTarget(input.getStdoutFile(), ji);
+                    appendStdout = input.isAppendOutput();
+                }
+                if (input.getStderrFile() != null) {
+                    stderr = getOutputTarget(input.getStderrFile(), ji);
+                    appendStderr = input.isAppendOutput();
+                }
+                cmd = LinuxCommands.decorateRunAsCommand(cmd, ji.getSubmitChannel().getUser(), stdin, stdout, appendStdout, stderr, appendStderr);
                 cmd = LinuxCommands.decorateWithCPUAffinity(cmd, Config.getInstance().getProcessCfg().getCpuAfinity());
                 cmd = LinuxCommands.decorateWithBatchSchedulerPolicy(cmd);
                 cmd = LinuxCommands.decorateRunInCgroup(cmd, ji.getSubmitChannel().getInput().getGroupName(), id);
@@ -1235,7 +2809,19 @@ public class Scheduler {
                 if (ji.getSubmitChannel().getInput().getEnvironment() != null) {
                     pb.environment().putAll(ji.getSubmitChannel().getInput().getEnvironment());
                 }
+                if (stdin != null) {
+                    pb.redirectInput(new File("/dev/null"));
+                }
+                if (stdout != null) {
+                    pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+                }
+                if (stderr != null) {
+                    pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+                }
                 pb.environment().put(EnvEntry.WAVA_JOB_ID.name(), String.valueOf(id));
+                if (ji.getArray() != null) {
+                    pb.environment().put(EnvEntry.WAVA_ARRAY_INDEX.name(), String.valueOf(ji.getArrayIndex()));
+                }
                 ProcessInfo pi = null;
                 Thread isThread = null;
                 Process process;
@@ -1245,24 +2831,43 @@ public class Scheduler {
                         synchronized (jobSet) {
                             if (closed) {
                                 ji.getSubmitChannel().sendEvent(Event.shutdown, runningUser);
-                                ji.getSubmitChannel().sendEvent(Event.retcode, RetCode.CANCELLED.getCode());
+                                sendRetCode(ji, RetCode.CANCELLED.getCode());
+                                return;
+                            }
+                            if (ji.getArray() != null && ji.getArray().getArrayInfo().isCancelled()) {
+                                sendRetCode(ji, RetCode.CANCELLED.getCode());
                                 return;
                             }
                             process = pb.start();
-                            isThread = Miscellaneous.pipeAsynchronously(ji.getSubmitChannel().getStdinIs(), (ErrorHandler) null, true, process.getOutputStream());
+                            if (stdin == null) {
+                                isThread = Miscellaneous.pipeAsynchronously(ji.getSubmitChannel().getStdinIs(), (ErrorHandler) null, true, process.getOutputStream());
+                            }
                             pId = Miscellaneous.getUnixId(process);
                             LOGGER.fine("Running job " + ji.getId() + " with pId " + pId);
 
                             Logger statsLogger;
                             if (ji.getSubmitChannel().getInput().getStatsDirectory() != null) {
-                                statsLogger = createStatsLogger(ji.getSubmitChannel().getInput().getStatsDirectory());
+                                File statsDirectory = ji.getSubmitChannel().getInput().getStatsDirectory();
+                                if (ji.getArray() != null) {
+                                    statsDirectory = new File(statsDirectory, String.valueOf(ji.getArrayIndex()));
+                                }
+                                statsLogger = createStatsLogger(statsDirectory);
                                 writeJobStatsFileHeader(statsLogger);
                             } else {
                                 statsLogger = null;
                             }
                             pi = new ProcessInfo(ji, pId, statsLogger);
-                            ji.getSubmitChannel().sendEvent(Event.running, pId);
+                            if (ji.getArray() == null) {
+                                ji.getSubmitChannel().sendEvent(Event.running, pId);
+                            } else {
+                                ji.getSubmitChannel().sendEvent(Event.task_running, ji.getArrayIndex());
+                            }
                             processMap.put(ji.getId(), pi);
+                            GangInfo gang = gangMembers.get(ji.getId());
+                            if (gang != null && gang.isFailed()) {
+                                LinuxCommands.killTree(pi.getPid());
+                            }
+                            scheduleWallTimeLimit(pi);
                             int[] positions = getRunningPosition(pi);
                             if (positions == null) {
                                 throw new AssertionError();
@@ -1275,22 +2880,33 @@ public class Scheduler {
                         }
                     } catch (Exception ex) {
                         ji.getSubmitChannel().sendEvent(Event.error, JsonCodec.getInstance().transform(Miscellaneous.getStrackTrace(ex)));
-                        ji.getSubmitChannel().sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                        sendRetCode(ji, RetCode.ERROR.getCode());
                         return;
+                    } finally {
+                        launchGovernor.release();
+                    }
+                    Thread stoutReaderThread = null;
+                    Thread sterrReaderThread = null;
+                    if (stdout == null) {
+                        stoutReaderThread = Miscellaneous.pipeAsynchronously(process.getInputStream(), (ErrorHandler) null, true, ji.getSubmitChannel().getStdoutOs());
+                        stoutReaderThread.setName("stdout-pid-" + pId);
+                    }
+                    if (stderr == null) {
+                        sterrReaderThread = Miscellaneous.pipeAsynchronously(process.getErrorStream(), (ErrorHandler) null, true, ji.getSubmitChannel().getStderrOs());
+                        sterrReaderThread.setName("stderr-pid-" + pId);
                     }
-                    Thread stoutReaderThread = Miscellaneous.pipeAsynchronously(process.getInputStream(), (ErrorHandler) null, true, ji.getSubmitChannel().getStdoutOs());
-                    stoutReaderThread.setName("stdout-pid-" + pId);
-                    Thread sterrReaderThread = Miscellaneous.pipeAsynchronously(process.getErrorStream(), (ErrorHandler) null, true, ji.getSubmitChannel().getStderrOs());
-                    sterrReaderThread.setName("stderr-pid-" + pId);
                     try {
                         int code = process.waitFor();
-                        isThread.interrupt();
+                        if (ji.getArray() == null) {
+                            // closed with the array channel, once its last task finishes
+                            ji.getSubmitChannel().closeStdin();
+                        }
                         if (!ji.isRelaunched()) {
-                            if (pi.getMaxGaugeStats() != null) {
+                            if (pi.getMaxGaugeStats() != null && ji.getArray() == null) {
                                 ji.getSubmitChannel().sendEvent(Event.maxrss, pi.getMaxGaugeStats().memStats.rssBytes);
                                 ji.getSubmitChannel().sendEvent(Event.maxswap, pi.getMaxGaugeStats().memStats.swapBytes);
                             }
-                            ji.getSubmitChannel().sendEvent(Event.retcode, code);
+                            sendRetCode(ji, code);
                             closeLogger(pi.getStatsLogger());
                         }
                     } catch (InterruptedException ex) {
@@ -1301,9 +2917,15 @@ public class Scheduler {
                         }
                     } finally {
                         try {
-                            stoutReaderThread.join();
-                            sterrReaderThread.join();
-                            isThread.join();
+                            if (stoutReaderThread != null) {
+                                stoutReaderThread.join();
+                            }
+                            if (sterrReaderThread != null) {
+                                sterrReaderThread.join();
+                            }
+                            if (isThread != null) {
+                                isThread.join();
+                            }
                         } catch (Throwable th) {
                             LOGGER.log(Level.SEVERE, th.getMessage(), th);
                         }
@@ -1311,6 +2933,9 @@ public class Scheduler {
                 } finally {
                     try {
                         synchronized (jobSet) {
+                            if (pi != null) {
+                                pi.cancelLimitTimeout();
+                            }
                             removeFromJobMap(ji);
                             jobSet.remove(id);
                             processMap.remove(id);
@@ -1320,34 +2945,34 @@ public class Scheduler {
                                 if (gi.getTimeToIdelSeconds() == 0) {
                                     deleteGroup(gi.getGroupName());
                                 } else if (gi.getTimeToIdelSeconds() > 0 && !ji.isRelaunched()) {
-                                    Thread t = new Thread(coreGroup, "group-" + gi.getGroupName() + " idle thread") {
-                                        @Override
-                                        public void run() {
-                                            try {
-                                                Thread.sleep(1000 * gi.getTimeToIdelSeconds());
-                                                synchronized (jobSet) {
-                                                    if (gi.getJobs().isEmpty()) {
-                                                        deleteGroup(gi.getGroupName());
-
-                                                    }
-                                                }
-                                            } catch (Throwable th) {
-                                                if (th instanceof InterruptedException) {
-                                                    return;
-                                                }
-                                                LOGGER.log(Level.SEVERE, th.getMessage(), th);
-                                            }
-                                        }
-                                    };
-                                    t.setDaemon(true);
-                                    t.start();
+                                    scheduleIdleExpiration(gi);
                                 }
                             }
-                            if (ji.isRelaunched()) {
-                                submit(ji.getSubmitChannel());
+                            if (ji.getArray() != null) {
+                                if (ji.isRelaunched()) {
+                                    relaunchArrayTask(ji);
+                                } else {
+                                    finishArrayTask(ji, pi != null ? pi.getMaxGaugeStats() : null);
+                                }
+                            } else if (ji.isRelaunched()) {
+                                JobInfo relaunchedJob = enqueue(ji.getSubmitChannel(), true);
+                                if (relaunchedJob != null) {
+                                    List<Dependent> list = dependents.remove(ji.getId());
+                                    if (list != null) {
+                                        dependents.put(relaunchedJob.getId(), list);
+                                    }
+                                } else {
+                                    onJobFinished(ji, RetCode.ERROR.getCode(), true);
+                                }
                             } else {
                                 LOGGER.fine("Closing channel of job " + ji.getId());
                                 ji.getSubmitChannel().close();
+                                int retCode = ji.getRetCode() != null ? ji.getRetCode() : RetCode.ERROR.getCode();
+                                if (pi != null && retCode == 0) {
+                                    recordRuntime(ji.getSubmitChannel().getUser(), ji.getSubmitChannel().getInput(), System.currentTimeMillis() - pi.getStartTime());
+                                }
+                                recordDeadline(ji, retCode);
+                                onJobFinished(ji, retCode, true);
                             }
                             onStateChanged();
                         }
@@ -1371,19 +2996,25 @@ public class Scheduler {
 
         channel.sendMessage(ANSICode.GREEN, "Stopping scheduler process ...");
 
-        this.cleaningThread.interrupt();
         this.statsThread.interrupt();
 
         synchronized (jobSet) {
             this.closed = true;
             this.coreGroup.interrupt();
 
+            List<Integer> waitingIds = new ArrayList<>();
             Iterator<Integer> it = jobSet.getQueue();
             while (it.hasNext()) {
-                Integer id = it.next();
+                waitingIds.add(it.next());
+            }
+            it = jobSet.getPending();
+            while (it.hasNext()) {
+                waitingIds.add(it.next());
+            }
+            for (Integer id : waitingIds) {
                 JobInfo ji = jobMap.get(id);
-                it.remove();
                 removeFromJobMap(ji);
+                jobSet.remove(id);
                 GroupInfo gi = ji.getGroupInfo();
                 gi.getJobs().remove(id);
                 try {
@@ -1427,6 +3058,8 @@ public class Scheduler {
 
         private final String groupName;
         private final int groupId;
+        private final GroupInfo parent;
+        private final Set<GroupInfo> children = new HashSet<>();
         private final String user;
         private final Set<Integer> jobs = Collections.synchronizedNavigableSet(new TreeSet<Integer>());
         private final File statsDirectory;
@@ -1435,12 +3068,27 @@ public class Scheduler {
         private StatRecord currentStatRecord;
 
         private int timeToIdelSeconds;
+        private int wallTimeLimitSeconds;
+        private int cpuTimeLimitSeconds;
+        private long maxRss;
+        private int maxJobs;
+        private long minRss;
+        private long runningRss;
+        private long rankedRss;
+        private int runningJobs;
+        private TimerWheel.Timeout idleTimeout;
+        private int deadlineJobs;
+        private int deadlineHits;
 
         private int priority;
+        private int weight = 1;
+        private int orderPriority;
+        private int rank = -1;
 
-        public GroupInfo(String groupName, String user, int timeToIdelSeconds, File statsDirectory) {
+        public GroupInfo(String groupName, GroupInfo parent, String user, int timeToIdelSeconds, File statsDirectory) {
             this.groupName = groupName;
             this.groupId = groupCounter.incrementAndGet();
+            this.parent = parent;
             this.user = user;
             this.timeToIdelSeconds = timeToIdelSeconds;
             this.statsDirectory = statsDirectory;
@@ -1468,6 +3116,50 @@ public class Scheduler {
             return groupId;
         }
 
+        public GroupInfo getParent() {
+            return parent;
+        }
+
+        public Set<GroupInfo> getChildren() {
+            return children;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * Priority used for ordering the jobs of the group, the one of its
+         * top-level ancestor.
+         */
+        public int getOrderPriority() {
+            return orderPriority;
+        }
+
+        /**
+         * Position of the group in the top-down order of the hierarchy.
+         */
+        public int getRank() {
+            return rank;
+        }
+
+        public void setOrder(int orderPriority, int rank) {
+            this.orderPriority = orderPriority;
+            this.rank = rank;
+        }
+
+        public long getSubtreeRunningRss() {
+            long ret = runningRss;
+            for (GroupInfo child : children) {
+                ret += child.getSubtreeRunningRss();
+            }
+            return ret;
+        }
+
         public String getUser() {
             return user;
         }
@@ -1480,6 +3172,130 @@ public class Scheduler {
             this.timeToIdelSeconds = timeToIdelSeconds;
         }
 
+        public int getWallTimeLimitSeconds() {
+            return wallTimeLimitSeconds;
+        }
+
+        public void setWallTimeLimitSeconds(int wallTimeLimitSeconds) {
+            this.wallTimeLimitSeconds = wallTimeLimitSeconds;
+        }
+
+        public int getCpuTimeLimitSeconds() {
+            return cpuTimeLimitSeconds;
+        }
+
+        public void setCpuTimeLimitSeconds(int cpuTimeLimitSeconds) {
+            this.cpuTimeLimitSeconds = cpuTimeLimitSeconds;
+        }
+
+        public long getMaxRss() {
+            return maxRss;
+        }
+
+        public void setMaxRss(long maxRss) {
+            this.maxRss = maxRss;
+        }
+
+        public int getMaxJobs() {
+            return maxJobs;
+        }
+
+        public void setMaxJobs(int maxJobs) {
+            this.maxJobs = maxJobs;
+        }
+
+        public long getMinRss() {
+            return minRss;
+        }
+
+        public void setMinRss(long minRss) {
+            this.minRss = minRss;
+        }
+
+        public void resetUsage() {
+            this.runningRss = 0;
+            this.runningJobs = 0;
+        }
+
+        /**
+         * Records the usage the group is being ranked with.
+         */
+        public void setRankedUsage() {
+            this.rankedRss = runningRss;
+        }
+
+        /**
+         * Whether the usage of the group changed since it was last ranked.
+         */
+        public boolean isUsageChanged() {
+            return runningRss != rankedRss;
+        }
+
+        /**
+         * Accounts a running job.
+         *
+         * @return the decrease of the guarantee shortfall of the group
+         */
+        public long addUsage(long rss) {
+            long shortfall = getGuaranteeShortfall();
+            this.runningRss += rss;
+            this.runningJobs++;
+            return shortfall - getGuaranteeShortfall();
+        }
+
+        /**
+         * Whether starting a job claiming the specified memory would exceed
+         * the group quotas.
+         */
+        public boolean isCapped(long claimedRss) {
+            return isCapped(claimedRss, 1);
+        }
+
+        /**
+         * Whether starting several jobs claiming the specified total memory
+         * would exceed the group quotas.
+         */
+        public boolean isCapped(long claimedRss, int jobCount) {
+            if (maxJobs > 0 && runningJobs + jobCount > maxJobs) {
+                return true;
+            }
+            return maxRss > 0 && runningRss + claimedRss > maxRss;
+        }
+
+        /**
+         * Part of the guaranteed memory not in use by the group, if it has
+         * waiting jobs.
+         */
+        public long getGuaranteeShortfall() {
+            if (minRss <= runningRss || jobs.size() <= runningJobs) {
+                return 0;
+            }
+            return minRss - runningRss;
+        }
+
+        public int getDeadlineJobs() {
+            return deadlineJobs;
+        }
+
+        public int getDeadlineHits() {
+            return deadlineHits;
+        }
+
+        public void recordDeadline(boolean hit) {
+            deadlineJobs++;
+            if (hit) {
+                deadlineHits++;
+            }
+        }
+
+        public TimerWheel.Timeout getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(TimerWheel.Timeout idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
         public int getPriority() {
             return priority;
         }
@@ -1521,7 +3337,7 @@ public class Scheduler {
             if (o == null) {
                 return 1;
             }
-            int ret = Integer.compare(priority, o.getPriority());
+            int ret = Integer.compare(rank, o.getRank());
             if (ret == 0) {
                 ret = Integer.compare(groupId, o.getGroupId());
             }
@@ -1534,16 +3350,69 @@ public class Scheduler {
         private final int id;
         private final PeerChannel<ExtendedSubmitInput> submitChannel;
         private final GroupInfo groupInfo;
+        private final ArrayInfo arrayInfo;
+        private final JobInfo array;
+        private final int arrayIndex;
 
         private int previousQueuePosition;
         private volatile int queuedChildCount;
         private volatile int runningChildCount;
         private volatile boolean relaunched;
-
-        public JobInfo(int id, GroupInfo groupInfo, PeerChannel<ExtendedSubmitInput> submitChannel) throws IOException, InterruptedException {
+        private volatile boolean preempted;
+        private boolean deadlineInfeasible;
+        private TimerWheel.Timeout deadlineTimeout;
+        private JobInfo budgetOwner;
+        private long budgetUsed;
+        private volatile Integer retCode;
+        private int pendingDependencies;
+
+        public JobInfo(int id, GroupInfo groupInfo, PeerChannel<ExtendedSubmitInput> submitChannel) {
+            this(id, groupInfo, submitChannel, null, -1);
+        }
+
+        /**
+         * @param array job array this task belongs to, {@code null} if not a
+         * task
+         */
+        public JobInfo(int id, GroupInfo groupInfo, PeerChannel<ExtendedSubmitInput> submitChannel, JobInfo array, int arrayIndex) {
             this.id = id;
             this.groupInfo = groupInfo;
             this.submitChannel = submitChannel;
+            this.array = array;
+            this.arrayIndex = arrayIndex;
+            if (array == null && submitChannel.getInput().getArraySize() > 0) {
+                this.arrayInfo = new ArrayInfo(submitChannel.getInput().getArraySize());
+            } else {
+                this.arrayInfo = null;
+            }
+        }
+
+        /**
+         * @return the array info if this job is a job array, {@code null}
+         * otherwise
+         */
+        public ArrayInfo getArrayInfo() {
+            return arrayInfo;
+        }
+
+        /**
+         * @return the job array this task belongs to, {@code null} if this
+         * job is not an array task
+         */
+        public JobInfo getArray() {
+            return array;
+        }
+
+        public int getArrayIndex() {
+            return arrayIndex;
+        }
+
+        public Integer getRetCode() {
+            return retCode;
+        }
+
+        public void setRetCode(Integer retCode) {
+            this.retCode = retCode;
         }
 
         public int getPreviousQueuePosition() {
@@ -1570,6 +3439,49 @@ public class Scheduler {
             this.relaunched = relaunched;
         }
 
+        /**
+         * Running ancestor whose children budget this job draws from.
+         */
+        public JobInfo getBudgetOwner() {
+            return budgetOwner;
+        }
+
+        public void setBudgetOwner(JobInfo budgetOwner) {
+            this.budgetOwner = budgetOwner;
+        }
+
+        public long getBudgetUsed() {
+            return budgetUsed;
+        }
+
+        public void setBudgetUsed(long budgetUsed) {
+            this.budgetUsed = budgetUsed;
+        }
+
+        public boolean isDeadlineInfeasible() {
+            return deadlineInfeasible;
+        }
+
+        public void setDeadlineInfeasible(boolean deadlineInfeasible) {
+            this.deadlineInfeasible = deadlineInfeasible;
+        }
+
+        public TimerWheel.Timeout getDeadlineTimeout() {
+            return deadlineTimeout;
+        }
+
+        public void setDeadlineTimeout(TimerWheel.Timeout deadlineTimeout) {
+            this.deadlineTimeout = deadlineTimeout;
+        }
+
+        public boolean isPreempted() {
+            return preempted;
+        }
+
+        public void setPreempted(boolean preempted) {
+            this.preempted = preempted;
+        }
+
         public int getQueuedChildCount() {
             return queuedChildCount;
         }
@@ -1589,6 +3501,201 @@ public class Scheduler {
         public GroupInfo getGroupInfo() {
             return groupInfo;
         }
+
+        public int getPendingDependencies() {
+            return pendingDependencies;
+        }
+
+        public void setPendingDependencies(int pendingDependencies) {
+            this.pendingDependencies = pendingDependencies;
+        }
+    }
+
+    /**
+     * Condition on the return code of a job that a dependent job waits for.
+     */
+    private enum DependencyCondition {
+
+        ok, any, notok;
+
+        public int[] getJobIds(SubmitInput input) {
+            switch (this) {
+                case ok:
+                    return input.getAfterOk();
+                case any:
+                    return input.getAfterAny();
+                default:
+                    return input.getAfterNotOk();
+            }
+        }
+
+        public boolean isSatisfiedBy(int retCode) {
+            switch (this) {
+                case ok:
+                    return retCode == 0;
+                case any:
+                    return true;
+                default:
+                    return retCode != 0;
+            }
+        }
+    }
+
+    private static class FinishedJob {
+
+        private final String user;
+        private final int retCode;
+
+        public FinishedJob(String user, int retCode) {
+            this.user = user;
+            this.retCode = retCode;
+        }
+    }
+
+    private static class Dependent {
+
+        private final int jobId;
+        private final DependencyCondition condition;
+
+        public Dependent(int jobId, DependencyCondition condition) {
+            this.jobId = jobId;
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * Set of jobs started together and killed together if any of them fails.
+     */
+    private static class GangInfo {
+
+        private final String key;
+        private final int size;
+        private final List<JobInfo> members = new ArrayList<>();
+        private boolean started;
+        private boolean failed;
+
+        public GangInfo(String key, int size) {
+            this.key = key;
+            this.size = size;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Members not finished yet.
+         */
+        public List<JobInfo> getMembers() {
+            return members;
+        }
+
+        public boolean isStarted() {
+            return started;
+        }
+
+        public void setStarted(boolean started) {
+            this.started = started;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        public void setFailed(boolean failed) {
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * State of a job array. Only the running tasks have a {@link JobInfo},
+     * pending ones are just the range of indexes not yet started. Accessed
+     * under synchronized(jobSet).
+     */
+    public class ArrayInfo {
+
+        private final int size;
+        private final Set<Integer> runningTasks = new HashSet<>();
+        private final ArrayDeque<Integer> relaunchedIndexes = new ArrayDeque<>();
+        private int nextIndex;
+        private int finished;
+        private int retCode;
+        private long maxRss;
+        private long maxSwap;
+        private boolean cancelled;
+
+        public ArrayInfo(int size) {
+            this.size = size;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean hasPendingTasks() {
+            return nextIndex < size || !relaunchedIndexes.isEmpty();
+        }
+
+        public int countPendingTasks() {
+            return size - nextIndex + relaunchedIndexes.size();
+        }
+
+        public int nextIndex() {
+            if (!relaunchedIndexes.isEmpty()) {
+                return relaunchedIndexes.poll();
+            }
+            return nextIndex++;
+        }
+
+        public void relaunch(int index) {
+            relaunchedIndexes.add(index);
+        }
+
+        public Set<Integer> getRunningTasks() {
+            return runningTasks;
+        }
+
+        public void taskFinished(int retCode, GaugeStats maxGaugeStats) {
+            this.finished++;
+            this.retCode = Math.max(this.retCode, retCode);
+            if (maxGaugeStats != null) {
+                this.maxRss = Math.max(this.maxRss, maxGaugeStats.memStats.rssBytes);
+                this.maxSwap = Math.max(this.maxSwap, maxGaugeStats.memStats.swapBytes);
+            }
+        }
+
+        public int getFinished() {
+            return finished;
+        }
+
+        public int getRetCode() {
+            return retCode;
+        }
+
+        public long getMaxRss() {
+            return maxRss;
+        }
+
+        public long getMaxSwap() {
+            return maxSwap;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Discards the pending tasks.
+         */
+        public void cancel() {
+            this.cancelled = true;
+            this.nextIndex = size;
+            this.relaunchedIndexes.clear();
+        }
     }
 
     public class ProcessInfo {
@@ -1596,8 +3703,11 @@ public class Scheduler {
         private final JobInfo jobInfo;
         private final int pId;
         private final Logger statsLogger;
+        private final long startTime = System.currentTimeMillis();
 
         private volatile int niceness = Integer.MAX_VALUE;
+        private final AtomicBoolean limitExceeded = new AtomicBoolean();
+        private volatile TimerWheel.Timeout limitTimeout;
 
         private volatile GaugeStats maxGaugeStats = new GaugeStats();
         private volatile GaugeStats gaugeStats = new GaugeStats();
@@ -1621,6 +3731,28 @@ public class Scheduler {
             }
         }
 
+        /**
+         * @return {@code true} if no limit had been exceeded before
+         */
+        public boolean setLimitExceeded() {
+            return limitExceeded.compareAndSet(false, true);
+        }
+
+        public void setLimitTimeout(TimerWheel.Timeout limitTimeout) {
+            this.limitTimeout = limitTimeout;
+        }
+
+        public void cancelLimitTimeout() {
+            TimerWheel.Timeout timeout = this.limitTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
         public int getPid() {
             return pId;
         }
@@ -1656,7 +3788,7 @@ public class Scheduler {
         public synchronized void setNiceness(int niceness) {
             if (niceness != this.niceness) {
                 LinuxCommands.setNiceness(pId, niceness);
-                if (jobInfo.getSubmitChannel().getInput().getParentId() != null) {
+                if (jobInfo.getSubmitChannel().getInput().getParentId() != null && jobInfo.getArray() == null) {
                     jobInfo.getSubmitChannel().sendEvent(Event.niceness, niceness);
                 }
                 this.niceness = niceness;
@@ -1717,6 +3849,26 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Memory figures and stats of a stats pass, from which the job list is
+     * rendered. A new instance is published by every pass, the rendered
+     * lists (by format: with and without headers) are cached in it.
+     */
+    private static final class JobListSnapshot {
+
+        private final long availableManagedMemory;
+        private final long allocatedManagedMemory;
+        private final GaugeStats stats;
+        // accessed under synchronized(this)
+        private final byte[][] rendered = new byte[2][];
+
+        public JobListSnapshot(long availableManagedMemory, long allocatedManagedMemory, GaugeStats stats) {
+            this.availableManagedMemory = availableManagedMemory;
+            this.allocatedManagedMemory = allocatedManagedMemory;
+            this.stats = stats;
+        }
+    }
+
     public static class GaugeStats {
 
         public MemoryStats memStats;
@@ -20,6 +20,7 @@ import org.brutusin.wava.io.Event;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,6 +30,7 @@ import org.brutusin.json.spi.JsonNode;
 import org.brutusin.wava.Utils;
 import org.brutusin.wava.env.EnvEntry;
 import org.brutusin.wava.input.Input;
+import org.brutusin.wava.input.SubmitInput;
 import org.brutusin.wava.io.EventListener;
 import org.brutusin.wava.io.LineListener;
 import org.brutusin.wava.io.RequestExecutor;
@@ -48,6 +50,20 @@ public class CommandLineRequestExecutor extends RequestExecutor {
     }
 
     public Integer executeRequest(OpName opName, Input input, final OutputStream eventStream, boolean prettyEvents) throws IOException, InterruptedException {
+        InputStream stdinStream;
+        if (System.getenv(EnvEntry.STDIN_TTY.name()) != null || input instanceof SubmitInput && ((SubmitInput) input).isAttachedStdio()) {
+            stdinStream = null;
+        } else {
+            stdinStream = System.in;
+        }
+        return executeRequest(opName, input, stdinStream, System.out, System.err, eventStream, prettyEvents);
+    }
+
+    /**
+     * Executes the request on behalf of another process, whose standard
+     * streams are given.
+     */
+    public Integer executeRequest(OpName opName, Input input, InputStream stdinStream, OutputStream stdoutStream, final PrintStream stderrStream, final OutputStream eventStream, boolean prettyEvents) throws IOException, InterruptedException {
 
         EventListener evtListener = null;
         if (eventStream != null) {
@@ -72,9 +88,9 @@ public class CommandLineRequestExecutor extends RequestExecutor {
                     } else {
                         Date date = new Date(time);
                         ANSICode color = ANSICode.CYAN;
-                        if (evt == Event.id || evt == Event.running) {
+                        if (evt == Event.id || evt == Event.running || evt == Event.task_running) {
                             color = ANSICode.GREEN;
-                        } else if (evt == Event.queued) {
+                        } else if (evt == Event.queued || evt == Event.pending) {
                             color = ANSICode.YELLOW;
                         } else if (evt == Event.cancelled) {
                             color = ANSICode.YELLOW;
@@ -84,6 +100,12 @@ public class CommandLineRequestExecutor extends RequestExecutor {
                             } else {
                                 color = ANSICode.RED;
                             }
+                        } else if (evt == Event.task_retcode) {
+                            if (value.endsWith(",0")) {
+                                color = ANSICode.GREEN;
+                            } else {
+                                color = ANSICode.RED;
+                            }
                         } else if (evt == Event.error) {
                             color = ANSICode.RED;
                             if (value != null) {
@@ -94,7 +116,7 @@ public class CommandLineRequestExecutor extends RequestExecutor {
                                     Logger.getLogger(CommandLineRequestExecutor.class.getName()).log(Level.SEVERE, null, ex);
                                 }
                             }
-                        } else if (evt == Event.shutdown) {
+                        } else if (evt == Event.shutdown || evt == Event.dependency_failed || evt == Event.limit_exceeded || evt == Event.deadline_infeasible) {
                             color = ANSICode.RED;
                         }
                         synchronized (eventStream) {
@@ -111,15 +133,9 @@ public class CommandLineRequestExecutor extends RequestExecutor {
         LineListener sterrListener = new LineListener() {
             @Override
             public void onNewLine(String line) {
-                System.err.println(line);
+                stderrStream.println(line);
             }
         };
-        InputStream stdinStream;
-        if (System.getenv(EnvEntry.STDIN_TTY.name()) != null) {
-            stdinStream = null;
-        } else {
-            stdinStream = System.in;
-        }
-        return super.executeRequest(opName, input, stdinStream, System.out, sterrListener, evtListener);
+        return super.executeRequest(opName, input, stdinStream, stdoutStream, sterrListener, evtListener);
     }
 }
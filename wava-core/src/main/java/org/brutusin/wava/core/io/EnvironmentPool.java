@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.brutusin.wava.Utils;
+
+/**
+ * Interns the environments of the submissions, so that all the queued jobs
+ * sharing an environment reference a single immutable instance, and clients
+ * can refer to an environment by its content hash.
+ * <p>
+ * Environments are pooled per user, so that a client can only refer to the
+ * environments submitted by its own user, and cannot probe the ones of others.
+ * <p>
+ * Environments are weakly referenced, and released once no job uses them.
+ * The most recently used ones are kept anyway, to serve the next submissions
+ * of the same clients.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class EnvironmentPool {
+
+    private static final int RECENT_SIZE = 64;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ReferenceQueue<Map<String, String>> queue = new ReferenceQueue<>();
+    private final Map<String, Map<String, String>> recent = new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+            return size() > RECENT_SIZE;
+        }
+    };
+
+    /**
+     * Returns the pooled instance equal to the specified environment,
+     * registering it if not present.
+     */
+    public synchronized Map<String, String> intern(String user, Map<String, String> environment) {
+        String hash = Utils.getEnvironmentHash(environment);
+        Map<String, String> ret = get(user, hash);
+        if (ret == null) {
+            String key = getKey(user, hash);
+            ret = Collections.unmodifiableMap(new HashMap<>(environment));
+            entries.put(key, new Entry(key, ret, queue));
+            recent.put(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the environment with the specified hash pooled for the user, or
+     * null if unknown.
+     */
+    public synchronized Map<String, String> get(String user, String hash) {
+        expunge();
+        String key = getKey(user, hash);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        Map<String, String> ret = entry.get();
+        if (ret != null) {
+            recent.put(key, ret);
+        }
+        return ret;
+    }
+
+    private static String getKey(String user, String hash) {
+        return user + " " + hash;
+    }
+
+    private void expunge() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            if (entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+            }
+        }
+    }
+
+    private static final class Entry extends WeakReference<Map<String, String>> {
+
+        private final String key;
+
+        public Entry(String key, Map<String, String> environment, ReferenceQueue<Map<String, String>> queue) {
+            super(environment, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.brutusin.wava.cfg.Config;
+
+/**
+ * Periodically flushes the coalescable events buffered by the peer channels.
+ * Channels are only registered when they have pending events, so an idle
+ * flush window costs nothing.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class EventFlusher {
+
+    private static final Logger LOGGER = Logger.getLogger(EventFlusher.class.getName());
+    private static volatile EventFlusher instance;
+
+    private final int windowMillisecs;
+    private final ConcurrentLinkedQueue<PeerChannel<?>> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    private EventFlusher(int windowMillisecs) {
+        this.windowMillisecs = windowMillisecs;
+        if (windowMillisecs > 0) {
+            this.thread = new Thread("event-flusher") {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(EventFlusher.this.windowMillisecs);
+                            flushPending();
+                        } catch (InterruptedException ex) {
+                            break;
+                        } catch (Throwable th) {
+                            LOGGER.log(Level.SEVERE, null, th);
+                        }
+                    }
+                }
+            };
+            this.thread.setDaemon(true);
+            this.thread.start();
+        } else {
+            this.thread = null;
+        }
+    }
+
+    public static EventFlusher getInstance() {
+        if (instance == null) {
+            synchronized (EventFlusher.class) {
+                if (instance == null) {
+                    instance = new EventFlusher(Config.getInstance().getSchedulerCfg().getEventFlushMillisecs());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return {@code false} if coalescing is disabled ({@code eventFlushMillisecs <= 0})
+     */
+    public boolean isEnabled() {
+        return thread != null;
+    }
+
+    void schedule(PeerChannel<?> channel) {
+        pending.add(channel);
+    }
+
+    private void flushPending() {
+        PeerChannel<?> channel;
+        while ((channel = pending.poll()) != null) {
+            channel.flushScheduledEvents();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable growable byte buffer where peer messages are encoded (UTF-8)
+ * in place, so they can be written to the peer in a single bulk operation.
+ * Not thread-safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class MessageBuffer {
+
+    private byte[] buf;
+    private int count;
+
+    public MessageBuffer(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+        }
+    }
+
+    public MessageBuffer append(char c) {
+        if (c < 0x80) {
+            ensureCapacity(1);
+            buf[count++] = (byte) c;
+            return this;
+        }
+        return append(String.valueOf(c));
+    }
+
+    public MessageBuffer append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+        return this;
+    }
+
+    public MessageBuffer append(long l) {
+        if (l == Long.MIN_VALUE) {
+            return append(String.valueOf(l));
+        }
+        ensureCapacity(20);
+        if (l < 0) {
+            buf[count++] = '-';
+            l = -l;
+        }
+        int start = count;
+        do {
+            buf[count++] = (byte) ('0' + l % 10);
+            l /= 10;
+        } while (l > 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte b = buf[i];
+            buf[i] = buf[j];
+            buf[j] = b;
+        }
+        return this;
+    }
+
+    public MessageBuffer append(CharSequence cs) {
+        if (cs == null) {
+            cs = "null";
+        }
+        int len = cs.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            char c = cs.charAt(i);
+            if (c < 0x80) {
+                if (count == buf.length) {
+                    ensureCapacity(len - i);
+                }
+                buf[count++] = (byte) c;
+            } else {
+                ensureCapacity(4 + len - i);
+                if (c < 0x800) {
+                    buf[count++] = (byte) (0xc0 | (c >> 6));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(cs.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, cs.charAt(++i));
+                    buf[count++] = (byte) (0xf0 | (cp >> 18));
+                    buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[count++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    buf[count++] = '?';
+                } else {
+                    buf[count++] = (byte) (0xe0 | (c >> 12));
+                    buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Numbers are encoded without intermediate strings, everything else
+     * through its {@code toString()}.
+     */
+    public MessageBuffer append(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return append(((Number) value).longValue());
+        } else if (value instanceof CharSequence) {
+            return append((CharSequence) value);
+        } else {
+            return append(String.valueOf(value));
+        }
+    }
+
+    public MessageBuffer appendByte(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+        return this;
+    }
+
+    /**
+     * Appends the big-endian representation of the value.
+     */
+    public MessageBuffer appendInt32(int v) {
+        ensureCapacity(4);
+        setInt32(count, v);
+        count += 4;
+        return this;
+    }
+
+    /**
+     * Appends the big-endian representation of the value.
+     */
+    public MessageBuffer appendInt64(long v) {
+        appendInt32((int) (v >>> 32));
+        return appendInt32((int) v);
+    }
+
+    /**
+     * Overwrites four bytes at the specified position, typically a length
+     * prefix reserved before the content was known.
+     */
+    public void setInt32(int position, int v) {
+        buf[position] = (byte) (v >>> 24);
+        buf[position + 1] = (byte) (v >>> 16);
+        buf[position + 2] = (byte) (v >>> 8);
+        buf[position + 3] = (byte) v;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Discards the content written after the specified position.
+     */
+    public void truncate(int size) {
+        if (size < 0 || size > count) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        this.count = size;
+    }
+
+    public void reset() {
+        this.count = 0;
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        os.write(buf, 0, count);
+    }
+}
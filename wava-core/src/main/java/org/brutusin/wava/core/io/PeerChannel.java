@@ -16,18 +16,20 @@
 package org.brutusin.wava.core.io;
 
 import org.brutusin.wava.io.Event;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.brutusin.commons.Bean;
-import org.brutusin.commons.utils.Miscellaneous;
 import org.brutusin.wava.input.Input;
-import org.brutusin.wava.io.NamedPipe;
+import org.brutusin.wava.io.BinaryProtocol;
+import org.brutusin.wava.io.FrameOutputStream;
+import org.brutusin.wava.io.FrameType;
+import org.brutusin.wava.io.FrameWriter;
 import org.brutusin.wava.utils.ANSICode;
 
 /**
@@ -38,100 +40,89 @@ import org.brutusin.wava.utils.ANSICode;
 public class PeerChannel<I extends Input> {
 
     private static final Logger LOGGER = Logger.getLogger(PeerChannel.class.getName());
+    private static final byte[][] EVENT_NAMES = new byte[Event.values().length][];
+    /**
+     * Events whose latest value supersedes the previous ones. They are
+     * buffered until the next flush window, keeping only the last one.
+     */
+    private static final EnumSet<Event> COALESCABLE_EVENTS = EnumSet.of(Event.queued);
+
+    static {
+        for (Event event : Event.values()) {
+            EVENT_NAMES[event.ordinal()] = event.name().getBytes(StandardCharsets.UTF_8);
+        }
+    }
 
     private final String user;
     private final I input;
-    private final File procFile;
+    private final PeerConnection connection;
+    private final int streamId;
     private boolean closed = false;
 
-    private final FileInputStream stdinIs;
+    private final MessageBuffer eventBuffer = new MessageBuffer(256);
+    private final MessageBuffer messageBuffer = new MessageBuffer(256);
+    private Event coalescableEvent;
+    private int coalescableStart;
+    private boolean flushScheduled;
+
+    private final InputStream stdinIs;
+
+    private final OutputStream eventsOs;
+    private final OutputStream stdoutOs;
+    private final OutputStream stderrOs;
+
+    public PeerChannel(String user, I input, SocketChannel socket) {
+        this(user, input, new PeerConnection(socket), 0, true);
+    }
+
+    /**
+     * Creates a channel owning the connection, that receives stdin.
+     */
+    public PeerChannel(String user, I input, PeerConnection connection) {
+        this(user, input, connection, 0, true);
+    }
 
-    private final FileOutputStream eventsOs;
-    private final FileOutputStream stdoutOs;
-    private final FileOutputStream stderrOs;
+    /**
+     * Creates a channel multiplexed over a shared connection. Its frames are
+     * tagged with the specified stream id, and it receives no stdin.
+     */
+    public PeerChannel(String user, I input, PeerConnection connection, int streamId) {
+        this(user, input, connection, streamId, false);
+    }
 
-    public PeerChannel(String user, I input, File namedPipesRoot) throws OrphanChannelException, IOException {
+    private PeerChannel(String user, I input, PeerConnection connection, int streamId, boolean readStdin) {
         this.user = user;
         this.input = input;
-        this.procFile = new File("/proc/" + input.getClientPid());
-
-        File stdinNamedPipe = new File(namedPipesRoot, NamedPipe.stdin.name());
-        File eventsNamedPipe = new File(namedPipesRoot, NamedPipe.events.name());
-        File stdoutNamedPipe = new File(namedPipesRoot, NamedPipe.stdout.name());
-        File stderrNamedPipe = new File(namedPipesRoot, NamedPipe.stderr.name());
-
-        final Bean<Boolean> initializedBean = new Bean<>();
-        Thread timeoutThread = new Thread() {
-            @Override
-            public void run() {
-                try {
-                    while (true) {
-                        Thread.sleep(10 * 1000);
-                        synchronized (initializedBean) {
-                            if (initializedBean.getValue() == null) { // peer not read all pipes already
-                                if (isPeerAlive()) { // peer still running
-                                    continue;
-                                } else { // peer not running -> no process reading pipe
-                                    try {
-                                        new FileInputStream(eventsNamedPipe).close();
-                                    } catch (Exception ex) {
-                                    }
-                                    try {
-                                        new FileInputStream(stdoutNamedPipe).close();
-                                    } catch (Exception ex) {
-                                    }
-                                    try {
-                                        new FileInputStream(stderrNamedPipe).close();
-                                    } catch (Exception ex) {
-                                    }
-                                    try {
-                                        new FileOutputStream(stdinNamedPipe).close();
-                                    } catch (Exception ex) {
-                                    }
-                                }
-                            } else {
-                                return;
-                            }
-                        }
-                    }
-                } catch (InterruptedException ex) {
-                    LOGGER.log(Level.SEVERE, null, ex);
-                }
-            }
-        };
-        timeoutThread.setDaemon(true);
-        timeoutThread.start();
-        this.eventsOs = new FileOutputStream(eventsNamedPipe);
-        this.stdoutOs = new FileOutputStream(stdoutNamedPipe);
-        this.stderrOs = new FileOutputStream(stderrNamedPipe);
-        this.stdinIs = new FileInputStream(stdinNamedPipe);
-        try {
-            synchronized (initializedBean) {
-                if (initializedBean.getValue() != null) {
-                    throw new OrphanChannelException();
-                }
-                initializedBean.setValue(true);
-            }
-        } finally {
-            Miscellaneous.deleteDirectory(namedPipesRoot);
+        this.connection = connection;
+        this.streamId = streamId;
+        connection.retain();
+        FrameWriter writer = connection.getWriter();
+        this.eventsOs = new FrameOutputStream(writer, connection.isBinaryEvents() ? FrameType.binaryEvents : FrameType.events, streamId);
+        this.stdoutOs = new FrameOutputStream(writer, FrameType.stdout, streamId);
+        this.stderrOs = new FrameOutputStream(writer, FrameType.stderr, streamId);
+        if (readStdin) {
+            this.stdinIs = connection.openStdin();
+        } else {
+            this.stdinIs = new ByteArrayInputStream(new byte[0]);
         }
     }
 
     public static boolean println(OutputStream os, String message) {
+        MessageBuffer mb = new MessageBuffer(message.length() + 1);
+        mb.append(message).append('\n');
+        return write(os, mb);
+    }
+
+    private static boolean write(OutputStream os, MessageBuffer mb) {
         try {
-            byte[] bytes = message.getBytes();
-            for (int i = 0; i < bytes.length; i++) {
-                os.write(bytes[i]);
-                if (i > 0 && i % 1024 == 0) {
-                    os.flush();
-                }
-            }
-            os.write("\n".getBytes());
+            mb.writeTo(os);
             os.flush();
             return true;
         } catch (IOException ex) {
             // Peer closed
             return false;
+        } finally {
+            mb.reset();
         }
     }
 
@@ -139,6 +130,10 @@ public class PeerChannel<I extends Input> {
         return user;
     }
 
+    public int getStreamId() {
+        return streamId;
+    }
+
     public OutputStream getEventsOs() {
         return eventsOs;
     }
@@ -155,6 +150,17 @@ public class PeerChannel<I extends Input> {
         return stdinIs;
     }
 
+    /**
+     * Stops reading stdin from the peer, making pending reads return.
+     */
+    public void closeStdin() {
+        try {
+            stdinIs.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Peer closed: " + ex.getMessage());
+        }
+    }
+
     public synchronized boolean sendMessage(ANSICode color, String message) {
         if (closed) {
             return false;
@@ -162,22 +168,72 @@ public class PeerChannel<I extends Input> {
         if (color == null) {
             color = ANSICode.RESET;
         }
-        return println(stderrOs, color + message + ANSICode.RESET);
+        messageBuffer.append(color.getCode()).append(message).append(ANSICode.RESET.getCode()).append('\n');
+        return write(stderrOs, messageBuffer);
+    }
+
+    public PeerConnection getConnection() {
+        return connection;
     }
 
     public boolean isPeerAlive() {
-        return procFile.exists();
+        return !connection.isPeerClosed();
     }
 
     public synchronized boolean sendEvent(Event event, Object value) {
         if (closed) {
             return false;
         }
-        if (value == null) {
-            return println(eventsOs, System.currentTimeMillis() + ":" + event.name());
+        boolean coalescable = COALESCABLE_EVENTS.contains(event) && EventFlusher.getInstance().isEnabled();
+        if (coalescable && event == coalescableEvent) {
+            // pending coalescable events are always at the tail of the buffer
+            eventBuffer.truncate(coalescableStart);
+        }
+        int start = eventBuffer.size();
+        if (connection.isBinaryEvents()) {
+            eventBuffer.appendByte(event.getCode()).appendInt64(System.currentTimeMillis());
+            if (value == null) {
+                eventBuffer.appendByte(BinaryProtocol.VALUE_NONE);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                eventBuffer.appendByte(BinaryProtocol.VALUE_NUMBER).appendInt64(((Number) value).longValue());
+            } else {
+                eventBuffer.appendByte(BinaryProtocol.VALUE_STRING).appendInt32(0);
+                int valueStart = eventBuffer.size();
+                eventBuffer.append(value);
+                eventBuffer.setInt32(valueStart - 4, eventBuffer.size() - valueStart);
+            }
         } else {
-            return println(eventsOs, System.currentTimeMillis() + ":" + event.name() + ":" + value);
+            eventBuffer.append(System.currentTimeMillis()).append(':').append(EVENT_NAMES[event.ordinal()]);
+            if (value != null) {
+                eventBuffer.append(':').append(value);
+            }
+            eventBuffer.append('\n');
+        }
+        if (coalescable) {
+            this.coalescableEvent = event;
+            this.coalescableStart = start;
+            if (!flushScheduled) {
+                this.flushScheduled = true;
+                EventFlusher.getInstance().schedule(this);
+            }
+            return true;
         }
+        return flushEvents();
+    }
+
+    synchronized void flushScheduledEvents() {
+        this.flushScheduled = false;
+        if (!closed) {
+            flushEvents();
+        }
+    }
+
+    private boolean flushEvents() {
+        this.coalescableEvent = null;
+        if (eventBuffer.size() == 0) {
+            return true;
+        }
+        return write(eventsOs, eventBuffer);
     }
 
     public I getInput() {
@@ -185,13 +241,20 @@ public class PeerChannel<I extends Input> {
     }
 
     public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
         this.closed = true;
-        this.eventsOs.flush();
-        this.stdoutOs.flush();
-        this.stderrOs.flush();
-        this.stdinIs.close();
-        this.eventsOs.close();
-        this.stdoutOs.close();
-        this.stderrOs.close();
+        try {
+            flushEvents();
+            this.stdinIs.close();
+            this.eventsOs.close();
+            this.stdoutOs.close();
+            this.stderrOs.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Peer closed: " + ex.getMessage());
+        } finally {
+            this.connection.release();
+        }
     }
 }
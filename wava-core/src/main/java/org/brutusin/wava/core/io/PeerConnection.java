@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import org.brutusin.wava.io.FrameType;
+import org.brutusin.wava.io.FrameWriter;
+
+/**
+ * Client connection shared by the channels multiplexed over it. The socket
+ * is closed when the last channel using it is closed.
+ * <p>
+ * Once the request has been read, the connection is read by the
+ * {@link PeerMonitor}, that feeds the stdin pipe and flags the connection
+ * when the client closes it.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class PeerConnection {
+
+    private final SocketChannel socket;
+    private final FrameWriter writer;
+    private final boolean binaryEvents;
+    private StdinPipe stdin;
+    private int channels;
+    private boolean closed;
+    private volatile boolean peerClosed;
+
+    public PeerConnection(SocketChannel socket) {
+        this(socket, false);
+    }
+
+    /**
+     * @param binaryEvents if the events of the channels are sent in
+     * {@link FrameType#binaryEvents} frames
+     */
+    public PeerConnection(SocketChannel socket, boolean binaryEvents) {
+        this.socket = socket;
+        this.writer = new FrameWriter(socket);
+        this.binaryEvents = binaryEvents;
+    }
+
+    public boolean isBinaryEvents() {
+        return binaryEvents;
+    }
+
+    public SocketChannel getSocket() {
+        return socket;
+    }
+
+    synchronized StdinPipe openStdin() {
+        if (stdin == null) {
+            stdin = new StdinPipe(FrameWriter.MAX_PAYLOAD);
+        }
+        return stdin;
+    }
+
+    synchronized StdinPipe getStdin() {
+        return stdin;
+    }
+
+    void setPeerClosed() {
+        this.peerClosed = true;
+    }
+
+    /**
+     * @return {@code true} if the client has closed the connection
+     */
+    public boolean isPeerClosed() {
+        return peerClosed;
+    }
+
+    public FrameWriter getWriter() {
+        return writer;
+    }
+
+    synchronized void retain() {
+        if (closed) {
+            throw new IllegalStateException("Connection is closed");
+        }
+        channels++;
+    }
+
+    synchronized void release() throws IOException {
+        if (closed) {
+            return;
+        }
+        channels--;
+        if (channels <= 0) {
+            closed = true;
+            socket.close();
+        }
+    }
+}
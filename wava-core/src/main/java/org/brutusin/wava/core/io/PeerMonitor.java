@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.brutusin.wava.cfg.Config;
+import org.brutusin.wava.core.Scheduler;
+import org.brutusin.wava.io.FrameType;
+import org.brutusin.wava.io.FrameWriter;
+
+/**
+ * Watches the connections of the submitting clients from a single thread, so
+ * that a client exit is detected as soon as its connection is closed, and
+ * notified to the scheduler.
+ * <p>
+ * Registered connections are switched to non-blocking mode and read only by
+ * this monitor, that demultiplexes the stdin frames into the
+ * {@link StdinPipe} of the connection. While this buffer is full (stdin sent
+ * by the client before the job is started) the connection is not read, and
+ * the client liveness is checked in {@code /proc} every
+ * {@code cleaningMillisecs} instead.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class PeerMonitor {
+
+    private static final Logger LOGGER = Logger.getLogger(PeerMonitor.class.getName());
+
+    private final Scheduler scheduler;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Registration> registrations = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Registration> resumed = new ConcurrentLinkedQueue<>();
+    // accessed only by the monitor thread
+    private final Set<Registration> suspended = new HashSet<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(FrameWriter.MAX_PAYLOAD);
+    private final Thread thread;
+
+    public PeerMonitor(Scheduler scheduler) throws IOException {
+        this.scheduler = scheduler;
+        this.selector = Selector.open();
+        this.thread = new Thread("peer-monitor") {
+            @Override
+            public void run() {
+                while (true) {
+                    if (Thread.interrupted()) {
+                        break;
+                    }
+                    try {
+                        selector.select(Config.getInstance().getSchedulerCfg().getCleaningMillisecs());
+                        processRegistrations();
+                        processSelectedKeys();
+                        checkSuspended();
+                    } catch (Throwable th) {
+                        LOGGER.log(Level.SEVERE, th.getMessage(), th);
+                    }
+                }
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts watching the connection. From now on, the connection must not be
+     * read by any other thread.
+     */
+    void register(PeerConnection connection, int clientPid) throws IOException {
+        connection.getSocket().configureBlocking(false);
+        registrations.add(new Registration(connection, clientPid));
+        selector.wakeup();
+    }
+
+    private void processRegistrations() {
+        Registration r;
+        while ((r = registrations.poll()) != null) {
+            try {
+                r.key = r.connection.getSocket().register(selector, SelectionKey.OP_READ, r);
+            } catch (ClosedChannelException ex) {
+                // already closed by the core
+            }
+        }
+        while ((r = resumed.poll()) != null) {
+            if (suspended.remove(r) && r.key.isValid()) {
+                r.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            if (key.isValid()) {
+                read((Registration) key.attachment());
+            }
+        }
+    }
+
+    private void checkSuspended() {
+        if (suspended.isEmpty()) {
+            return;
+        }
+        Iterator<Registration> it = suspended.iterator();
+        while (it.hasNext()) {
+            Registration r = it.next();
+            if (!r.key.isValid()) {
+                it.remove();
+            } else if (!new File("/proc/" + r.clientPid).exists()) {
+                it.remove();
+                onPeerClosed(r);
+            }
+        }
+    }
+
+    /**
+     * Reads the connection without going beyond the current frame, so that
+     * stdin payloads never exceed the free space of the pipe.
+     */
+    private void read(final Registration r) {
+        if (!r.connection.getSocket().isOpen()) {
+            r.key.cancel();
+            return;
+        }
+        final StdinPipe stdin = r.connection.getStdin();
+        int max;
+        if (r.payloadRemaining == 0) {
+            max = r.header.remaining();
+        } else if (r.isStdin() && stdin != null) {
+            max = Math.min(r.payloadRemaining, stdin.free());
+        } else {
+            max = r.payloadRemaining;
+        }
+        if (max == 0) {
+            if (stdin.suspend(new Runnable() {
+                @Override
+                public void run() {
+                    resumed.add(r);
+                    selector.wakeup();
+                }
+            })) {
+                r.key.interestOps(0);
+                suspended.add(r);
+            }
+            return;
+        }
+        buffer.clear();
+        buffer.limit(Math.min(max, buffer.capacity()));
+        int n;
+        try {
+            n = r.connection.getSocket().read(buffer);
+        } catch (IOException ex) {
+            n = -1;
+        }
+        if (n < 0) {
+            onPeerClosed(r);
+            return;
+        }
+        if (r.payloadRemaining == 0) {
+            buffer.flip();
+            r.header.put(buffer);
+            if (r.header.hasRemaining()) {
+                return;
+            }
+            r.header.flip();
+            try {
+                r.type = FrameType.valueOf(r.header.get());
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Invalid frame received from client " + r.clientPid);
+                onPeerClosed(r);
+                return;
+            }
+            r.streamId = r.header.getInt();
+            r.payloadRemaining = r.header.getInt();
+            r.header.clear();
+            if (r.payloadRemaining < 0) {
+                LOGGER.log(Level.WARNING, "Invalid frame received from client " + r.clientPid);
+                onPeerClosed(r);
+            } else if (r.payloadRemaining == 0 && r.isStdin() && stdin != null) {
+                stdin.finish();
+            }
+        } else {
+            if (r.isStdin() && stdin != null) {
+                stdin.write(buffer.array(), 0, n);
+            }
+            r.payloadRemaining -= n;
+        }
+    }
+
+    private void onPeerClosed(Registration r) {
+        r.key.cancel();
+        r.connection.setPeerClosed();
+        if (r.connection.getStdin() != null) {
+            r.connection.getStdin().finish();
+        }
+        scheduler.onPeerClosed(r.connection);
+    }
+
+    private static final class Registration {
+
+        private final PeerConnection connection;
+        private final int clientPid;
+        private final ByteBuffer header = ByteBuffer.allocate(FrameWriter.HEADER_SIZE);
+        private SelectionKey key;
+        private FrameType type;
+        private int streamId;
+        private int payloadRemaining;
+
+        public Registration(PeerConnection connection, int clientPid) {
+            this.connection = connection;
+            this.clientPid = clientPid;
+        }
+
+        private boolean isStdin() {
+            return type == FrameType.stdin && streamId == 0;
+        }
+    }
+}
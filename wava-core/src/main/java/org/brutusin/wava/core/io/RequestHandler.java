@@ -19,171 +19,351 @@ import org.brutusin.wava.io.OpName;
 import org.brutusin.wava.io.Event;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import jdk.net.ExtendedSocketOptions;
 import org.brutusin.commons.utils.Miscellaneous;
 import org.brutusin.json.ParseException;
 import org.brutusin.json.spi.JsonCodec;
+import org.brutusin.wava.cfg.Config;
+import org.brutusin.wava.cfg.SchedulerCfg;
 import org.brutusin.wava.env.WavaTemp;
 import org.brutusin.wava.core.Scheduler;
-import org.brutusin.wava.utils.LinuxCommands;
 import org.brutusin.wava.input.CancelInput;
 import org.brutusin.wava.input.GroupInput;
 import org.brutusin.wava.input.ExtendedSubmitInput;
 import org.brutusin.wava.input.Input;
 import org.brutusin.wava.input.ListJobsInput;
+import org.brutusin.wava.input.PositionInput;
+import org.brutusin.wava.io.BinaryProtocol;
+import org.brutusin.wava.io.FrameReader;
+import org.brutusin.wava.io.FrameType;
 import org.brutusin.wava.utils.ANSICode;
+import org.brutusin.wava.utils.TimerWheel;
 import org.brutusin.wava.io.RetCode;
 
 /**
+ * Listens to client requests on a Unix domain socket. The requesting user is
+ * obtained from the peer credentials of the connection.
+ * <p>
+ * Requests are processed by a bounded pool. The number of accepted requests
+ * pending of processing is limited, and each user is subject to a request
+ * rate limit.
  *
  * @author Ignacio del Valle Alles idelvall@brutusin.org
  */
 public class RequestHandler {
 
     private static final Logger LOGGER = Logger.getLogger(RequestHandler.class.getName());
-    public static final Pattern OP_FILE_PATTERN;
-
-    static {
-        StringBuilder sb = new StringBuilder("(\\d+)-(");
-        OpName[] values = OpName.values();
-        for (int i = 0; i < values.length; i++) {
-            if (i > 0) {
-                sb.append("|");
-            }
-            sb.append(values[i]);
-        }
-        sb.append(")");
-        OP_FILE_PATTERN = Pattern.compile(sb.toString());
-    }
 
     private final Scheduler scheduler;
-    private final File requestFolder;
-    private final File streamsFolder;
+    private final File socketFile;
+    private final AtomicLong requestCounter = new AtomicLong();
+    private final Semaphore admission;
+    private final ThreadPoolExecutor executor;
+    private final UserRateLimiter rateLimiter;
+    private final PeerMonitor peerMonitor;
+    private final EnvironmentPool environmentPool = new EnvironmentPool();
     private Thread mainThread;
 
     public RequestHandler(Scheduler scheduler) throws IOException {
         this.scheduler = scheduler;
-        this.requestFolder = new File(WavaTemp.getInstance().getTemp(), "request");
-        this.streamsFolder = new File(WavaTemp.getInstance().getTemp(), "streams");
-        remakeFolder(requestFolder);
-        remakeFolder(streamsFolder);
-        remakeFolder(new File(WavaTemp.getInstance().getTemp(), "temp"));
-        remakeFolder(new File(WavaTemp.getInstance().getTemp(), "state"));
-    }
+        this.socketFile = WavaTemp.getInstance().getSocketFile();
+        if (!WavaTemp.getInstance().getTemp().exists()) {
+            Miscellaneous.createDirectory(WavaTemp.getInstance().getTemp());
+        }
+        SchedulerCfg cfg = Config.getInstance().getSchedulerCfg();
+        this.admission = new Semaphore(cfg.getMaxPendingRequests());
+        this.rateLimiter = new UserRateLimiter(cfg.getMaxUserRequestsPerSecond(), cfg.getRequestTimeoutMillisecs());
+        this.peerMonitor = new PeerMonitor(scheduler);
+        this.executor = new ThreadPoolExecutor(cfg.getRequestThreads(), cfg.getRequestThreads(), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
 
-    private static void remakeFolder(File f) throws IOException {
-        Miscellaneous.deleteDirectory(f);
-        Miscellaneous.createDirectory(f);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "request-handler-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
     }
 
     public void start() throws IOException {
         mainThread = Thread.currentThread();
-        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
-            Path dir = Paths.get(requestFolder.getAbsolutePath());
-            dir.register(watcher, ENTRY_CREATE);
-            outer:
+        Files.deleteIfExists(socketFile.toPath());
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketFile.toPath()), Config.getInstance().getSchedulerCfg().getMaxPendingRequests());
+            Files.setPosixFilePermissions(socketFile.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
             while (true) {
+                if (Thread.interrupted()) {
+                    break;
+                }
                 try {
-                    if (Thread.interrupted()) {
-                        break outer;
-                    }
-                    while (handleRequests()) {
-                    }
-                    WatchKey key = watcher.take();
-                    key.pollEvents();
-                    if (!key.reset()) {
-                        LOGGER.log(Level.SEVERE, null, "Request directory is inaccessible");
-                        break;
-                    }
-                } catch (InterruptedException ie) {
+                    // backpressure: stop accepting while saturated, clients wait in the socket backlog
+                    admission.acquire();
+                } catch (InterruptedException ex) {
                     break;
-                } catch (Throwable th) {
-                    LOGGER.log(Level.SEVERE, th.getMessage(), th);
                 }
+                final SocketChannel socket;
+                try {
+                    socket = server.accept();
+                } catch (ClosedByInterruptException ex) {
+                    admission.release();
+                    break;
+                } catch (IOException ex) {
+                    admission.release();
+                    throw ex;
+                }
+                final long id = requestCounter.incrementAndGet();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        admit(id, socket);
+                    }
+                });
             }
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(socketFile.toPath());
         }
     }
 
-    private boolean handleRequests() throws IOException, InterruptedException, ParseException {
-        File[] listFiles = requestFolder.listFiles();
-        boolean ret = false;
-        if (listFiles != null) {
-            for (int i = 0; i < listFiles.length; i++) {
-                File requestFile = listFiles[i];
-                Matcher matcher = OP_FILE_PATTERN.matcher(requestFile.getName());
-                if (matcher.matches()) {
-                    ret = true;
-                    final Integer id = Integer.valueOf(matcher.group(1));
-                    final OpName opName = OpName.valueOf(matcher.group(2));
-                    final String user = LinuxCommands.getFileOwner(requestFile);
-                    final String json = new String(Files.readAllBytes(requestFile.toPath()));
-                    Thread t = new Thread() {
+    private void admit(final long id, final SocketChannel socket) {
+        final String user;
+        try {
+            user = getPeerUser(socket);
+        } catch (Throwable th) {
+            LOGGER.log(Level.SEVERE, "Error processing request " + id + ": " + th.getMessage(), th);
+            closeQuietly(socket);
+            admission.release();
+            return;
+        }
+        long delay = rateLimiter.reserve(user);
+        if (delay > 0) {
+            LOGGER.log(Level.FINE, "Request " + id + " from user " + user + " delayed " + delay + " ms by rate limit");
+            TimerWheel.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    executor.execute(new Runnable() {
                         @Override
                         public void run() {
-                            try {
-                                handleRequest(id, opName, user, json);
-                            } catch (Throwable th) {
-                                Logger.getLogger(RequestHandler.class.getName()).log(Level.SEVERE, null, th);
-                            }
+                            process(id, user, socket, false);
                         }
-                    };
-                    t.start();
+                    });
                 }
-                requestFile.delete();
+            }, delay, TimeUnit.MILLISECONDS);
+        } else {
+            process(id, user, socket, delay < 0);
+        }
+    }
+
+    private void process(long id, String user, SocketChannel socket, boolean rejected) {
+        try {
+            handleRequest(id, user, socket, rejected);
+        } catch (Throwable th) {
+            LOGGER.log(Level.SEVERE, null, th);
+        } finally {
+            admission.release();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads the items of a batch request, sent as request frames in their own
+     * stream, until the end frame of stream 0. The number of items and their
+     * total size are bounded by {@code maxBatchItems} and
+     * {@code maxBatchBytes}.
+     */
+    private static Map<Integer, ExtendedSubmitInput> readBatchItems(FrameReader reader) throws IOException, OrphanChannelException {
+        SchedulerCfg cfg = Config.getInstance().getSchedulerCfg();
+        Map<Integer, ExtendedSubmitInput> ret = new LinkedHashMap<>();
+        long bytes = 0;
+        while (true) {
+            try {
+                if (!reader.next()) {
+                    throw new OrphanChannelException();
+                }
+            } catch (AsynchronousCloseException ex) {
+                // request timeout
+                throw new OrphanChannelException();
+            }
+            if (reader.getType() != FrameType.request) {
+                throw new IOException("Unexpected frame type: " + reader.getType());
+            }
+            if (reader.isEnd()) {
+                return ret;
+            }
+            if (reader.getStreamId() <= 0 || ret.containsKey(reader.getStreamId())) {
+                throw new IOException("Invalid batch stream id: " + reader.getStreamId());
+            }
+            if (ret.size() >= cfg.getMaxBatchItems()) {
+                throw new IllegalArgumentException("Batch exceeds the maximum number of items (" + cfg.getMaxBatchItems() + ")");
+            }
+            bytes += reader.getLength();
+            if (bytes > cfg.getMaxBatchBytes()) {
+                throw new IllegalArgumentException("Batch exceeds the maximum size (" + cfg.getMaxBatchBytes() + " bytes)");
+            }
+            String json = new String(reader.getPayload(), 0, reader.getLength(), StandardCharsets.UTF_8);
+            try {
+                ret.put(reader.getStreamId(), JsonCodec.getInstance().parse(json, ExtendedSubmitInput.class));
+            } catch (ParseException ex) {
+                throw new IllegalArgumentException("Invalid batch item: " + ex.getMessage());
             }
         }
-        return ret;
     }
 
-    private void handleRequest(Integer id, OpName opName, String user, String json) throws IOException, InterruptedException {
+    private static Class<? extends Input> getInputClass(OpName opName) {
+        if (opName == OpName.submit) {
+            return ExtendedSubmitInput.class;
+        } else if (opName == OpName.cancel) {
+            return CancelInput.class;
+        } else if (opName == OpName.jobs) {
+            return ListJobsInput.class;
+        } else if (opName == OpName.group) {
+            return GroupInput.class;
+        } else if (opName == OpName.position) {
+            return PositionInput.class;
+        } else {
+            return Input.class;
+        }
+    }
+
+    private static String getPeerUser(SocketChannel socket) throws IOException {
+        return socket.getOption(ExtendedSocketOptions.SO_PEERCRED).user().getName();
+    }
+
+    private void handleRequest(long id, String user, final SocketChannel socket, boolean rejected) throws IOException, InterruptedException {
         PeerChannel ch = null;
+        OpName opName = null;
+        String json = null;
         try {
-
+            FrameReader reader = new FrameReader(socket);
+            TimerWheel.Timeout timeout = TimerWheel.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    closeQuietly(socket);
+                }
+            }, Config.getInstance().getSchedulerCfg().getRequestTimeoutMillisecs(), TimeUnit.MILLISECONDS);
+            boolean received;
+            try {
+                received = reader.next();
+            } catch (AsynchronousCloseException ex) {
+                received = false;
+            }
+            if (!received) {
+                throw new OrphanChannelException();
+            }
+            boolean binaryEvents = false;
+            if (reader.getType() == FrameType.binaryRequest) {
+                byte[] payload = reader.getPayload();
+                if (reader.getLength() < BinaryProtocol.HEADER_LENGTH || payload[0] != BinaryProtocol.VERSION) {
+                    throw new IOException("Unsupported protocol version: " + (reader.getLength() > 0 ? payload[0] : null));
+                }
+                opName = OpName.fromCode(payload[1] & 0xFF);
+                if (opName == null) {
+                    throw new IOException("Unknown operation code: " + (payload[1] & 0xFF));
+                }
+                binaryEvents = (payload[2] & BinaryProtocol.FLAG_BINARY_EVENTS) != 0;
+                json = new String(payload, BinaryProtocol.HEADER_LENGTH, reader.getLength() - BinaryProtocol.HEADER_LENGTH, StandardCharsets.UTF_8);
+            } else if (reader.getType() == FrameType.request) {
+                // text protocol of previous clients
+                String request = new String(reader.getPayload(), 0, reader.getLength(), StandardCharsets.UTF_8);
+                int sep = request.indexOf('\n');
+                opName = OpName.valueOf(request.substring(0, sep));
+                json = request.substring(sep + 1);
+            } else {
+                throw new IOException("Unexpected frame type: " + reader.getType());
+            }
+            Input input = JsonCodec.getInstance().parse(json, getInputClass(opName));
+            Map<Integer, ExtendedSubmitInput> batchItems = null;
+            PeerConnection connection = new PeerConnection(socket, binaryEvents);
+            if (opName == OpName.batch) {
+                ch = new PeerChannel(user, input, connection, 0);
+                // read it all before replying, even if rejected
+                batchItems = readBatchItems(reader);
+            } else {
+                ch = new PeerChannel(user, input, connection);
+            }
+            // armed until the whole request has been received
+            if (!timeout.cancel()) {
+                throw new OrphanChannelException();
+            }
+            if (rejected) {
+                throw new IllegalArgumentException("Request rate limit exceeded for user " + user + ". Try again later");
+            }
+            if (opName == OpName.submit && !resolveEnvironment(user, (ExtendedSubmitInput) input)) {
+                // the client resends the request with the whole environment
+                ch.sendEvent(Event.retcode, RetCode.UNKNOWN_ENVIRONMENT.getCode());
+                ch.close();
+                return;
+            }
+            if (opName == OpName.batch) {
+                for (ExtendedSubmitInput item : batchItems.values()) {
+                    if (!resolveEnvironment(user, item)) {
+                        throw new IllegalArgumentException("Unknown environment " + item.getEnvironmentHash());
+                    }
+                }
+            }
+            if (opName == OpName.submit || opName == OpName.batch) {
+                peerMonitor.register(ch.getConnection(), input.getClientPid());
+            }
             if (opName == OpName.submit) {
-                ExtendedSubmitInput input = JsonCodec.getInstance().parse(json, ExtendedSubmitInput.class);
-                PeerChannel<ExtendedSubmitInput> channel = new PeerChannel(user, input, new File(streamsFolder, String.valueOf(id)));
-                ch = channel;
-                this.scheduler.submit(channel);
+                this.scheduler.submit(ch);
+            } else if (opName == OpName.batch) {
+                List<PeerChannel<ExtendedSubmitInput>> channels = new ArrayList<>(batchItems.size());
+                for (Map.Entry<Integer, ExtendedSubmitInput> entry : batchItems.entrySet()) {
+                    channels.add(new PeerChannel<>(user, entry.getValue(), connection, entry.getKey()));
+                }
+                this.scheduler.submitAll(ch, channels);
             } else if (opName == OpName.cancel) {
-                CancelInput input = JsonCodec.getInstance().parse(json, CancelInput.class);
-                PeerChannel<CancelInput> channel = new PeerChannel(user, input, new File(streamsFolder, String.valueOf(id)));
-                ch = channel;
-                this.scheduler.cancel(channel);
+                this.scheduler.cancel(ch);
             } else if (opName == OpName.jobs) {
-                ListJobsInput input = JsonCodec.getInstance().parse(json, ListJobsInput.class);
-                PeerChannel<ListJobsInput> channel = new PeerChannel(user, input, new File(streamsFolder, String.valueOf(id)));
-                ch = channel;
-                this.scheduler.listJobs(channel);
+                this.scheduler.listJobs(ch);
+            } else if (opName == OpName.position) {
+                this.scheduler.position(ch);
             } else if (opName == OpName.group) {
-                GroupInput input = JsonCodec.getInstance().parse(json, GroupInput.class);
-                if (input.isList()) {
-                    PeerChannel<GroupInput> channel = new PeerChannel(user, input, new File(streamsFolder, String.valueOf(id)));
-                    ch = channel;
-                    this.scheduler.listGroups(channel);
+                if (((GroupInput) input).isList()) {
+                    this.scheduler.listGroups(ch);
                 } else {
-                    PeerChannel<GroupInput> channel = new PeerChannel(user, input, new File(streamsFolder, String.valueOf(id)));
-                    ch = channel;
-                    this.scheduler.updateGroup(channel);
+                    this.scheduler.updateGroup(ch);
                 }
+            } else if (opName == OpName.status) {
+                this.scheduler.status(ch);
             } else if (opName == OpName.exit) {
-                Input input = JsonCodec.getInstance().parse(json, Input.class);
-                PeerChannel<Input> channel = new PeerChannel(user, input, new File(streamsFolder, String.valueOf(id)));
-                if (this.scheduler.close(channel)) {
+                if (this.scheduler.close(ch)) {
                     mainThread.interrupt();
                 }
             }
         } catch (Throwable th) {
-            if (th instanceof IllegalArgumentException) {
+            if (th instanceof IllegalArgumentException && ch != null) {
                 PeerChannel.println(ch.getStderrOs(), ANSICode.RED + "[wava] " + th.getMessage());
                 ch.sendEvent(Event.retcode, RetCode.ERROR.getCode());
             } else if (th instanceof InterruptedException) {
@@ -192,13 +372,39 @@ public class RequestHandler {
                 LOGGER.log(Level.WARNING, "Error processing request " + id + ": Orphan channel found");
             } else {
                 LOGGER.log(Level.SEVERE, "Error processing request " + id + ": " + th.getMessage() + "\noperation:" + opName + "\nuser:" + user + "\njson:" + json, th);
-                PeerChannel.println(ch.getStderrOs(), ANSICode.RED + "[wava] An error has ocurred processing request " + id + ". See core process logs for more details");
-                ch.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                if (ch != null) {
+                    PeerChannel.println(ch.getStderrOs(), ANSICode.RED + "[wava] An error has ocurred processing request " + id + ". See core process logs for more details");
+                    ch.sendEvent(Event.retcode, RetCode.ERROR.getCode());
+                }
             }
             if (ch != null) {
                 ch.close();
+            } else {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Replaces the environment of the input by its pooled instance, or
+     * resolves it from its hash among the ones of the user. Batch items are
+     * resolved in order, so an item can refer to the environment sent by a
+     * previous one.
+     *
+     * @return false if the environment hash is unknown
+     */
+    private boolean resolveEnvironment(String user, ExtendedSubmitInput input) {
+        if (input.getEnvironment() != null) {
+            input.setEnvironment(environmentPool.intern(user, input.getEnvironment()));
+        } else if (input.getEnvironmentHash() != null) {
+            Map<String, String> environment = environmentPool.get(user, input.getEnvironmentHash());
+            if (environment == null) {
+                return false;
             }
+            input.setEnvironment(environment);
         }
+        input.setEnvironmentHash(null);
+        return true;
     }
 
     public static void main(String[] args) throws Exception {
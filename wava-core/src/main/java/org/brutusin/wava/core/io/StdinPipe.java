@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Bounded buffer between the peer monitor, that writes the stdin frames
+ * received from the client, and the job stdin pipe thread, that reads them.
+ * When full, the monitor suspends reading the connection until the buffer is
+ * drained by half.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class StdinPipe extends InputStream {
+
+    private final int capacity;
+    private byte[] buffer;
+    private int head;
+    private int count;
+    private boolean finished;
+    private boolean closed;
+    private Runnable drainListener;
+
+    StdinPipe(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return number of bytes that can be written without exceeding the
+     * capacity. Bytes written once the reader is closed are discarded.
+     */
+    synchronized int free() {
+        if (closed) {
+            return Integer.MAX_VALUE;
+        }
+        return capacity - count;
+    }
+
+    synchronized void write(byte[] b, int off, int len) {
+        if (closed || finished) {
+            return;
+        }
+        if (len > capacity - count) {
+            throw new IllegalStateException("Buffer overflow");
+        }
+        if (buffer == null) {
+            buffer = new byte[capacity];
+        }
+        for (int i = 0; i < len; i++) {
+            buffer[(head + count + i) % capacity] = b[off + i];
+        }
+        count += len;
+        notifyAll();
+    }
+
+    /**
+     * Signals the end of the stream.
+     */
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Registers a listener to be notified once, when the buffer is drained by
+     * half or the reader is closed.
+     *
+     * @return {@code false} if the buffer is not full, and hence the listener
+     * has not been registered
+     */
+    synchronized boolean suspend(Runnable listener) {
+        if (free() > 0) {
+            return false;
+        }
+        this.drainListener = listener;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        if (read(b, 0, 1) < 0) {
+            return -1;
+        }
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        Runnable listener = null;
+        int n;
+        synchronized (this) {
+            while (count == 0 && !finished && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (count == 0 || closed) {
+                return -1;
+            }
+            n = Math.min(len, count);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = buffer[(head + i) % capacity];
+            }
+            head = (head + n) % capacity;
+            count -= n;
+            if (drainListener != null && count <= capacity / 2) {
+                listener = drainListener;
+                drainListener = null;
+            }
+        }
+        if (listener != null) {
+            listener.run();
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Runnable listener;
+        synchronized (this) {
+            closed = true;
+            buffer = null;
+            count = 0;
+            listener = drainListener;
+            drainListener = null;
+            notifyAll();
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
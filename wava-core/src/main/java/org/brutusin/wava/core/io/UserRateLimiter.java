@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-user token bucket. Requests exceeding the rate are not rejected
+ * straight away, but delayed until a token is available, unless the delay
+ * exceeds the maximum allowed.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class UserRateLimiter {
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final long maxDelayNanos;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param permitsPerSecond maximum sustained request rate per user. Values
+     * {@code <= 0} disable the limit
+     * @param maxDelayMillisecs maximum time a request can be delayed
+     */
+    public UserRateLimiter(float permitsPerSecond, long maxDelayMillisecs) {
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.burst = Math.max(1, permitsPerSecond);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillisecs);
+    }
+
+    /**
+     * Reserves a permit for the user.
+     *
+     * @return milliseconds the request has to wait before being processed, or
+     * {@code -1} if the required delay is too long and the request has to be
+     * rejected
+     */
+    public long reserve(String user) {
+        if (permitsPerNano <= 0) {
+            return 0;
+        }
+        Bucket bucket = buckets.get(user);
+        if (bucket == null) {
+            bucket = new Bucket();
+            Bucket previous = buckets.putIfAbsent(user, bucket);
+            if (previous != null) {
+                bucket = previous;
+            }
+        }
+        synchronized (bucket) {
+            long now = System.nanoTime();
+            bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefill) * permitsPerNano);
+            bucket.lastRefill = now;
+            if (bucket.tokens >= 1) {
+                bucket.tokens--;
+                return 0;
+            }
+            long delayNanos = (long) ((1 - bucket.tokens) / permitsPerNano);
+            if (delayNanos > maxDelayNanos) {
+                return -1;
+            }
+            // debt is paid by the subsequent refills
+            bucket.tokens--;
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+        }
+    }
+
+    private final class Bucket {
+
+        private double tokens = burst;
+        private long lastRefill = System.nanoTime();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.brutusin.commons.Pair;
+import org.brutusin.commons.utils.Miscellaneous;
+import org.brutusin.commons.utils.ProcessUtils;
+import org.brutusin.wava.Utils;
+import org.brutusin.wava.core.io.CommandLineRequestExecutor;
+import org.brutusin.wava.input.SubmitInput;
+import org.brutusin.wava.io.OpName;
+import org.brutusin.wava.io.RetCode;
+import org.brutusin.wava.main.peer.SubmitMain;
+import org.brutusin.wava.utils.ANSICode;
+import org.brutusin.wava.utils.CoreUtils;
+
+/**
+ * Resident per-user client agent. Serves the job submissions of the
+ * {@code wava} launcher script, so that no JVM is started per invocation.
+ * <p>
+ * The launcher writes a line {@code <pid> <request folder>} to the agent
+ * FIFO. The request folder contains the arguments ({@code args}) and the
+ * environment ({@code env}) of the invocation, NUL-separated, and a FIFO
+ * ({@code ret}) the agent writes the return code to. Jobs are attached to the
+ * standard streams of the launcher. Invocations the agent cannot serve
+ * (help, invalid arguments, socket streams) are answered with {@value #FALLBACK}
+ * before contacting the core, and the launcher falls back to starting the
+ * JVM.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class AgentMain {
+
+    public static final String DESCRIPTION = "start the per-user client agent, serving job submissions without starting a JVM each time";
+
+    private static final Logger LOGGER = Logger.getLogger(AgentMain.class.getName());
+    private static final String FALLBACK = "-";
+    private static final long WATCH_MILLISECS = 100;
+
+    // launcher pid -> serving thread
+    private static final Map<Integer, Thread> ACTIVE = new ConcurrentHashMap<>();
+
+    /**
+     * Private folder of the agent of the current user:
+     * {@code $XDG_RUNTIME_DIR/wava-agent}, or {@code ~/.wava/wava-agent} if
+     * not set. Must be kept in sync with the launcher script.
+     */
+    public static File getAgentDirectory() {
+        String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+        File base;
+        if (runtimeDir != null && !runtimeDir.isEmpty()) {
+            base = new File(runtimeDir);
+        } else {
+            base = new File(System.getProperty("user.home"), ".wava");
+        }
+        return new File(base, "wava-agent");
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = getAgentDirectory().getCanonicalFile();
+        Files.createDirectories(dir.toPath());
+        if (!Files.getAttribute(dir.toPath(), "unix:uid").equals(Files.getAttribute(Paths.get("/proc/self"), "unix:uid"))) {
+            System.err.println(ANSICode.RED.getCode() + "Agent folder " + dir.getAbsolutePath() + " is not owned by the current user" + ANSICode.RESET.getCode());
+            System.exit(RetCode.ERROR.getCode());
+        }
+        Files.setPosixFilePermissions(dir.toPath(), PosixFilePermissions.fromString("rwx------"));
+        FileLock lock = FileChannel.open(new File(dir, "agent.lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE).tryLock();
+        if (lock == null) {
+            System.err.println(ANSICode.RED.getCode() + "Another client agent is running!" + ANSICode.RESET.getCode());
+            System.exit(RetCode.ERROR.getCode());
+        }
+        try {
+            // recreated to discard requests of a previous agent
+            File fifo = new File(dir, "agent.fifo");
+            Files.deleteIfExists(fifo.toPath());
+            ProcessUtils.createPOSIXNamedPipes(fifo);
+            Files.write(new File(dir, "agent.pid").toPath(), String.valueOf(Utils.getJVMPid()).getBytes(StandardCharsets.UTF_8));
+            startWatcher();
+            System.err.println(ANSICode.GREEN.getCode() + "Client agent listening on " + fifo.getAbsolutePath() + " ..." + ANSICode.RESET.getCode());
+            // opened for writing too, so that end-of-file is not reached when launchers close it
+            try (RandomAccessFile raf = new RandomAccessFile(fifo, "rw")) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(raf.getChannel()), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int sep = line.indexOf(' ');
+                    if (sep < 0) {
+                        continue;
+                    }
+                    final int pid;
+                    try {
+                        pid = Integer.parseInt(line.substring(0, sep));
+                    } catch (NumberFormatException ex) {
+                        continue;
+                    }
+                    final File requestDir = new File(line.substring(sep + 1)).getCanonicalFile();
+                    if (!dir.equals(requestDir.getParentFile())) {
+                        LOGGER.log(Level.WARNING, "Ignoring request folder " + requestDir.getAbsolutePath());
+                        continue;
+                    }
+                    Thread t = new Thread("agent-" + pid) {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(pid, requestDir);
+                            } finally {
+                                ACTIVE.remove(pid, this);
+                            }
+                        }
+                    };
+                    t.setDaemon(true);
+                    ACTIVE.put(pid, t);
+                    t.start();
+                }
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Interrupts the invocations whose launcher has exited, closing their
+     * connection so that the core cancels the job.
+     */
+    private static void startWatcher() {
+        Thread watcher = new Thread("agent-watcher") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(WATCH_MILLISECS);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                    for (Map.Entry<Integer, Thread> entry : ACTIVE.entrySet()) {
+                        if (!new File("/proc/" + entry.getKey()).exists()) {
+                            entry.getValue().interrupt();
+                        }
+                    }
+                }
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static String[] readNulSeparated(File f) throws IOException {
+        String str = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+        if (str.isEmpty()) {
+            return new String[0];
+        }
+        if (str.endsWith("\0")) {
+            str = str.substring(0, str.length() - 1);
+        }
+        return str.split("\0", -1);
+    }
+
+    private static void serve(int pid, File requestDir) {
+        OutputStream ret;
+        try {
+            ret = new FileOutputStream(new File(requestDir, "ret"));
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Launcher " + pid + " gone: " + ex.getMessage());
+            return;
+        }
+        String code = FALLBACK;
+        try {
+            String[] args = readNulSeparated(new File(requestDir, "args"));
+            String[] envEntries = readNulSeparated(new File(requestDir, "env"));
+            Miscellaneous.deleteDirectory(requestDir);
+            Map<String, String> env = new HashMap<>();
+            for (String entry : envEntries) {
+                int index = entry.indexOf('=');
+                if (index > 0) {
+                    env.put(entry.substring(0, index), entry.substring(index + 1));
+                }
+            }
+            File workingDirectory = Files.readSymbolicLink(Paths.get("/proc/" + pid + "/cwd")).toFile();
+            if (CoreUtils.isStdioAttachable(pid)) {
+                Pair<SubmitInput, File> request = SubmitMain.getRequest(args, env, workingDirectory, true);
+                if (request != null && request.getElement1().isAttachedStdio()) {
+                    code = String.valueOf(submit(pid, request));
+                }
+            }
+        } catch (Throwable th) {
+            LOGGER.log(Level.SEVERE, th.getMessage(), th);
+        } finally {
+            try {
+                ret.write((code + "\n").getBytes(StandardCharsets.UTF_8));
+                ret.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Launcher " + pid + " gone: " + ex.getMessage());
+            }
+        }
+    }
+
+    private static int submit(int pid, Pair<SubmitInput, File> request) {
+        SubmitInput input = request.getElement1();
+        input.setClientPid(pid);
+        try (PrintStream stderr = new PrintStream(new FileOutputStream("/proc/" + pid + "/fd/2", true), true)) {
+            OutputStream eventOs;
+            boolean prettyEvents;
+            if (request.getElement2() == null) {
+                eventOs = stderr;
+                prettyEvents = true;
+            } else {
+                eventOs = new FileOutputStream(request.getElement2());
+                prettyEvents = false;
+            }
+            try {
+                Integer retCode = new CommandLineRequestExecutor().executeRequest(OpName.submit, input, null, null, stderr, eventOs, prettyEvents);
+                if (retCode == null) {
+                    retCode = RetCode.ERROR.getCode();
+                }
+                return retCode;
+            } finally {
+                if (eventOs != stderr) {
+                    eventOs.close();
+                }
+            }
+        } catch (Throwable th) {
+            LOGGER.log(Level.FINE, "Submission of launcher " + pid + " aborted: " + th.getMessage(), th);
+            return RetCode.ERROR.getCode();
+        }
+    }
+}
@@ -57,6 +57,10 @@ public class WavaMain {
                 .longOpt("start")
                 .desc("start core scheduler process")
                 .build();
+        Option dOpt = Option.builder("d")
+                .longOpt("agent")
+                .desc(AgentMain.DESCRIPTION)
+                .build();
         Option uOpt = Option.builder("u")
                 .longOpt("update")
                 .desc("update to lastest version")
@@ -77,6 +81,10 @@ public class WavaMain {
                 .longOpt("cancel")
                 .desc(CancelMain.DESCRIPTION)
                 .build();
+        Option pOpt = Option.builder("p")
+                .longOpt("position")
+                .desc(PositionMain.DESCRIPTION)
+                .build();
         Option tOpt = Option.builder("t")
                 .longOpt("status")
                 .desc(StatusMain.DESCRIPTION)
@@ -93,10 +101,12 @@ public class WavaMain {
         options.addOption(aOpt);
         options.addOption(hOpt);
         options.addOption(sOpt);
+        options.addOption(dOpt);
         options.addOption(rOpt);
         options.addOption(gOpt);
         options.addOption(jOpt);
         options.addOption(cOpt);
+        options.addOption(pOpt);
         options.addOption(uOpt);
         options.addOption(tOpt);
         options.addOption(xOpt);
@@ -117,6 +127,8 @@ public class WavaMain {
                     showHelp(options);
                 } else if (cl.hasOption(sOpt.getOpt())) {
                     CoreMain.main(subArgs);
+                } else if (cl.hasOption(dOpt.getOpt())) {
+                    AgentMain.main(subArgs);
                 } else if (cl.hasOption(jOpt.getOpt())) {
                     ListJobsMain.main(subArgs);
                 } else if (cl.hasOption(gOpt.getOpt())) {
@@ -125,6 +137,8 @@ public class WavaMain {
                     SubmitMain.main(subArgs);
                 } else if (cl.hasOption(cOpt.getOpt())) {
                     CancelMain.main(args);
+                } else if (cl.hasOption(pOpt.getOpt())) {
+                    PositionMain.main(args);
                 } else if (cl.hasOption(uOpt.getOpt())) {
                     System.err.println("run the following script for updating: " + ANSICode.CYAN + new File(WavaHome.getInstance().getFile(), "bin/wava-update").getAbsolutePath() + ANSICode.RESET);
                 } else if (cl.hasOption(tOpt.getOpt())) {
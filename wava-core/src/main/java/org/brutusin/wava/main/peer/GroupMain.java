@@ -22,6 +22,7 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.brutusin.commons.utils.Miscellaneous;
 import org.brutusin.wava.core.io.CommandLineRequestExecutor;
 import org.brutusin.wava.utils.CoreUtils;
 import org.brutusin.wava.io.OpName;
@@ -45,7 +46,7 @@ public class GroupMain {
         Option nOpt = Option.builder("n")
                 .longOpt("name")
                 .argName("group name")
-                .desc("name of the group to be created or updated.")
+                .desc("name of the group to be created or updated. Subgroups are named after their parent group, separated by '/' (for example: org/team/project)")
                 .hasArg()
                 .build();
         Option dOpt = Option.builder("d")
@@ -66,12 +67,48 @@ public class GroupMain {
                 .desc("priority")
                 .hasArg()
                 .build();
+        Option wOpt = Option.builder("w")
+                .longOpt("weight")
+                .argName("integer")
+                .desc("share of the group relative to its sibling groups of the same priority. Default is 1")
+                .hasArg()
+                .build();
         Option tOpt = Option.builder("t")
                 .longOpt("idle")
                 .argName("integer")
                 .desc("time to idle. Elapsed time since the last executing job of the group finishes and the group is deleted. Default is -1, meaning that the group to be created is eternal")
                 .hasArg()
                 .build();
+        Option wallTimeOpt = Option.builder()
+                .longOpt("walltime")
+                .argName("[[hh:]mm:]ss")
+                .desc("default maximum elapsed time of the jobs of the group. 0 means no limit")
+                .hasArg()
+                .build();
+        Option cpuTimeOpt = Option.builder()
+                .longOpt("cputime")
+                .argName("[[hh:]mm:]ss")
+                .desc("default maximum CPU time of the jobs of the group. 0 means no limit")
+                .hasArg()
+                .build();
+        Option maxRssOpt = Option.builder()
+                .longOpt("max-rss")
+                .argName("memory")
+                .desc("maximum memory claimed by the running jobs of the group. 0 means no limit")
+                .hasArg()
+                .build();
+        Option maxJobsOpt = Option.builder()
+                .longOpt("max-jobs")
+                .argName("integer")
+                .desc("maximum number of running jobs of the group. 0 means no limit")
+                .hasArg()
+                .build();
+        Option minRssOpt = Option.builder()
+                .longOpt("min-rss")
+                .argName("memory")
+                .desc("memory guaranteed to the jobs of the group when they are waiting")
+                .hasArg()
+                .build();
         Option sOpt = Option.builder("s")
                 .longOpt("stats-folder")
                 .argName("file")
@@ -82,10 +119,16 @@ public class GroupMain {
         options.addOption(dOpt);
         options.addOption(nOpt);
         options.addOption(pOpt);
+        options.addOption(wOpt);
         options.addOption(tOpt);
         options.addOption(lOpt);
         options.addOption(hOpt);
         options.addOption(sOpt);
+        options.addOption(wallTimeOpt);
+        options.addOption(cpuTimeOpt);
+        options.addOption(maxRssOpt);
+        options.addOption(maxJobsOpt);
+        options.addOption(minRssOpt);
 
         try {
             CommandLineParser parser = new DefaultParser();
@@ -103,6 +146,16 @@ public class GroupMain {
                             throw new ParseException("Invalid " + pOpt.getOpt() + " value");
                         }
                     }
+                    if (cl.hasOption(wOpt.getOpt())) {
+                        try {
+                            gi.setWeight(Integer.valueOf(cl.getOptionValue(wOpt.getOpt())));
+                        } catch (NumberFormatException ex) {
+                            throw new ParseException("Invalid " + wOpt.getOpt() + " value");
+                        }
+                        if (gi.getWeight() <= 0) {
+                            throw new ParseException("Invalid " + wOpt.getOpt() + " value");
+                        }
+                    }
                     if (cl.hasOption(tOpt.getOpt())) {
                         try {
                             gi.setTimetoIdleSeconds(Integer.valueOf(cl.getOptionValue(tOpt.getOpt())));
@@ -113,6 +166,41 @@ public class GroupMain {
                     if (cl.hasOption(sOpt.getOpt())) {
                         gi.setStatsDirectory(new File(cl.getOptionValue(sOpt.getOpt())));
                     }
+                    if (cl.hasOption(wallTimeOpt.getLongOpt())) {
+                        try {
+                            gi.setWallTimeLimitSeconds(CoreUtils.parseSeconds(cl.getOptionValue(wallTimeOpt.getLongOpt())));
+                        } catch (IllegalArgumentException ex) {
+                            throw new ParseException("Invalid " + wallTimeOpt.getLongOpt() + " value");
+                        }
+                    }
+                    if (cl.hasOption(cpuTimeOpt.getLongOpt())) {
+                        try {
+                            gi.setCpuTimeLimitSeconds(CoreUtils.parseSeconds(cl.getOptionValue(cpuTimeOpt.getLongOpt())));
+                        } catch (IllegalArgumentException ex) {
+                            throw new ParseException("Invalid " + cpuTimeOpt.getLongOpt() + " value");
+                        }
+                    }
+                    if (cl.hasOption(maxRssOpt.getLongOpt())) {
+                        try {
+                            gi.setMaxRss(Miscellaneous.parseHumanReadableByteCount(cl.getOptionValue(maxRssOpt.getLongOpt())));
+                        } catch (IllegalArgumentException ex) {
+                            throw new ParseException("Invalid " + maxRssOpt.getLongOpt() + " value");
+                        }
+                    }
+                    if (cl.hasOption(maxJobsOpt.getLongOpt())) {
+                        try {
+                            gi.setMaxJobs(Integer.valueOf(cl.getOptionValue(maxJobsOpt.getLongOpt())));
+                        } catch (NumberFormatException ex) {
+                            throw new ParseException("Invalid " + maxJobsOpt.getLongOpt() + " value");
+                        }
+                    }
+                    if (cl.hasOption(minRssOpt.getLongOpt())) {
+                        try {
+                            gi.setMinRss(Miscellaneous.parseHumanReadableByteCount(cl.getOptionValue(minRssOpt.getLongOpt())));
+                        } catch (IllegalArgumentException ex) {
+                            throw new ParseException("Invalid " + minRssOpt.getLongOpt() + " value");
+                        }
+                    }
                 }
             } else if (cl.hasOption(lOpt.getOpt())) {
                 gi.setList(true);
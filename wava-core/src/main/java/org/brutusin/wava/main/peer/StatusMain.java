@@ -15,8 +15,10 @@
  */
 package org.brutusin.wava.main.peer;
 
+import org.brutusin.wava.core.io.CommandLineRequestExecutor;
 import org.brutusin.wava.utils.CoreUtils;
-import org.brutusin.wava.utils.ANSICode;
+import org.brutusin.wava.io.OpName;
+import org.brutusin.wava.io.RetCode;
 
 /**
  *
@@ -24,11 +26,14 @@ import org.brutusin.wava.utils.ANSICode;
  */
 public class StatusMain {
 
-    public static final String DESCRIPTION = "return core process status";
+    public static final String DESCRIPTION = "return core process status and group deadline statistics";
 
     public static void main(String[] args) throws Exception {
         CoreUtils.validateCoreRunning();
-        System.err.println(ANSICode.GREEN + "Running" + ANSICode.RESET);
-        System.exit(0);
+        Integer retCode = new CommandLineRequestExecutor().executeRequest(OpName.status, null);
+        if (retCode == null) {
+            retCode = RetCode.ERROR.getCode();
+        }
+        System.exit(retCode);
     }
 }
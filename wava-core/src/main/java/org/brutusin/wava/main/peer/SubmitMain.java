@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.Map;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -61,7 +62,35 @@ public class SubmitMain {
         return -1;
     }
 
-    private static Pair<SubmitInput, File> getRequest(String[] args) {
+    private static int[] parseJobIds(Option option, String value) throws ParseException {
+        String[] tokens = value.split(",");
+        int[] ret = new int[tokens.length];
+        try {
+            for (int i = 0; i < tokens.length; i++) {
+                ret[i] = Integer.valueOf(tokens[i].trim());
+            }
+        } catch (NumberFormatException ex) {
+            throw new ParseException("Invalid job ids (--" + option.getLongOpt() + ") value");
+        }
+        return ret;
+    }
+
+    private static File resolve(File workingDirectory, String path) {
+        File file = new File(path);
+        if (file.isAbsolute() || workingDirectory.getPath().isEmpty()) {
+            return file;
+        }
+        return new File(workingDirectory, path);
+    }
+
+    /**
+     * Parses the submission arguments of a process with the specified
+     * environment and working directory. Relative paths are resolved against
+     * the latter.
+     *
+     * @return {@code null} if the arguments are invalid or help is requested
+     */
+    public static Pair<SubmitInput, File> getRequest(String[] args, Map<String, String> environment, File workingDirectory, boolean stdioAttachable) {
         Options options = new Options();
         Option hOpt = Option.builder("h")
                 .longOpt("help")
@@ -74,6 +103,12 @@ public class SubmitMain {
                 .desc("required RSS memory")
                 .required()
                 .build();
+        Option bOpt = Option.builder("b")
+                .longOpt("children-budget")
+                .argName("mem value")
+                .hasArg()
+                .desc("additional memory reserved for the jobs submitted by this job. Children fitting in the budget start without queuing")
+                .build();
         Option eOpt = Option.builder("e")
                 .longOpt("event-file")
                 .argName("file")
@@ -92,6 +127,84 @@ public class SubmitMain {
                 .hasArg()
                 .desc("priority group of the execution. Jobs of the same group follow a FIFO ordering")
                 .build();
+        Option aOpt = Option.builder("a")
+                .longOpt("array")
+                .argName("size")
+                .hasArg()
+                .desc("submit a job array of the specified number of tasks. Each task receives its index in variable " + EnvEntry.WAVA_ARRAY_INDEX.name())
+                .build();
+        Option afterOkOpt = Option.builder()
+                .longOpt("after-ok")
+                .argName("job ids")
+                .hasArg()
+                .desc("comma-separated ids of the jobs that have to finish successfully before this job is queued")
+                .build();
+        Option afterAnyOpt = Option.builder()
+                .longOpt("after-any")
+                .argName("job ids")
+                .hasArg()
+                .desc("comma-separated ids of the jobs that have to finish before this job is queued")
+                .build();
+        Option afterNotOkOpt = Option.builder()
+                .longOpt("after-fail")
+                .argName("job ids")
+                .hasArg()
+                .desc("comma-separated ids of the jobs that have to fail before this job is queued")
+                .build();
+        Option wallTimeOpt = Option.builder()
+                .longOpt("walltime")
+                .argName("[[hh:]mm:]ss")
+                .hasArg()
+                .desc("maximum elapsed time of the job. If exceeded, the job is sent a SIGTERM and killed after a grace period. Default is given by the group")
+                .build();
+        Option cpuTimeOpt = Option.builder()
+                .longOpt("cputime")
+                .argName("[[hh:]mm:]ss")
+                .hasArg()
+                .desc("maximum CPU time of the job. If exceeded, the job is sent a SIGTERM and killed after a grace period. Default is given by the group")
+                .build();
+        Option deadlineOpt = Option.builder()
+                .longOpt("deadline")
+                .argName("[[hh:]mm:]ss")
+                .hasArg()
+                .desc("time from now the job has to finish by. Jobs whose deadline cannot be met are rejected")
+                .build();
+        Option estimateOpt = Option.builder()
+                .longOpt("estimate")
+                .argName("[[hh:]mm:]ss")
+                .hasArg()
+                .desc("expected running time of the job. If not set, the running time of previous executions of the same command is used")
+                .build();
+        Option gangOpt = Option.builder()
+                .longOpt("gang")
+                .argName("name:size")
+                .hasArg()
+                .desc("gang membership. The jobs of a gang are started together once its size members have been submitted, and are killed together if any of them fails")
+                .build();
+        Option stdoutOpt = Option.builder("o")
+                .longOpt("stdout")
+                .argName("file")
+                .hasArg()
+                .desc("file to write the job stdout to, instead of the peer stdout. In job arrays %a is replaced by the task index")
+                .build();
+        Option stderrOpt = Option.builder()
+                .longOpt("stderr")
+                .argName("file")
+                .hasArg()
+                .desc("file to write the job stderr to, instead of the peer stderr. In job arrays %a is replaced by the task index")
+                .build();
+        Option appendOpt = Option.builder()
+                .longOpt("append")
+                .desc("append to the output files instead of truncating them")
+                .build();
+        Option forwardOpt = Option.builder()
+                .longOpt("forward-stdio")
+                .desc("forward the standard streams through the core, instead of attaching them directly to the job")
+                .build();
+        Option noPositionOpt = Option.builder()
+                .longOpt("no-position-events")
+                .desc("do not notify the queue position changes of the job")
+                .build();
         Option iOpt = Option.builder("i")
                 .longOpt("idempotent")
                 .desc("priority group of the execution. Jobs of the same group follow a FIFO ordering")
@@ -99,10 +212,25 @@ public class SubmitMain {
 
         options.addOption(hOpt);
         options.addOption(mOpt);
+        options.addOption(bOpt);
         options.addOption(gOpt);
         options.addOption(eOpt);
         options.addOption(iOpt);
         options.addOption(sOpt);
+        options.addOption(aOpt);
+        options.addOption(afterOkOpt);
+        options.addOption(afterAnyOpt);
+        options.addOption(afterNotOkOpt);
+        options.addOption(wallTimeOpt);
+        options.addOption(cpuTimeOpt);
+        options.addOption(deadlineOpt);
+        options.addOption(estimateOpt);
+        options.addOption(gangOpt);
+        options.addOption(stdoutOpt);
+        options.addOption(stderrOpt);
+        options.addOption(appendOpt);
+        options.addOption(forwardOpt);
+        options.addOption(noPositionOpt);
 
         int commandStart = getCommandStart(options, args);
         if (commandStart == -1) {
@@ -119,7 +247,7 @@ public class SubmitMain {
             }
             File eventFile;
             if (cl.hasOption(eOpt.getOpt())) {
-                eventFile = new File(cl.getOptionValue(eOpt.getOpt()));
+                eventFile = resolve(workingDirectory, cl.getOptionValue(eOpt.getOpt()));
             } else {
                 eventFile = null;
             }
@@ -131,25 +259,113 @@ public class SubmitMain {
                 throw new ParseException("Invalid memory (-" + mOpt.getOpt() + ") value");
             }
             ExtendedSubmitInput ri = new ExtendedSubmitInput();
-            String envJobId = System.getenv(EnvEntry.WAVA_JOB_ID.name());
+            String envJobId = environment.get(EnvEntry.WAVA_JOB_ID.name());
             if (envJobId != null) {
                 ri.setParentId(Integer.valueOf(envJobId));
             }
             ri.setCommand(Arrays.copyOfRange(args, commandStart, args.length));
             ri.setMaxRSS(memory);
-            ri.setWorkingDirectory(new File(""));
-            ri.setEnvironment(System.getenv());
+            if (cl.hasOption(bOpt.getOpt())) {
+                try {
+                    ri.setChildrenBudget(Miscellaneous.parseHumanReadableByteCount(cl.getOptionValue(bOpt.getOpt())));
+                } catch (IllegalArgumentException ex) {
+                    throw new ParseException("Invalid children budget (-" + bOpt.getOpt() + ") value");
+                }
+            }
+            ri.setWorkingDirectory(workingDirectory);
+            ri.setEnvironment(environment);
             if (cl.hasOption(gOpt.getOpt())) {
                 String group = cl.getOptionValue(gOpt.getOpt());
                 ri.setGroupName(group);
             }
             if (cl.hasOption(sOpt.getOpt())) {
-                File folder = new File(cl.getOptionValue(sOpt.getOpt()));
+                File folder = resolve(workingDirectory, cl.getOptionValue(sOpt.getOpt()));
                 ri.setStatsDirectory(folder);
             }
             if (cl.hasOption(iOpt.getOpt())) {
                 ri.setIdempotent(true);
             }
+            if (cl.hasOption(aOpt.getOpt())) {
+                try {
+                    ri.setArraySize(Integer.valueOf(cl.getOptionValue(aOpt.getOpt())));
+                } catch (NumberFormatException ex) {
+                    throw new ParseException("Invalid array size (-" + aOpt.getOpt() + ") value");
+                }
+                if (ri.getArraySize() < 1) {
+                    throw new ParseException("Invalid array size (-" + aOpt.getOpt() + ") value");
+                }
+            }
+            if (cl.hasOption(afterOkOpt.getLongOpt())) {
+                ri.setAfterOk(parseJobIds(afterOkOpt, cl.getOptionValue(afterOkOpt.getLongOpt())));
+            }
+            if (cl.hasOption(afterAnyOpt.getLongOpt())) {
+                ri.setAfterAny(parseJobIds(afterAnyOpt, cl.getOptionValue(afterAnyOpt.getLongOpt())));
+            }
+            if (cl.hasOption(afterNotOkOpt.getLongOpt())) {
+                ri.setAfterNotOk(parseJobIds(afterNotOkOpt, cl.getOptionValue(afterNotOkOpt.getLongOpt())));
+            }
+            if (cl.hasOption(wallTimeOpt.getLongOpt())) {
+                try {
+                    ri.setWallTimeLimitSeconds(CoreUtils.parseSeconds(cl.getOptionValue(wallTimeOpt.getLongOpt())));
+                } catch (IllegalArgumentException ex) {
+                    throw new ParseException("Invalid --" + wallTimeOpt.getLongOpt() + " value");
+                }
+            }
+            if (cl.hasOption(cpuTimeOpt.getLongOpt())) {
+                try {
+                    ri.setCpuTimeLimitSeconds(CoreUtils.parseSeconds(cl.getOptionValue(cpuTimeOpt.getLongOpt())));
+                } catch (IllegalArgumentException ex) {
+                    throw new ParseException("Invalid --" + cpuTimeOpt.getLongOpt() + " value");
+                }
+            }
+            if (cl.hasOption(deadlineOpt.getLongOpt())) {
+                try {
+                    ri.setDeadline(System.currentTimeMillis() + 1000L * CoreUtils.parseSeconds(cl.getOptionValue(deadlineOpt.getLongOpt())));
+                } catch (IllegalArgumentException ex) {
+                    throw new ParseException("Invalid --" + deadlineOpt.getLongOpt() + " value");
+                }
+            }
+            if (cl.hasOption(estimateOpt.getLongOpt())) {
+                try {
+                    ri.setEstimatedRuntimeSeconds(CoreUtils.parseSeconds(cl.getOptionValue(estimateOpt.getLongOpt())));
+                } catch (IllegalArgumentException ex) {
+                    throw new ParseException("Invalid --" + estimateOpt.getLongOpt() + " value");
+                }
+            }
+            if (cl.hasOption(gangOpt.getLongOpt())) {
+                String value = cl.getOptionValue(gangOpt.getLongOpt());
+                int index = value.lastIndexOf(':');
+                if (index < 1) {
+                    throw new ParseException("Invalid --" + gangOpt.getLongOpt() + " value");
+                }
+                ri.setGang(value.substring(0, index));
+                try {
+                    ri.setGangSize(Integer.valueOf(value.substring(index + 1)));
+                } catch (NumberFormatException ex) {
+                    throw new ParseException("Invalid --" + gangOpt.getLongOpt() + " value");
+                }
+                if (ri.getGangSize() < 1) {
+                    throw new ParseException("Invalid --" + gangOpt.getLongOpt() + " value");
+                }
+                if (ri.getArraySize() > 0) {
+                    throw new ParseException("Job arrays cannot be gang members");
+                }
+            }
+            if (cl.hasOption(stdoutOpt.getOpt())) {
+                ri.setStdoutFile(resolve(workingDirectory, cl.getOptionValue(stdoutOpt.getOpt())).getAbsoluteFile());
+            }
+            if (cl.hasOption(stderrOpt.getLongOpt())) {
+                ri.setStderrFile(resolve(workingDirectory, cl.getOptionValue(stderrOpt.getLongOpt())).getAbsoluteFile());
+            }
+            if (cl.hasOption(appendOpt.getLongOpt())) {
+                ri.setAppendOutput(true);
+            }
+            if (cl.hasOption(noPositionOpt.getLongOpt())) {
+                ri.setNoQueuePositionEvents(true);
+            }
+            if (!cl.hasOption(forwardOpt.getLongOpt())) {
+                ri.setAttachedStdio(stdioAttachable);
+            }
             return new Pair(ri, eventFile);
         } catch (ParseException exp) {
             System.err.println("Parsing failed.  Reason: " + exp.getMessage() + "\n");
@@ -160,7 +376,7 @@ public class SubmitMain {
 
     public static void main(String[] args) throws Exception {
         CoreUtils.validateCoreRunning();
-        Pair<SubmitInput, File> pair = getRequest(args);
+        Pair<SubmitInput, File> pair = getRequest(args, System.getenv(), new File(""), CoreUtils.isStdioAttachable());
         if (pair == null) {
             System.exit(RetCode.ERROR.getCode());
         }
@@ -17,6 +17,8 @@ package org.brutusin.wava.utils;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.brutusin.commons.utils.Miscellaneous;
@@ -88,6 +90,56 @@ public final class CoreUtils {
         }
     }
 
+    /**
+     * Parses a duration in the form {@code [[hours:]minutes:]seconds}.
+     */
+    public static int parseSeconds(String str) {
+        if (str == null) {
+            throw new IllegalArgumentException("Duration is required");
+        }
+        String[] tokens = str.trim().split(":");
+        if (tokens.length > 3) {
+            throw new IllegalArgumentException("Invalid duration: " + str);
+        }
+        int ret = 0;
+        for (String token : tokens) {
+            int value;
+            try {
+                value = Integer.parseInt(token);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid duration: " + str);
+            }
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid duration: " + str);
+            }
+            ret = ret * 60 + value;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns whether the standard streams of this process can be reopened by
+     * other processes through {@code /proc/<pid>/fd}, that is, if none of them
+     * is closed or a socket.
+     */
+    public static boolean isStdioAttachable() {
+        return isStdioAttachable(Utils.getJVMPid());
+    }
+
+    public static boolean isStdioAttachable(int pid) {
+        for (int fd = 0; fd <= 2; fd++) {
+            try {
+                String target = Files.readSymbolicLink(Paths.get("/proc/" + pid + "/fd/" + fd)).toString();
+                if (target.startsWith("socket:") || target.startsWith("anon_inode:")) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void validateCoreRunning() throws IOException, WavaNotRunningException {
         if (!Utils.isCoreRunning()) {
            throw new WavaNotRunningException();
@@ -120,6 +120,23 @@ public class LinuxCommands {
         createGroupIOCgroup(groupName);
     }
 
+    /**
+     * Sets the relative CPU weight of the group among its sibling cgroups.
+     * Requires the cpu controller to be mounted together with cpuacct.
+     */
+    public static void setGroupCpuShares(String groupName, int shares) {
+        try {
+            File f = new File(CPUACCT_CGROUP_ROOT, groupName + "/cpu.shares");
+            if (f.exists()) {
+                Miscellaneous.writeStringToFile(f, String.valueOf(shares), "UTF-8");
+            } else {
+                LOGGER.warning("CPU shares are not enabled");
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     private static void createGroupMemoryCgroup(String groupName) {
         try {
             File f = new File(MEMORY_CGROUP_ROOT, groupName);
@@ -334,6 +351,16 @@ public class LinuxCommands {
         sendSignal(visitedIds, 9); // SIGKILL
     }
 
+    /**
+     * Sends a SIGTERM to all the processes of the tree, giving them the chance
+     * to finish gracefully.
+     */
+    public static void terminateTree(int pId) {
+        List<Integer> visitedIds = new ArrayList<>();
+        getTree(visitedIds, pId, false);
+        sendSignal(visitedIds, 15); // SIGTERM
+    }
+
     private static void getTree(List<Integer> visited, int pId, boolean stop) {
         try {
             if (stop) {
@@ -459,6 +486,17 @@ public class LinuxCommands {
     }
 
     public static String[] decorateRunAsCommand(String[] cmd, String user) {
+        return decorateRunAsCommand(cmd, user, null, null, true, null, true);
+    }
+
+    /**
+     * Runs the command as the specified user, redirecting its standard streams
+     * to the specified files (if not null). Files are opened by the user
+     * shell, hence with the permissions of the user, and their paths are
+     * taken literally. Output files are truncated unless the corresponding
+     * append flag is set.
+     */
+    public static String[] decorateRunAsCommand(String[] cmd, String user, String stdin, String stdout, boolean appendStdout, String stderr, boolean appendStderr) {
         StringBuilder sb = new StringBuilder("");
         for (int i = 0; i < cmd.length; i++) {
             if (i > 0) {
@@ -466,9 +504,25 @@ public class LinuxCommands {
             }
             sb.append("\"").append(cmd[i].replaceAll("\"", "\\\\\"")).append("\"");
         }
+        if (stdin != null) {
+            sb.append(" < ").append(singleQuote(stdin));
+        }
+        if (stdout != null) {
+            sb.append(appendStdout ? " >> " : " > ").append(singleQuote(stdout));
+        }
+        if (stderr != null) {
+            sb.append(appendStderr ? " 2>> " : " 2> ").append(singleQuote(stderr));
+        }
         return new String[]{"runuser", "-p", user, "-c", sb.toString()};
     }
 
+    /**
+     * Quotes the value so that the shell does not perform any expansion on it.
+     */
+    private static String singleQuote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
     public static String[] decorateRunInCgroup(String[] cmd, String groupName, int jobId) {
         StringBuilder sb = new StringBuilder("echo $$ >");
         sb.append(new File(Config.getInstance().getSchedulerCfg().getCgroupRootPath() + "/memory/" + WavaHome.getInstance().getId() + "/" + groupName + "/" + jobId + "/cgroup.procs").getAbsolutePath());
@@ -496,12 +550,4 @@ public class LinuxCommands {
             throw new RuntimeException(ex);
         }
     }
-
-    public static String getFileOwner(File f) {
-        try {
-            return executeBashCommand("ls -ld \"" + f.getAbsolutePath() + "\" | awk 'NR==1 {print $3}'");
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
-    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel shared by all the core timeouts, so that a pending
+ * timeout costs a list node instead of a sleeping thread. Tasks are run by the
+ * wheel thread and must be short; longer work has to be handed off to an
+ * executor.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class TimerWheel {
+
+    private static final Logger LOGGER = Logger.getLogger(TimerWheel.class.getName());
+    private static final int TICK_MILLISECS = 10;
+    private static final int WHEEL_SIZE = 1024;
+    private static final TimerWheel INSTANCE = new TimerWheel(TICK_MILLISECS, WHEEL_SIZE);
+
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startTime;
+    private final Thread thread;
+    private long tick;
+
+    TimerWheel(int tickMillisecs, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillisecs);
+        this.mask = wheelSize - 1;
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.startTime = System.nanoTime();
+        this.thread = new Thread("timer-wheel") {
+            @Override
+            public void run() {
+                while (true) {
+                    long deadline = waitForNextTick();
+                    transferTimeouts();
+                    wheel[(int) (tick & mask)].expire(deadline);
+                    tick++;
+                }
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public static TimerWheel getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Schedules the execution of the task after the specified delay. Precision
+     * is limited to the wheel tick (10 ms).
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("task is required");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos <= 0) {
+                return deadline;
+            }
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleepNanos + 999999));
+            } catch (InterruptedException ex) {
+                // daemon thread, never stopped
+            }
+        }
+    }
+
+    private void transferTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.state.get() == Timeout.CANCELLED) {
+                continue;
+            }
+            long calculated = (timeout.deadline - startTime) / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            // already expired timeouts are run in the current tick
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public static final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return {@code true} if the task was prevented from running
+         */
+        public boolean cancel() {
+            // the node is unlinked lazily, when its bucket is visited
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable th) {
+                LOGGER.log(Level.SEVERE, "Error running timeout task", th);
+            }
+        }
+    }
+
+    private final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state.get() == Timeout.CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline - startTime <= deadline) {
+                        timeout.expire();
+                    } else {
+                        // should not happen, reinsert to be safe
+                        newTimeouts.add(timeout);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class JobSetTest {
+
+    public JobSetTest() {
+    }
+
+    @Test
+    public void agingBoostsQueuedJobs() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.setGroupOrder(2, 4, 1);
+        js.queue(1, 1, Long.MAX_VALUE);
+        js.epoch = 2;
+        js.queue(2, 2, Long.MAX_VALUE);
+        assertEquals(Arrays.asList(1, 2), toList(js, js.getQueue()));
+        assertEquals(3, js.getEffectivePriority(1));
+        assertEquals(4, js.getEffectivePriority(2));
+    }
+
+    @Test
+    public void priorityWinsWithinAnEpoch() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.setGroupOrder(2, 4, 1);
+        js.queue(1, 1, Long.MAX_VALUE);
+        js.queue(2, 2, Long.MAX_VALUE);
+        js.epoch = 10;
+        assertEquals(Arrays.asList(2, 1), toList(js, js.getQueue()));
+    }
+
+    @Test
+    public void runningJobsAreNotBoosted() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.queue(1, 1, Long.MAX_VALUE);
+        js.epoch = 3;
+        js.run(1);
+        assertEquals(5, js.getEffectivePriority(1));
+    }
+
+    @Test
+    public void pendingJobsAgeOnceReleased() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.pend(1, 1, Long.MAX_VALUE);
+        js.epoch = 4;
+        js.release(1);
+        assertEquals(5, js.getEffectivePriority(1));
+        js.epoch = 5;
+        assertEquals(4, js.getEffectivePriority(1));
+    }
+
+    @Test
+    public void startedTasksGoAfterRunningJobs() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.epoch = 2;
+        js.queue(1, 1, Long.MAX_VALUE);
+        js.run(1);
+        js.epoch = 3;
+        js.start(2, 1, Long.MAX_VALUE);
+        assertEquals(Arrays.asList(1, 2), toList(js, js.getRunning()));
+    }
+
+    @Test
+    public void queueMergesGroupsInKeyOrder() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.setGroupOrder(2, 5, 1);
+        js.setGroupOrder(3, 4, 2);
+        js.queue(1, 1, Long.MAX_VALUE);
+        js.queue(2, 2, Long.MAX_VALUE);
+        js.epoch = 1;
+        js.queue(3, 1, Long.MAX_VALUE);
+        js.queue(4, 2, Long.MAX_VALUE);
+        js.queue(5, 3, Long.MAX_VALUE);
+        assertEquals(Arrays.asList(1, 2, 5, 3, 4), toList(js, js.getQueue()));
+    }
+
+    @Test
+    public void skipGroupJumpsAllItsJobs() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.setGroupOrder(2, 5, 1);
+        for (int i = 0; i < 10; i++) {
+            js.epoch = i;
+            js.queue(2 * i + 1, 1, Long.MAX_VALUE);
+            js.queue(2 * i + 2, 2, Long.MAX_VALUE);
+        }
+        List<Integer> ret = new ArrayList<>();
+        synchronized (js) {
+            JobSet.QueueIterator it = js.getQueue();
+            while (it.hasNext()) {
+                Integer id = it.next();
+                ret.add(id);
+                if (id == 1) {
+                    it.skipGroup();
+                }
+            }
+        }
+        assertEquals(Arrays.asList(1, 2, 4, 6, 8, 10, 12, 14, 16, 18, 20), ret);
+    }
+
+    @Test
+    public void iteratorMovesJobsToRunning() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.setGroupOrder(2, 5, 1);
+        js.queue(1, 1, Long.MAX_VALUE);
+        js.queue(2, 1, Long.MAX_VALUE);
+        js.queue(3, 2, Long.MAX_VALUE);
+        synchronized (js) {
+            JobSet.QueueIterator it = js.getQueue();
+            while (it.hasNext()) {
+                if (it.next() != 2) {
+                    it.moveToRunning();
+                }
+            }
+        }
+        assertEquals(Arrays.asList(2), toList(js, js.getQueue()));
+        assertEquals(Arrays.asList(1, 3), toList(js, js.getRunning()));
+        assertEquals(JobSet.State.running, js.getState(3));
+        assertEquals(1, js.countQueued());
+        assertEquals(2, js.countRunning());
+    }
+
+    @Test
+    public void groupOrderChangesReorderAllItsJobs() {
+        ManualJobSet js = new ManualJobSet();
+        js.setGroupOrder(1, 5, 0);
+        js.setGroupOrder(2, 5, 1);
+        js.queue(1, 1, Long.MAX_VALUE);
+        js.queue(2, 2, Long.MAX_VALUE);
+        js.queue(3, 1, Long.MAX_VALUE);
+        js.queue(4, 2, Long.MAX_VALUE);
+        js.pend(5, 2, Long.MAX_VALUE);
+        js.pend(6, 1, Long.MAX_VALUE);
+        assertEquals(Arrays.asList(1, 3, 2, 4), toList(js, js.getQueue()));
+        js.setGroupOrder(2, 5, -1);
+        assertEquals(Arrays.asList(2, 4, 1, 3), toList(js, js.getQueue()));
+        assertEquals(Arrays.asList(5, 6), toList(js, js.getPending()));
+        js.setGroupOrder(1, 3, 0);
+        assertEquals(Arrays.asList(1, 3, 2, 4), toList(js, js.getQueue()));
+        assertEquals(3, js.getEffectivePriority(1));
+    }
+
+    private static List<Integer> toList(JobSet js, Iterator<Integer> it) {
+        synchronized (js) {
+            List<Integer> ret = new ArrayList<>();
+            while (it.hasNext()) {
+                ret.add(it.next());
+            }
+            return ret;
+        }
+    }
+
+    private static final class ManualJobSet extends JobSet {
+
+        private long epoch;
+
+        public ManualJobSet() {
+            super(false, 1);
+        }
+
+        @Override
+        long getCurrentEpoch() {
+            return epoch;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class LaunchGovernorTest {
+
+    public LaunchGovernorTest() {
+    }
+
+    @Test
+    public void refillsTokens() throws Exception {
+        LaunchGovernor governor = new LaunchGovernor(20, 2, 0, 0);
+        assertTrue(governor.tryAcquire(1));
+        assertTrue(governor.tryAcquire(1));
+        assertFalse(governor.tryAcquire(1));
+        // one token every 50 ms
+        assertEquals(50, governor.getRetryMillis(1));
+        Thread.sleep(120);
+        assertTrue(governor.tryAcquire(1));
+        assertTrue(governor.tryAcquire(1));
+        assertFalse(governor.tryAcquire(1));
+    }
+
+    @Test
+    public void oversizedRequestsDelayTheNextOnes() {
+        LaunchGovernor governor = new LaunchGovernor(10, 2, 0, 0);
+        assertTrue(governor.tryAcquire(5));
+        assertFalse(governor.tryAcquire(1));
+        assertTrue(governor.getRetryMillis(1) >= 350);
+    }
+
+    @Test
+    public void limitsInFlightLaunches() {
+        LaunchGovernor governor = new LaunchGovernor(0, 1, 2, 0);
+        assertTrue(governor.tryAcquire(1));
+        assertTrue(governor.tryAcquire(1));
+        assertFalse(governor.tryAcquire(1));
+        governor.release();
+        assertTrue(governor.tryAcquire(1));
+        governor.release();
+        governor.release();
+        governor.release();
+        // a gang bigger than the limit is granted once nothing is in flight
+        assertTrue(governor.tryAcquire(5));
+    }
+
+    @Test
+    public void adaptsToLoad() {
+        LaunchGovernor governor = new LaunchGovernor(10, 1, 0, 1.0);
+        assertTrue(governor.tryAcquire(1));
+        long retry = governor.getRetryMillis(1);
+        governor.updateLoad(-1);
+        assertEquals(retry, governor.getRetryMillis(1), 10);
+        governor.updateLoad(2.0);
+        // half the rate, twice the wait
+        assertTrue(governor.getRetryMillis(1) >= 150);
+        governor.updateLoad(0.5);
+        governor.updateLoad(0.5);
+        governor.updateLoad(0.5);
+        governor.updateLoad(0.5);
+        governor.updateLoad(0.5);
+        assertTrue(governor.getRetryMillis(1) <= retry);
+    }
+}
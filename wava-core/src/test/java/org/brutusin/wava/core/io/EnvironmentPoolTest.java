@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.brutusin.wava.Utils;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class EnvironmentPoolTest {
+
+    public EnvironmentPoolTest() {
+    }
+
+    @Test
+    public void internsEqualEnvironments() {
+        EnvironmentPool pool = new EnvironmentPool();
+        Map<String, String> env = pool.intern("user", environment("A", "1", "B", "2"));
+        assertSame(env, pool.intern("user", environment("B", "2", "A", "1")));
+        assertEquals(environment("A", "1", "B", "2"), env);
+        try {
+            env.put("C", "3");
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // pooled instances are shared
+        }
+    }
+
+    @Test
+    public void resolvesHashesOfTheSameUser() {
+        EnvironmentPool pool = new EnvironmentPool();
+        Map<String, String> env = pool.intern("user1", environment("A", "1"));
+        String hash = Utils.getEnvironmentHash(env);
+        assertSame(env, pool.get("user1", hash));
+        assertNull(pool.get("user2", hash));
+        assertNotSame(env, pool.intern("user2", environment("A", "1")));
+        assertNull(pool.get("user1", Utils.getEnvironmentHash(environment("A", "2"))));
+    }
+
+    @Test
+    public void hashesNullAndEmptyValuesDifferently() {
+        assertEquals(Utils.getEnvironmentHash(environment("A", "1", "B", "2")), Utils.getEnvironmentHash(environment("B", "2", "A", "1")));
+        assertFalse(Utils.getEnvironmentHash(environment("A", null)).equals(Utils.getEnvironmentHash(environment("A", ""))));
+        assertFalse(Utils.getEnvironmentHash(environment("A", null, "B", "")).equals(Utils.getEnvironmentHash(environment("A", "", "B", null))));
+    }
+
+    private static Map<String, String> environment(String... keyValues) {
+        Map<String, String> ret = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            ret.put(keyValues[i], keyValues[i + 1]);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class MessageBufferTest {
+
+    public MessageBufferTest() {
+    }
+
+    @Test
+    public void encodesUtf8() throws IOException {
+        String[] values = {"", "ascii", "\u00f1and\u00fa", "\u20ac 10", "\u65e5\u672c\u8a9e", "\uD83D\uDE00 emoji", "mixed a\u00e9\u20ac\uD83D\uDE00z"};
+        for (String value : values) {
+            assertArrayEquals(value, value.getBytes(StandardCharsets.UTF_8), bytes(new MessageBuffer(1).append(value)));
+        }
+    }
+
+    @Test
+    public void replacesUnpairedSurrogates() throws IOException {
+        String[] values = {"\uD83D", "a\uD83Db", "\uDE00", "a\uDE00\uD83D", "end\uD83D"};
+        for (String value : values) {
+            // same replacement as String.getBytes
+            assertArrayEquals(value, value.getBytes(StandardCharsets.UTF_8), bytes(new MessageBuffer(1).append(value)));
+        }
+    }
+
+    @Test
+    public void encodesChars() throws IOException {
+        MessageBuffer mb = new MessageBuffer(1);
+        mb.append('a').append('\u00f1').append('\u20ac');
+        assertArrayEquals("a\u00f1\u20ac".getBytes(StandardCharsets.UTF_8), bytes(mb));
+    }
+
+    @Test
+    public void encodesNumbers() throws IOException {
+        long[] values = {0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertEquals(String.valueOf(value), new String(bytes(new MessageBuffer(1).append(value)), StandardCharsets.UTF_8));
+        }
+        assertEquals("42", new String(bytes(new MessageBuffer(1).append((Object) 42)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void encodesBigEndian() throws IOException {
+        MessageBuffer mb = new MessageBuffer(1);
+        mb.appendByte(0xFF).appendInt32(0).appendInt64(0x0102030405060708L);
+        mb.setInt32(1, 0x0A0B0C0D);
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0x0A, 0x0B, 0x0C, 0x0D, 1, 2, 3, 4, 5, 6, 7, 8}, bytes(mb));
+    }
+
+    @Test
+    public void truncate() throws IOException {
+        MessageBuffer mb = new MessageBuffer(4);
+        mb.append("header:");
+        int size = mb.size();
+        mb.append("discarded");
+        mb.truncate(size);
+        mb.append("body");
+        assertEquals("header:body", new String(bytes(mb), StandardCharsets.UTF_8));
+        mb.reset();
+        assertEquals(0, mb.size());
+    }
+
+    private static byte[] bytes(MessageBuffer mb) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        mb.writeTo(os);
+        return os.toByteArray();
+    }
+}
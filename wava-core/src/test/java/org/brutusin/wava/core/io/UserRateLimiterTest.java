@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.core.io;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class UserRateLimiterTest {
+
+    public UserRateLimiterTest() {
+    }
+
+    @Test
+    public void disabled() {
+        UserRateLimiter limiter = new UserRateLimiter(0, 0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.reserve("user"));
+        }
+    }
+
+    @Test
+    public void delaysRequestsOverTheBurst() {
+        UserRateLimiter limiter = new UserRateLimiter(2, 10000);
+        assertEquals(0, limiter.reserve("user"));
+        assertEquals(0, limiter.reserve("user"));
+        long delay = limiter.reserve("user");
+        assertTrue(delay > 0 && delay <= 500);
+        // the debt is accumulated
+        assertTrue(limiter.reserve("user") > delay);
+    }
+
+    @Test
+    public void rejectsLongDelays() {
+        UserRateLimiter limiter = new UserRateLimiter(1, 100);
+        assertEquals(0, limiter.reserve("user"));
+        assertEquals(-1, limiter.reserve("user"));
+        // rejected requests do not consume permits
+        assertEquals(-1, limiter.reserve("user"));
+    }
+
+    @Test
+    public void limitsPerUser() {
+        UserRateLimiter limiter = new UserRateLimiter(1, 100);
+        assertEquals(0, limiter.reserve("user1"));
+        assertEquals(-1, limiter.reserve("user1"));
+        assertEquals(0, limiter.reserve("user2"));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.wava.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class TimerWheelTest {
+
+    public TimerWheelTest() {
+    }
+
+    @Test
+    public void runsAfterDelay() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicLong runTime = new AtomicLong();
+        long start = System.nanoTime();
+        TimerWheel.Timeout timeout = TimerWheel.getInstance().schedule(record(runTime, latch), 50, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(runTime.get() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void waitsForRemainingRounds() throws Exception {
+        // a round of this wheel lasts 8 ms
+        TimerWheel wheel = new TimerWheel(1, 8);
+        long[] delays = {3, 20, 45, 100};
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        AtomicLong[] runTimes = new AtomicLong[delays.length];
+        long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            runTimes[i] = new AtomicLong();
+            wheel.schedule(record(runTimes[i], latch), delays[i], TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue("Timeout of " + delays[i] + " ms expired too early", runTimes[i].get() - start >= TimeUnit.MILLISECONDS.toNanos(delays[i]));
+        }
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        TimerWheel wheel = new TimerWheel(1, 8);
+        final AtomicBoolean run = new AtomicBoolean();
+        TimerWheel.Timeout timeout = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                run.set(true);
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        CountDownLatch latch = new CountDownLatch(1);
+        wheel.schedule(record(new AtomicLong(), latch), 60, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(run.get());
+        assertFalse(timeout.isExpired());
+    }
+
+    private static Runnable record(final AtomicLong runTime, final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runTime.set(System.nanoTime());
+                latch.countDown();
+            }
+        };
+    }
+}